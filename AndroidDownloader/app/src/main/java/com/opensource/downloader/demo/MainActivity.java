@@ -19,7 +19,6 @@
 package com.opensource.downloader.demo;
 
 import android.app.Activity;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
@@ -29,10 +28,15 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.opensource.downloader.DownloadCallback;
+import com.opensource.downloader.DownloadException;
+import com.opensource.downloader.DownloadFuture;
 import com.opensource.downloader.DownloadListener;
 import com.opensource.downloader.Downloader;
+import com.opensource.downloader.db.SQLiteResumeStore;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 public class MainActivity extends Activity {
     private ProgressBar mPb;
@@ -41,7 +45,7 @@ public class MainActivity extends Activity {
 
     private TextView mTvMsg;
 
-    private DownloadTask mDownloadTask = null;
+    private DownloadFuture mDownloadFuture = null;
 
     private boolean mIsPause = true;
 
@@ -68,7 +72,7 @@ public class MainActivity extends Activity {
                         mIsPause = false;
                     }
                 } else {
-                    if(mDownloadTask != null) {
+                    if(mDownloadFuture != null) {
                         stop();
                         mBtn.setText(R.string.start);
                         mIsPause = true;
@@ -82,75 +86,59 @@ public class MainActivity extends Activity {
     }
 
     private void stop() {
-        if(mDownloadTask != null) {
-            mDownloadTask.pause();
-            mDownloadTask = null;
+        if(mDownloadFuture != null) {
+            mDownloadFuture.cancel(true);
+            mDownloadFuture = null;
         }
     }
 
     private void download() {
-        mDownloadTask = new DownloadTask();
-        mDownloadTask.execute("http://www.gzevergrandefc.com/UploadFile/photos/2013-06/fbb77294-6041-41ac-befa-37e237bd41f2.jpg", MainApplication.APP_ROOT);
-    }
-
-
-
-    private class DownloadTask extends AsyncTask<String, Integer, String> {
-
-        private Downloader mmDownloader = null;
-
-
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-        }
-
-        @Override
-        protected String doInBackground(String... params) {
-        	mmDownloader = new Downloader(MainActivity.this, params[0], new File(params[1]), null, 4, true);
-        	DownloadListener downloadListener = new DownloadListener() {
-        		@Override
-        		public void onDownloadSize(int totalSize, int downloadedSize) {
-        			publishProgress(totalSize, downloadedSize);
-        		}
-        	};
-            try {
-                mmDownloader.download(downloadListener);
-                return "下载成功";
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            return null;
-        }
-
-        @Override
-        protected void onProgressUpdate(Integer... values) {
-            super.onProgressUpdate(values);
-            float percent = (float)values[1] / values[0] * 100;
-            mPb.setProgress((int) percent);
-            mTvMsg.setText(percent + "%");
-        }
-
-        public void pause() {
-            if(mmDownloader != null) {
-                mmDownloader.stop();
-                mIsPause = true;
-                cancel(true);
+        Downloader downloader = new Downloader(new SQLiteResumeStore(MainActivity.this),
+                "http://www.gzevergrandefc.com/UploadFile/photos/2013-06/fbb77294-6041-41ac-befa-37e237bd41f2.jpg",
+                new File(MainApplication.APP_ROOT), null, 4);
+        DownloadListener downloadListener = new DownloadListener() {
+            @Override
+            public void onDownloadSize(final int totalSize, final int downloadedSize) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        float percent = (float) downloadedSize / totalSize * 100;
+                        mPb.setProgress((int) percent);
+                        mTvMsg.setText(percent + "%");
+                    }
+                });
             }
-        }
-
-        @Override
-        protected void onPostExecute(String result) {
-            super.onPostExecute(result);
-            if(result != null) {
+        };
+        mDownloadFuture = downloader.downloadAsync(downloadListener);
+        mDownloadFuture.addCallback(new DownloadCallback() {
+            @Override
+            public void onCompleted(File file) {
                 Log.i("SUCCESS", "下载成功");
                 Toast.makeText(MainActivity.this, "下载成功", Toast.LENGTH_SHORT).show();
                 mPb.setProgress(0);
                 mBtn.setText(R.string.start);
                 mTvMsg.setText("");
                 mIsPause = true;
+                mDownloadFuture = null;
+            }
+
+            @Override
+            public void onFailed(DownloadException error) {
+                Log.e("FAILED", "下载失败", error);
+                mBtn.setText(R.string.start);
+                mIsPause = true;
+                mDownloadFuture = null;
             }
-        }
 
+            @Override
+            public void onCancelled() {
+                mIsPause = true;
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                runOnUiThread(command);
+            }
+        });
     }
 }
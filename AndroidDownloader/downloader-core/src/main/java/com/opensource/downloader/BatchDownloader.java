@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Usage Download a batch of files, such as the thousands of small files of a manifest.<br><br>
+ *
+ * A few batch threads take the files one after another. A small file is downloaded by a single
+ * request without probing and without a download log, the connections are kept alive and reused
+ * for the next files of the same host. A file larger than the segment threshold is handed to a
+ * {@link Downloader} to download it in segments. The files finished are saved in one checkpoint
+ * of the batch, so a stopped batch resumes from the files not finished.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class BatchDownloader {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final String TEMP_FILE_SUFFIX = ".download";
+	private static final int RESPONSE_OK = 200;
+	private static final int BUFFER_SIZE = 1024 * 16;
+	private static final long DEFAULT_SEGMENT_THRESHOLD = 1024 * 1024 * 4;
+	private static final int DEFAULT_CONNECTION_NUM = 4;
+	private static final int DEFAULT_THREAD_NUM = 4;
+	private static final int DEFAULT_READ_TIMEOUT = 20 * 1000;
+
+	private ResumeStore mResumeStore;
+	private String mBatchId;
+	private List<String> mUrls = new ArrayList<String>();
+	private List<File> mFiles = new ArrayList<File>();
+
+	private long mSegmentThreshold = DEFAULT_SEGMENT_THRESHOLD;
+	private int mConnectionNum = DEFAULT_CONNECTION_NUM;
+	private int mThreadNum = DEFAULT_THREAD_NUM;
+	private int mReadTimeout = DEFAULT_READ_TIMEOUT;
+	private long mUpdateTime = 1000;
+	private HttpTransport mTransport;
+
+	private volatile boolean mStop = true;
+	private final Object mLock = new Object();
+	private List<Integer> mPending; // The index of the files to download, guarded by mLock.
+	private int mFinishedCount; // Guarded by mLock.
+	private List<String> mUnsaved = new ArrayList<String>(); // The urls finished after the last checkpoint, guarded by mLock.
+	private Map<String, DownloadException> mFailures = new LinkedHashMap<String, DownloadException>(); // Guarded by mLock.
+	private Set<HttpURLConnection> mConnections = Collections.synchronizedSet(new HashSet<HttpURLConnection>());
+	private Set<Downloader> mDownloaders = Collections.synchronizedSet(new HashSet<Downloader>());
+
+	/**
+	 * Constructor<br><br>
+	 * @param store The storage to save the checkpoint of the batch, null if not need to resume.
+	 * @param batchId The id of the batch, the checkpoint is saved by it.
+	 */
+	public BatchDownloader(ResumeStore store, String batchId) {
+		this.mResumeStore = store;
+		this.mBatchId = batchId;
+	}
+
+	/**
+	 * Add a file to the batch.
+	 * @param url The url of the file.
+	 * @param file The local file to save it.
+	 */
+	public void add(String url, File file) {
+		mUrls.add(url);
+		mFiles.add(file);
+	}
+
+	/**
+	 * Set the size above which a file is downloaded in segments by a {@link Downloader}, 4MB by default.
+	 * @param threshold
+	 */
+	public void setSegmentThreshold(long threshold) {
+		this.mSegmentThreshold = threshold;
+	}
+
+	/**
+	 * Set the number of batch threads, each keeps one connection, 4 by default.
+	 * @param num
+	 */
+	public void setConnectionNum(int num) {
+		this.mConnectionNum = num;
+	}
+
+	/**
+	 * Set the thread count of the files downloaded in segments, 4 by default.
+	 * @param num
+	 */
+	public void setThreadNum(int num) {
+		this.mThreadNum = num;
+	}
+
+	/**
+	 * Set the read timeout of the connections in milliseconds, 20 seconds by default.
+	 * @param timeout
+	 */
+	public void setReadTimeout(int timeout) {
+		this.mReadTimeout = timeout;
+	}
+
+	/**
+	 * Set the transport of the range requests of the files downloaded in segments, see
+	 * {@link Downloader#setTransport(HttpTransport)}. The small files are requested by the batch threads.
+	 * @param transport
+	 */
+	public void setTransport(HttpTransport transport) {
+		this.mTransport = transport;
+	}
+
+	/**
+	 * Set the interval of the progress callback and the checkpoint.
+	 * @param updateTime
+	 */
+	public void setUpdateTime(long updateTime) {
+		this.mUpdateTime = updateTime;
+	}
+
+	/**
+	 * Download the files of the batch，this method has network, don't use it on ui thread.
+	 * @param listener The listener to listen the batch, can be null if not need.
+	 * @return The errors of the failed files keyed by url, empty if no file failed.
+	 */
+	public Map<String, DownloadException> download(BatchListener listener) {
+		mStop = false;
+		Set<String> finished = null == mResumeStore ? new HashSet<String>()
+				: mResumeStore.getFinished(mBatchId);
+		synchronized (mLock) {
+			mPending = new ArrayList<Integer>();
+			for (int i = 0; i < mUrls.size(); i++) {
+				if (!finished.contains(mUrls.get(i)) || !mFiles.get(i).exists()) {
+					mPending.add(i);
+				}
+			}
+			mFinishedCount = mUrls.size() - mPending.size();
+			mFailures.clear();
+			mUnsaved.clear();
+			Collections.reverse(mPending); // Take the files from the tail in order.
+		}
+		DownloadLog.i(TAG, "Batch " + mBatchId + " downloads " + (mUrls.size() - mFinishedCount) + " files of " + mUrls.size());
+
+		Thread [] threads = new Thread[Math.max(1, Math.min(mConnectionNum, mUrls.size() - mFinishedCount))];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new BatchThread(listener, i + 1);
+			threads[i].start();
+		}
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				synchronized (mLock) {
+					try {
+						mLock.wait(mUpdateTime);
+					} catch (InterruptedException e) {
+						interrupted = true;
+						stop();
+					}
+				}
+				checkpoint(listener);
+			}
+		}
+		checkpoint(listener);
+		synchronized (mLock) {
+			if (null != mResumeStore && !mStop && mFinishedCount == mUrls.size() && mFailures.isEmpty()) {
+				mResumeStore.deleteBatch(mBatchId); // All files are downloaded.
+			}
+			mStop = true;
+			if (interrupted) {
+				Thread.currentThread().interrupt(); // Keep the interrupt for the caller, it is not cleared by the stop.
+			}
+			return new LinkedHashMap<String, DownloadException>(mFailures);
+		}
+	}
+
+	/**
+	 * Stop the batch, the files finished are kept so it can be resumed.
+	 */
+	public void stop() {
+		mStop = true;
+		synchronized (mConnections) {
+			for (HttpURLConnection conn : mConnections) {
+				conn.disconnect();
+			}
+		}
+		synchronized (mDownloaders) {
+			for (Downloader downloader : mDownloaders) {
+				downloader.stop();
+			}
+		}
+	}
+
+	public boolean isStop() {
+		return mStop;
+	}
+
+	/**
+	 * Save the files finished since the last checkpoint, and report the progress.
+	 */
+	private void checkpoint(BatchListener listener) {
+		List<String> urls;
+		int finishedCount;
+		synchronized (mLock) {
+			urls = mUnsaved;
+			mUnsaved = new ArrayList<String>();
+			finishedCount = mFinishedCount;
+		}
+		if (null != mResumeStore && !urls.isEmpty()) {
+			mResumeStore.addFinished(mBatchId, urls);
+		}
+		if (null != listener) {
+			listener.onProgress(finishedCount, mUrls.size());
+		}
+	}
+
+	/**
+	 * Get the index of the next file to download.
+	 * @return The index, -1 if all files are taken.
+	 */
+	private int next() {
+		synchronized (mLock) {
+			return mStop || mPending.isEmpty() ? -1 : mPending.remove(mPending.size() - 1);
+		}
+	}
+
+	private void onFinished(String url, DownloadException error) {
+		synchronized (mLock) {
+			mFinishedCount++;
+			if (null == error) {
+				mUnsaved.add(url);
+			} else {
+				mFailures.put(url, error);
+			}
+		}
+	}
+
+	/**
+	 * Download a file by one request, or hand it to a {@link Downloader} if it is large.
+	 * @return The downloaded file, or null if the batch was stopped.
+	 */
+	private File download(String url, File file) throws DownloadException {
+		File folder = file.getParentFile();
+		if (null != folder && !folder.exists()) {
+			folder.mkdirs();
+		}
+		HttpURLConnection conn;
+		long length;
+		try {
+			conn = getConnection(url);
+			if (conn.getResponseCode() != RESPONSE_OK) {
+				int code = conn.getResponseCode();
+				conn.disconnect();
+				mConnections.remove(conn);
+				throw new DownloadException(DownloadException.Reason.SERVER, "server response error, response code:" + code);
+			}
+			length = conn.getContentLength();
+		} catch (IOException e) {
+			if (mStop) {
+				return null;
+			}
+			throw new DownloadException(DownloadException.Reason.NETWORK, "Failed to connect the url:" + url, e);
+		}
+		if (length > mSegmentThreshold && "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"))) {
+			// Large file, download it in segments, the response is the probe of the downloader.
+			try {
+				return downloadSegmented(url, file, conn);
+			} finally {
+				conn.disconnect();
+				mConnections.remove(conn);
+			}
+		}
+		File tempFile = new File(file.getAbsolutePath() + TEMP_FILE_SUFFIX);
+		long size = 0;
+		try {
+			InputStream inStream = conn.getInputStream();
+			OutputStream outStream = null;
+			try {
+				outStream = new FileOutputStream(tempFile);
+				byte [] buffer = new byte[BUFFER_SIZE];
+				int offset;
+				while ((offset = inStream.read(buffer)) != -1) {
+					outStream.write(buffer, 0, offset);
+					size += offset;
+				}
+			} finally {
+				// Close the stream which is read to the end, so the connection is kept alive for the next file.
+				inStream.close();
+				if (null != outStream) {
+					outStream.close();
+				}
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			if (mStop) {
+				return null;
+			}
+			throw new DownloadException(DownloadException.Reason.NETWORK, "Failed to download " + url, e);
+		} finally {
+			mConnections.remove(conn);
+		}
+		if (length >= 0 && size != length) {
+			tempFile.delete();
+			throw new DownloadException(DownloadException.Reason.VERIFICATION, "The size of " + url
+					+ " is " + size + ", expected " + length);
+		}
+		if (file.exists()) {
+			file.delete();
+		}
+		if (!tempFile.renameTo(file)) {
+			throw new DownloadException(DownloadException.Reason.STORAGE, "Failed to rename " + tempFile + " to " + file);
+		}
+		return file;
+	}
+
+	private File downloadSegmented(String url, File file, HttpURLConnection probe) throws DownloadException {
+		Downloader downloader = new Downloader(mResumeStore, url, file.getParentFile(), file.getName(), mThreadNum);
+		downloader.setReadTimeout(mReadTimeout);
+		downloader.setTransport(mTransport);
+		downloader.setProbe(probe);
+		mDownloaders.add(downloader);
+		try {
+			if (mStop) {
+				return null;
+			}
+			return downloader.download(null);
+		} finally {
+			mDownloaders.remove(downloader);
+		}
+	}
+
+	/**
+	 * Get HttpConnection object, the connection to the same host is reused if it is idle.
+	 * @param downloadUrl the url to download.
+	 * @return HttpConnection object
+	 */
+	private HttpURLConnection getConnection(String downloadUrl) throws IOException {
+		URL url = new URL(downloadUrl);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		mConnections.add(conn);
+		try {
+			if (mStop) {
+				throw new IOException("Stopped before connected");
+			}
+			conn.setConnectTimeout(5 * 1000);
+			conn.setReadTimeout(mReadTimeout);
+			conn.setRequestMethod("GET");
+			conn.setRequestProperty("Accept", "*/*");
+			conn.setRequestProperty("Accept-Language", "zh-CN");
+			conn.setRequestProperty("Referer", downloadUrl);
+			conn.setRequestProperty("Charset", "UTF-8");
+			conn.setRequestProperty("Connection", "Keep-Alive");
+			conn.connect();
+			return conn;
+		} catch (IOException e) {
+			mConnections.remove(conn);
+			throw e;
+		}
+	}
+
+	/**
+	 * The thread takes the files of the batch one after another.
+	 */
+	private class BatchThread extends Thread {
+
+		private BatchListener mListener;
+
+		BatchThread(BatchListener listener, int id) {
+			super("Batch-" + mBatchId + "-" + id);
+			this.mListener = listener;
+		}
+
+		@Override
+		public void run() {
+			try {
+				downloadAll();
+			} finally {
+				// Wake up the batch to report at once.
+				synchronized (mLock) {
+					mLock.notifyAll();
+				}
+			}
+		}
+
+		private void downloadAll() {
+			int index;
+			while ((index = next()) != -1) {
+				String url = mUrls.get(index);
+				try {
+					File file = download(url, mFiles.get(index));
+					if (null == file) {
+						return; // Stopped.
+					}
+					onFinished(url, null);
+					if (null != mListener) {
+						mListener.onFileCompleted(url, file);
+					}
+				} catch (DownloadException e) {
+					DownloadLog.e(TAG, "Batch failed to download " + url + ": " + e);
+					onFinished(url, e);
+					if (null != mListener) {
+						mListener.onFileFailed(url, e);
+					}
+				}
+			}
+		}
+	}
+}
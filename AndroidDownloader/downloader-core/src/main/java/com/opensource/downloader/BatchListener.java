@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+
+/**
+ * Usage The listener to listen the state of a {@link BatchDownloader}, the callbacks
+ * are called on the batch threads.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface BatchListener {
+
+	/**
+	 * A file of the batch is downloaded.
+	 * @param url The url of the file.
+	 * @param file The downloaded file.
+	 */
+	public void onFileCompleted(String url, File file);
+
+	/**
+	 * A file of the batch failed, the other files go on downloading.
+	 * @param url The url of the file.
+	 * @param error The error.
+	 */
+	public void onFileFailed(String url, DownloadException error);
+
+	/**
+	 * The progress of the batch.
+	 * @param finishedCount The count of the files completed or failed.
+	 * @param totalCount The count of all the files.
+	 */
+	public void onProgress(int finishedCount, int totalCount);
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Usage The block checksums of a file, to find the blocks which a local file already has,
+ * see {@link Downloader#setDeltaSource(File, BlockManifest)}.<br><br>
+ *
+ * The file is cut into blocks of the block size, the last block may be shorter. Each block has
+ * a weak rolling checksum to find the candidates at any offset of the local file, and a MD5 digest
+ * to confirm them. The manifest is text headers followed by the checksums of the blocks in order:
+ * <pre>
+ * Blocksize: 4096
+ * Length: 1048576
+ * Hash: MD5
+ *
+ * [4 bytes rolling checksum][16 bytes MD5] ...
+ * </pre>
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class BlockManifest {
+
+	private static final String HASH = "MD5";
+	private static final int DIGEST_LENGTH = 16;
+
+	private final int mBlockSize;
+	private final long mLength;
+	private final int [] mWeak;
+	private final byte [][] mStrong;
+
+	private BlockManifest(int blockSize, long length, int [] weak, byte [][] strong) {
+		this.mBlockSize = blockSize;
+		this.mLength = length;
+		this.mWeak = weak;
+		this.mStrong = strong;
+	}
+
+	/**
+	 * Compute the manifest of a file.
+	 * @param file The file.
+	 * @param blockSize The size of the blocks.
+	 */
+	public static BlockManifest create(File file, int blockSize) throws IOException {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("The block size must be positive: " + blockSize);
+		}
+		long length = file.length();
+		int count = getBlockCount(length, blockSize);
+		int [] weak = new int[count];
+		byte [][] strong = new byte[count][];
+		MessageDigest digest = newDigest();
+		byte [] block = new byte[blockSize];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			for (int i = 0; i < count; i++) {
+				int size = (int) Math.min(blockSize, length - (long) i * blockSize);
+				in.readFully(block, 0, size);
+				weak[i] = RollingChecksum.of(block, 0, size);
+				digest.update(block, 0, size);
+				strong[i] = digest.digest();
+			}
+		} finally {
+			in.close();
+		}
+		return new BlockManifest(blockSize, length, weak, strong);
+	}
+
+	/**
+	 * Read a manifest written by {@link #write(OutputStream)}.
+	 */
+	public static BlockManifest read(InputStream in) throws IOException {
+		DataInputStream dataIn = new DataInputStream(in);
+		int blockSize = -1;
+		long length = -1;
+		String line;
+		while ((line = readLine(dataIn)).length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon == -1) {
+				throw new IOException("Bad manifest header: " + line);
+			}
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim();
+			try {
+				if ("Blocksize".equalsIgnoreCase(name)) {
+					blockSize = Integer.parseInt(value);
+				} else if ("Length".equalsIgnoreCase(name)) {
+					length = Long.parseLong(value);
+				} else if ("Hash".equalsIgnoreCase(name) && !HASH.equalsIgnoreCase(value)) {
+					throw new IOException("Unsupported manifest hash: " + value);
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad manifest header: " + line);
+			}
+		}
+		if (blockSize <= 0 || length < 0) {
+			throw new IOException("The manifest has no block size or length");
+		}
+		int count = getBlockCount(length, blockSize);
+		int [] weak = new int[count];
+		byte [][] strong = new byte[count][DIGEST_LENGTH];
+		for (int i = 0; i < count; i++) {
+			weak[i] = dataIn.readInt();
+			dataIn.readFully(strong[i]);
+		}
+		return new BlockManifest(blockSize, length, weak, strong);
+	}
+
+	/**
+	 * Write the manifest to the stream, the stream is not closed.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.write(("Blocksize: " + mBlockSize + "\nLength: " + mLength + "\nHash: " + HASH + "\n\n").getBytes("UTF-8"));
+		for (int i = 0; i < mWeak.length; i++) {
+			dataOut.writeInt(mWeak[i]);
+			dataOut.write(mStrong[i]);
+		}
+		dataOut.flush();
+	}
+
+	public int getBlockSize() {
+		return mBlockSize;
+	}
+
+	/**
+	 * Get the length of the file.
+	 */
+	public long getLength() {
+		return mLength;
+	}
+
+	public int getBlockCount() {
+		return mWeak.length;
+	}
+
+	/**
+	 * Get the size of the block, only the last block may be shorter than the block size.
+	 */
+	public int getBlockLength(int index) {
+		return (int) Math.min(mBlockSize, mLength - (long) index * mBlockSize);
+	}
+
+	int getWeakChecksum(int index) {
+		return mWeak[index];
+	}
+
+	/**
+	 * Whether the digest equals the MD5 of the block.
+	 */
+	boolean matches(int index, byte [] digest) {
+		return Arrays.equals(mStrong[index], digest);
+	}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(HASH + " is not supported", e);
+		}
+	}
+
+	private static int getBlockCount(long length, int blockSize) {
+		long count = (length + blockSize - 1) / blockSize;
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many blocks, use a larger block size");
+		}
+		return (int) count;
+	}
+
+	private static String readLine(DataInputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				throw new IOException("The manifest ended in the headers");
+			}
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		return line.toString("UTF-8");
+	}
+
+	/**
+	 * The rolling checksum of rsync, the checksum of the window moved by one byte is computed from
+	 * the checksum of the window, the byte out and the byte in.
+	 */
+	static final class RollingChecksum {
+
+		private final int mSize;
+		private int mA;
+		private int mB;
+
+		/**
+		 * @param buffer The data of the first window.
+		 * @param offset The offset of the window in buffer.
+		 * @param size The size of the window.
+		 */
+		RollingChecksum(byte [] buffer, int offset, int size) {
+			this.mSize = size;
+			reset(buffer, offset);
+		}
+
+		static int of(byte [] buffer, int offset, int size) {
+			return new RollingChecksum(buffer, offset, size).get();
+		}
+
+		/**
+		 * Compute the checksum of the window at the offset from scratch.
+		 */
+		void reset(byte [] buffer, int offset) {
+			int a = 0;
+			int b = 0;
+			for (int i = 0; i < mSize; i++) {
+				int value = buffer[offset + i] & 0xff;
+				a += value;
+				b += (mSize - i) * value;
+			}
+			mA = a;
+			mB = b;
+		}
+
+		/**
+		 * Move the window by one byte.
+		 * @param out The first byte of the window.
+		 * @param in The byte after the window.
+		 */
+		void roll(byte out, byte in) {
+			mA += (in & 0xff) - (out & 0xff);
+			mB += mA - mSize * (out & 0xff);
+		}
+
+		int get() {
+			return (mA & 0xffff) | (mB << 16);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+/**
+ * Usage The memory budget of the download buffers of the process, shared by all the downloads. It covers
+ * the write buffers of the download threads and the disk writers, and the data kept ahead in the reorder
+ * windows of the stream sinks.<br><br>
+ *
+ * When half of the budget is used, the new write buffers get smaller and the downloads stop opening more
+ * connections by splitting segments. When the budget is used up, the download threads wait for a buffer
+ * before reading more from network, and the sinks keep no more data ahead. A thread which waits too long
+ * gets a buffer of the min size over the budget, so a download never waits for the buffers which wait for it.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public final class BufferBudget {
+
+	private static final String TAG = "DOWNLOADER";
+
+	/** The min size of a write buffer. */
+	static final int MIN_BUFFER_SIZE = 1024 * 8;
+
+	private static final long OVERDRAFT_WAIT = 1000;
+
+	private static final Object sLock = new Object();
+	private static long sLimit = Runtime.getRuntime().maxMemory() / 8; // Guarded by sLock.
+	private static long sUsed = 0; // Guarded by sLock.
+
+	private BufferBudget() {
+	}
+
+	/**
+	 * Set the budget, an eighth of the max heap size by default.
+	 * @param bytes The max size of the buffers of all the downloads.
+	 */
+	public static void setLimit(long bytes) {
+		synchronized (sLock) {
+			sLimit = bytes;
+			sLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Get the budget.
+	 */
+	public static long getLimit() {
+		synchronized (sLock) {
+			return sLimit;
+		}
+	}
+
+	/**
+	 * Get the size of the buffers in use.
+	 */
+	public static long getUsed() {
+		synchronized (sLock) {
+			return sUsed;
+		}
+	}
+
+	/**
+	 * Whether more than half of the budget is used.
+	 */
+	static boolean isUnderPressure() {
+		synchronized (sLock) {
+			return sUsed > sLimit / 2;
+		}
+	}
+
+	/**
+	 * Get a write buffer, smaller than the size asked under pressure. Block while the budget is used up.
+	 * @param size The size wanted.
+	 * @return The buffer, release it by {@link #release(int)} with its length.
+	 * @throws InterruptedException
+	 */
+	static byte [] acquire(int size) throws InterruptedException {
+		int min = Math.min(size, MIN_BUFFER_SIZE);
+		synchronized (sLock) {
+			long deadline = System.currentTimeMillis() + OVERDRAFT_WAIT;
+			while (sUsed > 0 && sUsed + min > sLimit) {
+				long timeout = deadline - System.currentTimeMillis();
+				if (timeout <= 0) {
+					DownloadLog.w(TAG, "Buffer budget " + sLimit + " used up, overdraw " + min + " bytes");
+					break;
+				}
+				sLock.wait(timeout);
+			}
+			while (size > min && sUsed + size > sLimit / 2) {
+				size = Math.max(min, size / 2);
+			}
+			sUsed += size;
+		}
+		return new byte[size];
+	}
+
+	/**
+	 * Reserve the size if it fits in the budget, never blocks.
+	 * @param size The size.
+	 * @return true if reserved, release it by {@link #release(int)}.
+	 */
+	static boolean tryReserve(int size) {
+		synchronized (sLock) {
+			if (sUsed + size > sLimit) {
+				return false;
+			}
+			sUsed += size;
+			return true;
+		}
+	}
+
+	/**
+	 * Give back the size of a buffer acquired or reserved.
+	 * @param size
+	 */
+	static void release(int size) {
+		synchronized (sLock) {
+			sUsed -= size;
+			sLock.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Usage A pool of equally sized byte buffers, so the buffers handed to the disk writer are reused
+ * instead of allocated for every block. The buffers are taken from the {@link BufferBudget}, the
+ * free buffers in the pool count in the budget until the pool is cleared.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class BufferPool {
+
+	private final ConcurrentLinkedQueue<byte[]> mFree = new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicInteger mFreeCount = new AtomicInteger(0);
+	private final int mBufferSize;
+	private final int mMaxFree;
+	private volatile boolean mCleared = false;
+
+	/**
+	 * Constructor
+	 * @param bufferSize The size of each buffer.
+	 * @param maxFree The max count of free buffers kept in the pool.
+	 */
+	BufferPool(int bufferSize, int maxFree) {
+		this.mBufferSize = bufferSize;
+		this.mMaxFree = maxFree;
+	}
+
+	/**
+	 * Get a buffer from the pool, a new buffer is taken from the budget if the pool is empty,
+	 * it may be smaller than the buffer size under memory pressure.
+	 * @throws InterruptedException Interrupted while waiting for the budget.
+	 */
+	byte[] obtain() throws InterruptedException {
+		byte[] buffer = mFree.poll();
+		if (null == buffer) {
+			return BufferBudget.acquire(mBufferSize);
+		}
+		mFreeCount.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Put the buffer back to the pool, or back to the budget if the pool is full or cleared.
+	 */
+	void recycle(byte[] buffer) {
+		if (!mCleared && buffer.length == mBufferSize) {
+			if (mFreeCount.incrementAndGet() <= mMaxFree) {
+				mFree.offer(buffer);
+				if (mCleared && mFree.remove(buffer)) {
+					// The pool was cleared at the same time.
+					mFreeCount.decrementAndGet();
+					BufferBudget.release(buffer.length);
+				}
+				return;
+			}
+			mFreeCount.decrementAndGet();
+		}
+		BufferBudget.release(buffer.length);
+	}
+
+	/**
+	 * Give the free buffers back to the budget, the buffers recycled after are given back at once.
+	 */
+	void clear() {
+		mCleared = true;
+		byte[] buffer;
+		while (null != (buffer = mFree.poll())) {
+			BufferBudget.release(buffer.length);
+		}
+	}
+
+	/**
+	 * Get the size of each buffer.
+	 */
+	int getBufferSize() {
+		return mBufferSize;
+	}
+}
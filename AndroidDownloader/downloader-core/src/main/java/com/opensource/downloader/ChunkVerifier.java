@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Usage Verify the chunks of a file by the digests of a {@link BlockManifest} while it is downloading.<br><br>
+ *
+ * A chunk is verified on a worker thread once all its data is saved. A chunk which fails stays
+ * pending until the download takes it back to download again, see {@link #takeFailed()}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class ChunkVerifier {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private final BlockManifest mManifest;
+	private final File mFile;
+	private final DownloadMetrics mMetrics;
+	private final BitSet mVerified = new BitSet(); // Guarded by this.
+	private final BitSet mFailed = new BitSet(); // The chunks failed and not downloaded again yet, guarded by this.
+	private final int [] mFailures; // The times each chunk failed, guarded by this.
+	private boolean mRunning = false; // Guarded by this.
+
+	/**
+	 * Constructor
+	 * @param manifest The digests of the chunks.
+	 * @param file The file to verify.
+	 * @param metrics The metrics of the download.
+	 */
+	ChunkVerifier(BlockManifest manifest, File file, DownloadMetrics metrics) {
+		this.mManifest = manifest;
+		this.mFile = file;
+		this.mMetrics = metrics;
+		this.mFailures = new int[manifest.getBlockCount()];
+	}
+
+	/**
+	 * Verify the chunks which are saved and not verified yet on a worker thread,
+	 * nothing is done if the last verification is running.
+	 * @param segments The segments sorted by start position.
+	 * @param done Run after the verification.
+	 */
+	void schedule(List<Segment> segments, final Runnable done) {
+		final List<Integer> chunks;
+		synchronized (this) {
+			if (mRunning) {
+				return;
+			}
+			chunks = getSavedChunks(segments);
+			if (chunks.isEmpty()) {
+				return;
+			}
+			mRunning = true;
+		}
+		DownloadScheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					MessageDigest digest = BlockManifest.newDigest();
+					byte [] buffer = new byte[mManifest.getBlockSize()];
+					for (int chunk : chunks) {
+						boolean passed = verify(chunk, digest, buffer);
+						synchronized (ChunkVerifier.this) {
+							if (passed) {
+								mVerified.set(chunk);
+							} else {
+								mFailed.set(chunk);
+								mFailures[chunk]++;
+							}
+						}
+					}
+				} finally {
+					synchronized (ChunkVerifier.this) {
+						mRunning = false;
+					}
+					done.run();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Check the last chunk saved in each segment of a resumed download, the data at the end of a
+	 * segment may be lost after a crash although the download log has it. A segment moves back to
+	 * the start of the first bad chunk from its end.
+	 * @param segments The segments loaded from the download log.
+	 */
+	void verifyTails(List<Segment> segments) {
+		MessageDigest digest = BlockManifest.newDigest();
+		byte [] buffer = new byte[mManifest.getBlockSize()];
+		for (Segment segment : segments) {
+			int chunk = getLastChunkBefore(segment.getPosition());
+			while (chunk >= 0 && getChunkStart(chunk) >= segment.getStart()) {
+				if (verify(chunk, digest, buffer)) {
+					synchronized (this) {
+						mVerified.set(chunk);
+					}
+					break;
+				}
+				DownloadLog.w(TAG, "The chunk " + chunk + " at the end of segment " + segment.getId() + " is bad, download it again");
+				segment.setDownloaded(getChunkStart(chunk) - segment.getStart());
+				chunk--;
+			}
+		}
+	}
+
+	/**
+	 * Take the failed chunks to download again, the chunks return to be verified after they are saved again.
+	 * @return The indexes of the failed chunks.
+	 */
+	synchronized List<Integer> takeFailed() {
+		List<Integer> chunks = new ArrayList<Integer>();
+		for (int i = mFailed.nextSetBit(0); i >= 0; i = mFailed.nextSetBit(i + 1)) {
+			chunks.add(i);
+		}
+		return chunks;
+	}
+
+	/**
+	 * The chunk is taken to download again.
+	 */
+	synchronized void requeued(int chunk) {
+		mFailed.clear(chunk);
+	}
+
+	/**
+	 * Get the times the chunk failed.
+	 */
+	synchronized int getFailures(int chunk) {
+		return mFailures[chunk];
+	}
+
+	synchronized boolean isAllVerified() {
+		return mVerified.cardinality() == mManifest.getBlockCount();
+	}
+
+	long getChunkStart(int chunk) {
+		return (long) chunk * mManifest.getBlockSize();
+	}
+
+	long getChunkEnd(int chunk) {
+		return getChunkStart(chunk) + mManifest.getBlockLength(chunk);
+	}
+
+	/**
+	 * Get the last chunk which ends before the position, -1 if none.
+	 */
+	private int getLastChunkBefore(long position) {
+		if (position >= mManifest.getLength()) {
+			return mManifest.getBlockCount() - 1;
+		}
+		return (int) (position / mManifest.getBlockSize()) - 1;
+	}
+
+	/**
+	 * Get the chunks which are saved, and neither verified nor failed.
+	 */
+	private List<Integer> getSavedChunks(List<Segment> segments) {
+		List<Integer> chunks = new ArrayList<Integer>();
+		long start = -1; // The saved range [start, end) across the complete segments.
+		long end = -1;
+		for (Segment segment : segments) {
+			if (segment.getStart() != end) {
+				addChunks(chunks, start, end);
+				start = segment.getStart();
+			}
+			end = segment.getPosition();
+			if (!segment.isComplete()) {
+				// The saved range ends in this segment.
+				addChunks(chunks, start, end);
+				start = -1;
+				end = -1;
+			}
+		}
+		addChunks(chunks, start, end);
+		return chunks;
+	}
+
+	/**
+	 * Add the chunks in the saved range [start, end).
+	 */
+	private void addChunks(List<Integer> chunks, long start, long end) {
+		int blockSize = mManifest.getBlockSize();
+		for (int chunk = (int) ((start + blockSize - 1) / blockSize); start < end && chunk < mFailures.length
+				&& getChunkEnd(chunk) <= end; chunk++) {
+			if (!mVerified.get(chunk) && !mFailed.get(chunk)) {
+				chunks.add(chunk);
+			}
+		}
+	}
+
+	private boolean verify(int chunk, MessageDigest digest, byte [] buffer) {
+		int length = mManifest.getBlockLength(chunk);
+		try {
+			RandomAccessFile in = new RandomAccessFile(mFile, "r");
+			try {
+				in.seek(getChunkStart(chunk));
+				in.readFully(buffer, 0, length);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			DownloadLog.w(TAG, "Failed to read the chunk " + chunk + ": " + e);
+			mMetrics.increment(DownloadMetrics.VERIFY_FAILURES, 1);
+			return false;
+		}
+		digest.update(buffer, 0, length);
+		if (mManifest.matches(chunk, digest.digest())) {
+			return true;
+		}
+		DownloadLog.w(TAG, "The chunk " + chunk + " of " + mFile + " doesn't match the digest");
+		mMetrics.increment(DownloadMetrics.VERIFY_FAILURES, 1);
+		return false;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Usage Find the blocks of a manifest in a local file at any offset, and copy them to the new file.
+ * The local file is scanned once with the rolling checksum, a candidate block is confirmed by its MD5.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class DeltaScanner {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final int READ_SIZE = 1024 * 256;
+
+	private DeltaScanner() {
+	}
+
+	/**
+	 * Scan the local file for the blocks of the manifest. The last block is only searched
+	 * if it is as large as the others.
+	 * @param source The local file.
+	 * @param manifest The manifest of the new file.
+	 * @return The offset in the local file of each block, -1 if the block is not found.
+	 */
+	static long [] scan(File source, BlockManifest manifest) throws IOException {
+		int blockSize = manifest.getBlockSize();
+		long [] offsets = new long[manifest.getBlockCount()];
+		Map<Integer, List<Integer>> index = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = -1;
+			if (manifest.getBlockLength(i) == blockSize) {
+				List<Integer> blocks = index.get(manifest.getWeakChecksum(i));
+				if (null == blocks) {
+					blocks = new ArrayList<Integer>(1);
+					index.put(manifest.getWeakChecksum(i), blocks);
+				}
+				blocks.add(i);
+			}
+		}
+		if (index.isEmpty() || source.length() < blockSize) {
+			return offsets;
+		}
+
+		MessageDigest digest = BlockManifest.newDigest();
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		try {
+			byte [] buffer = new byte[blockSize + READ_SIZE];
+			long bufferStart = 0; // The offset in file of buffer[0].
+			int bufferEnd = fill(in, buffer, 0);
+			int position = 0; // The start of the window in buffer.
+			BlockManifest.RollingChecksum checksum = new BlockManifest.RollingChecksum(buffer, 0, blockSize);
+			int remaining = index.size();
+			while (remaining > 0) {
+				List<Integer> blocks = index.get(checksum.get());
+				boolean matched = false;
+				if (null != blocks) {
+					digest.update(buffer, position, blockSize);
+					byte [] strong = digest.digest();
+					for (int block : blocks) {
+						if (offsets[block] == -1 && manifest.matches(block, strong)) {
+							offsets[block] = bufferStart + position;
+							remaining--;
+							matched = true;
+						}
+					}
+				}
+				// The next window is after the matched block, or one byte ahead.
+				int step = matched ? blockSize : 1;
+				if (position + step + blockSize > bufferEnd) {
+					// Keep the bytes from the window on, and read more.
+					System.arraycopy(buffer, position, buffer, 0, bufferEnd - position);
+					bufferStart += position;
+					bufferEnd -= position;
+					position = 0;
+					bufferEnd = fill(in, buffer, bufferEnd);
+					if (step + blockSize > bufferEnd) {
+						break; // The end of the file.
+					}
+				}
+				if (matched) {
+					position += step;
+					checksum.reset(buffer, position);
+				} else {
+					checksum.roll(buffer[position], buffer[position + blockSize]);
+					position++;
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return offsets;
+	}
+
+	/**
+	 * Copy the blocks found in the local file to the new file, the adjacent blocks are copied at once.
+	 * @param source The local file.
+	 * @param target The new file, allocated to its full length.
+	 * @param manifest The manifest of the new file.
+	 * @param offsets The offsets found by {@link #scan(File, BlockManifest)}.
+	 * @return The bytes copied.
+	 */
+	static long copy(File source, File target, BlockManifest manifest, long [] offsets) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		RandomAccessFile out = new RandomAccessFile(target, "rw");
+		long copied = 0;
+		try {
+			FileChannel inChannel = in.getChannel();
+			FileChannel outChannel = out.getChannel();
+			int blockSize = manifest.getBlockSize();
+			int i = 0;
+			while (i < offsets.length) {
+				if (offsets[i] == -1) {
+					i++;
+					continue;
+				}
+				int first = i;
+				long length = manifest.getBlockLength(i);
+				// Merge the blocks which are adjacent in both files.
+				while (++i < offsets.length && offsets[i] == offsets[i - 1] + blockSize) {
+					length += manifest.getBlockLength(i);
+				}
+				long from = offsets[first];
+				long to = (long) first * blockSize;
+				long end = to + length;
+				while (to < end) {
+					long count = outChannel.transferFrom(inChannel.position(from), to, end - to);
+					if (count <= 0) {
+						throw new IOException("Failed to copy the block at " + from + " of " + source);
+					}
+					from += count;
+					to += count;
+				}
+				copied += length;
+			}
+			out.getFD().sync();
+		} finally {
+			in.close();
+			out.close();
+		}
+		DownloadLog.i(TAG, "Copied " + copied + " bytes from " + source);
+		return copied;
+	}
+
+	private static int fill(RandomAccessFile in, byte [] buffer, int offset) throws IOException {
+		while (offset < buffer.length) {
+			int count = in.read(buffer, offset, buffer.length - offset);
+			if (count == -1) {
+				break;
+			}
+			offset += count;
+		}
+		return offset;
+	}
+}
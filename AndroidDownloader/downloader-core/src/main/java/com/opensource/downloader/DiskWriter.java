@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage The disk writer of a download. Download threads hand the filled buffers to the writer
+ * threads through bounded queues and go back to the network at once, the writer threads do the
+ * positional writes. A download thread blocks when its queue is full, so a slow disk slows down
+ * the network reads instead of buffering without limit.<br><br>
+ *
+ * The buffers of a download thread always go to the same writer thread, so they are written in
+ * order and the download log of the thread can advance after each write.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class DiskWriter {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final long POLL_TIMEOUT = 500;
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final BufferPool mPool;
+	private final BlockingQueue<WriteRequest> [] mQueues;
+	private final Thread [] mWriters;
+	private final DownloadMetrics mMetrics;
+
+	private volatile boolean mClosed = false;
+
+	/**
+	 * Constructor
+	 * @param file The file to write.
+	 * @param writerNum The number of writer threads.
+	 * @param queueCapacity The number of buffers each writer thread can queue.
+	 * @param bufferSize The size of each buffer.
+	 * @param metrics The metrics to record the write latency.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	DiskWriter(File file, int writerNum, int queueCapacity, int bufferSize, DownloadMetrics metrics) throws IOException {
+		mMetrics = metrics;
+		mFile = new RandomAccessFile(file, "rw");
+		mChannel = mFile.getChannel();
+		mPool = new BufferPool(bufferSize, writerNum * queueCapacity);
+		mQueues = (BlockingQueue<WriteRequest> []) new BlockingQueue<?>[writerNum];
+		mWriters = new Thread[writerNum];
+		for (int i = 0; i < writerNum; i++) {
+			final BlockingQueue<WriteRequest> queue = new ArrayBlockingQueue<WriteRequest>(queueCapacity);
+			mQueues[i] = queue;
+			mWriters[i] = new Thread("DiskWriter #" + (i + 1)) {
+				@Override
+				public void run() {
+					writeLoop(queue);
+				}
+			};
+			mWriters[i].start();
+		}
+	}
+
+	/**
+	 * Get an empty buffer to fill, it waits while the {@link BufferBudget} is used up.
+	 * @throws InterruptedException
+	 */
+	byte[] obtainBuffer() throws InterruptedException {
+		return mPool.obtain();
+	}
+
+	/**
+	 * Put an unused buffer back.
+	 */
+	void recycleBuffer(byte[] buffer) {
+		mPool.recycle(buffer);
+	}
+
+	/**
+	 * Queue a buffer to write, block while the queue of the thread is full.
+	 * The buffer belongs to the writer after this call.
+	 * @param thread The download thread which filled the buffer.
+	 * @param position The position in file to write at.
+	 * @param buffer The data.
+	 * @param length The length of data.
+	 * @throws InterruptedException
+	 */
+	void write(DownloadThread thread, long position, byte[] buffer, int length) throws InterruptedException {
+		if (mClosed) {
+			throw new IllegalStateException("The disk writer has been closed");
+		}
+		mQueues[thread.getThreadId() % mQueues.length].put(new WriteRequest(thread, position, buffer, length));
+	}
+
+	/**
+	 * Write the queued buffers and stop the writer threads, then close the file.
+	 */
+	void close() {
+		mClosed = true;
+		for (Thread writer : mWriters) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		mPool.clear();
+		try {
+			mFile.close();
+		} catch (IOException e) {
+			DownloadLog.w(TAG, "Close file failed: " + e);
+		}
+	}
+
+	private void writeLoop(BlockingQueue<WriteRequest> queue) {
+		List<WriteRequest> batch = new ArrayList<WriteRequest>();
+		while (!mClosed || !queue.isEmpty()) {
+			WriteRequest request;
+			try {
+				request = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (null == request) {
+				continue;
+			}
+			batch.add(request);
+			queue.drainTo(batch);
+			IOException error = null;
+			long start = System.nanoTime();
+			try {
+				for (WriteRequest r : batch) {
+					ByteBuffer src = ByteBuffer.wrap(r.mBuffer, 0, r.mLength);
+					long position = r.mPosition;
+					while (src.hasRemaining()) {
+						position += mChannel.write(src, position);
+					}
+				}
+				// One sync for the whole batch, the download log only advances after it.
+				mChannel.force(false);
+				mMetrics.record(DownloadMetrics.DISK_WRITE_LATENCY, (System.nanoTime() - start) / 1000);
+			} catch (IOException e) {
+				DownloadLog.e(TAG, "Write file failed: " + e);
+				error = e;
+			}
+			for (WriteRequest r : batch) {
+				r.mThread.onWritten(r.mLength, error);
+				mPool.recycle(r.mBuffer);
+			}
+			batch.clear();
+		}
+	}
+
+	private static class WriteRequest {
+		final DownloadThread mThread;
+		final long mPosition;
+		final byte[] mBuffer;
+		final int mLength;
+
+		WriteRequest(DownloadThread thread, long position, byte[] buffer, int length) {
+			mThread = thread;
+			mPosition = position;
+			mBuffer = buffer;
+			mLength = length;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+
+/**
+ * Usage The callback of a {@link DownloadFuture}, exactly one method is called when the download ends.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface DownloadCallback {
+
+	/**
+	 * The file is downloaded.
+	 * @param file The downloaded file.
+	 */
+	public void onCompleted(File file);
+
+	/**
+	 * The download failed.
+	 * @param error The error, see {@link DownloadException#getReason()}.
+	 */
+	public void onFailed(DownloadException error);
+
+	/**
+	 * The download was cancelled or stopped, it can be resumed by downloading again.
+	 */
+	public void onCancelled();
+}
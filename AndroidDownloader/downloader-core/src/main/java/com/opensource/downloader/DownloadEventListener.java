@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+
+/**
+ * Usage The listener to listen the lifecycle and progress of a download.<br><br>
+ *
+ * The callbacks are delivered through the executor given to
+ * {@link Downloader#setEventListener(DownloadEventListener, java.util.concurrent.Executor)},
+ * never on the download threads. Progress events are coalesced, a listener slower than the
+ * progress updates only gets the latest progress, and a slow listener never stalls the download.
+ * Extend {@link SimpleDownloadEventListener} to override only the callbacks you need.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface DownloadEventListener {
+
+	/**
+	 * The size and file name of the download is known.
+	 * @param url The url to download.
+	 * @param fileSize The total size of the file.
+	 */
+	public void onProbed(String url, long fileSize);
+
+	/**
+	 * A segment starts to receive data.
+	 * @param segmentId The id of the segment (the thread id).
+	 * @param position The position it starts from.
+	 */
+	public void onSegmentStarted(int segmentId, long position);
+
+	/**
+	 * A segment received all its data.
+	 * @param segmentId The id of the segment.
+	 */
+	public void onSegmentFinished(int segmentId);
+
+	/**
+	 * A segment failed, it will be restarted from its last checkpoint.
+	 * @param segmentId The id of the segment.
+	 * @param error The error.
+	 */
+	public void onSegmentFailed(int segmentId, Exception error);
+
+	/**
+	 * The progress of the download.
+	 * @param progress
+	 */
+	public void onProgress(DownloadProgress progress);
+
+	/**
+	 * The download is paused, it can be resumed from the given progress.
+	 * @param progress
+	 */
+	public void onPaused(DownloadProgress progress);
+
+	/**
+	 * All data is downloaded and the size of the file is verified.
+	 * @param file The temporary file, before it is renamed.
+	 */
+	public void onVerified(File file);
+
+	/**
+	 * The download is completed.
+	 * @param file The downloaded file.
+	 */
+	public void onCompleted(File file);
+
+	/**
+	 * The download failed.
+	 * @param error
+	 */
+	public void onFailed(Exception error);
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+/**
+ * Usage The error of a download, with the reason of the failure.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The reason of a failed download.
+	 */
+	public enum Reason {
+		/**
+		 * Failed to connect the server or to read the response.
+		 */
+		NETWORK,
+		/**
+		 * The server responded an error, or didn't tell the size of the file.
+		 */
+		SERVER,
+		/**
+		 * There is not enough free space to save the file.
+		 */
+		INSUFFICIENT_SPACE,
+		/**
+		 * Failed to write the local file.
+		 */
+		STORAGE,
+		/**
+		 * The downloaded file doesn't match the expected size.
+		 */
+		VERIFICATION,
+		/**
+		 * Any other error.
+		 */
+		UNKNOWN,
+	}
+
+	private final Reason mReason;
+
+	public DownloadException(Reason reason, String message) {
+		super(message);
+		this.mReason = reason;
+	}
+
+	public DownloadException(Reason reason, String message, Throwable cause) {
+		super(message, cause);
+		this.mReason = reason;
+	}
+
+	/**
+	 * Get the reason of the failure.
+	 */
+	public Reason getReason() {
+		return mReason;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " [" + mReason + "]";
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Usage The handle of a download started by {@link Downloader#downloadAsync(DownloadListener)}.<br><br>
+ *
+ * No thread waits for the download, the callbacks are called when it ends, and
+ * {@link #cancel(boolean)} stops it, the download can be resumed by downloading again later.
+ * {@link #get()} is only for the callers who want to block.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadFuture implements Future<File> {
+
+	private static final int PENDING = 0;
+	private static final int COMPLETED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private final Downloader mDownloader;
+	private int mState = PENDING; // Guarded by this.
+	private File mFile;
+	private DownloadException mError;
+	private List<Object []> mCallbacks = new ArrayList<Object []>(); // {callback, executor}, guarded by this.
+
+	DownloadFuture(Downloader downloader) {
+		this.mDownloader = downloader;
+	}
+
+	/**
+	 * Get the downloader of this download.
+	 */
+	public Downloader getDownloader() {
+		return mDownloader;
+	}
+
+	/**
+	 * Add a callback which is called on the thread ending the download, or at once if it has ended.
+	 * @param callback
+	 * @return This future, to add more callbacks.
+	 */
+	public DownloadFuture addCallback(DownloadCallback callback) {
+		return addCallback(callback, null);
+	}
+
+	/**
+	 * Add a callback which is called through the executor when the download ends, or at once if it has ended.
+	 * @param callback
+	 * @param executor The executor to run the callback, null to run it on the thread ending the download.
+	 * @return This future, to add more callbacks.
+	 */
+	public DownloadFuture addCallback(DownloadCallback callback, Executor executor) {
+		synchronized (this) {
+			if (mState == PENDING) {
+				mCallbacks.add(new Object [] {callback, executor});
+				return this;
+			}
+		}
+		dispatch(callback, executor);
+		return this;
+	}
+
+	/**
+	 * Stop the download, the data downloaded is kept so it can be resumed.
+	 * @param mayInterruptIfRunning Ignored, the connections are always closed at once.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!set(CANCELLED, null, null)) {
+			return false;
+		}
+		mDownloader.stop();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return mState == CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return mState != PENDING;
+	}
+
+	@Override
+	public synchronized File get() throws InterruptedException, ExecutionException {
+		while (mState == PENDING) {
+			wait();
+		}
+		return getResult();
+	}
+
+	@Override
+	public synchronized File get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (mState == PENDING) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private File getResult() throws ExecutionException {
+		if (mState == CANCELLED) {
+			throw new CancellationException("The download was cancelled");
+		}
+		if (mState == FAILED) {
+			throw new ExecutionException(mError);
+		}
+		return mFile;
+	}
+
+	void complete(File file) {
+		set(COMPLETED, file, null);
+	}
+
+	void fail(DownloadException error) {
+		set(FAILED, null, error);
+	}
+
+	void cancelled() {
+		set(CANCELLED, null, null);
+	}
+
+	/**
+	 * Set the result and call the callbacks.
+	 * @return false if the result has been set.
+	 */
+	private boolean set(int state, File file, DownloadException error) {
+		List<Object []> callbacks;
+		synchronized (this) {
+			if (mState != PENDING) {
+				return false;
+			}
+			mState = state;
+			mFile = file;
+			mError = error;
+			callbacks = mCallbacks;
+			mCallbacks = null;
+			notifyAll();
+		}
+		for (Object [] callback : callbacks) {
+			dispatch((DownloadCallback) callback[0], (Executor) callback[1]);
+		}
+		return true;
+	}
+
+	private void dispatch(final DownloadCallback callback, Executor executor) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				// The result is final once set.
+				int state;
+				synchronized (DownloadFuture.this) {
+					state = mState;
+				}
+				if (state == COMPLETED) {
+					callback.onCompleted(mFile);
+				} else if (state == FAILED) {
+					callback.onFailed(mError);
+				} else {
+					callback.onCancelled();
+				}
+			}
+		};
+		if (null == executor) {
+			task.run();
+		} else {
+			executor.execute(task);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Usage The stream to read the file of a {@link Downloader} while it is downloading.
+ * It reads the data saved from the start of the file, and blocks at the end of it until more data is saved.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class DownloadInputStream extends InputStream {
+
+	private final Downloader mDownloader;
+	private RandomAccessFile mFile;
+	private long mPosition = 0;
+	private long mAvailable = 0; // The size saved from the start of the file, when last checked.
+	private boolean mClosed = false;
+
+	DownloadInputStream(Downloader downloader) {
+		this.mDownloader = downloader;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte [] buffer = new byte[1];
+		return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (mClosed) {
+			throw new IOException("Stream closed");
+		}
+		if (length == 0) {
+			return 0;
+		}
+		if (mPosition >= mAvailable) {
+			mAvailable = mDownloader.awaitSavedPrefix(mPosition);
+			if (mAvailable < 0) {
+				mAvailable = 0;
+				return -1;
+			}
+		}
+		RandomAccessFile file = open();
+		int count = file.read(buffer, offset, (int) Math.min(length, mAvailable - mPosition));
+		if (count > 0) {
+			mPosition += count;
+		}
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, mAvailable - mPosition));
+	}
+
+	@Override
+	public void close() throws IOException {
+		mClosed = true;
+		if (null != mFile) {
+			mFile.close();
+			mFile = null;
+		}
+	}
+
+	/**
+	 * Open the local file, the file opened keeps readable after it is renamed.
+	 */
+	private RandomAccessFile open() throws IOException {
+		if (null == mFile) {
+			File file = mDownloader.getReadableFile();
+			if (null == file) {
+				throw new IOException("The download has no local file");
+			}
+			try {
+				mFile = new RandomAccessFile(file, "r");
+			} catch (FileNotFoundException e) {
+				// Renamed after it was completed.
+				mFile = new RandomAccessFile(mDownloader.getReadableFile(), "r");
+			}
+			mFile.seek(mPosition);
+		}
+		return mFile;
+	}
+}
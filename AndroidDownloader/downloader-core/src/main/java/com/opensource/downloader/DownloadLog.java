@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+/**
+ * Usage The log of the downloader, written to the logger of the platform unless another logger is set.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public final class DownloadLog {
+
+	private static volatile DownloadLogger sLogger;
+
+	private DownloadLog() {
+	}
+
+	/**
+	 * Set the logger of all the downloads.
+	 * @param logger The logger, null to use the logger of the platform.
+	 */
+	public static void setLogger(DownloadLogger logger) {
+		sLogger = logger;
+	}
+
+	public static void d(String tag, String message) {
+		getLogger().log(DownloadLogger.DEBUG, tag, message);
+	}
+
+	public static void i(String tag, String message) {
+		getLogger().log(DownloadLogger.INFO, tag, message);
+	}
+
+	public static void w(String tag, String message) {
+		getLogger().log(DownloadLogger.WARN, tag, message);
+	}
+
+	public static void e(String tag, String message) {
+		getLogger().log(DownloadLogger.ERROR, tag, message);
+	}
+
+	public static boolean isLoggable(String tag, int priority) {
+		return getLogger().isLoggable(tag, priority);
+	}
+
+	private static DownloadLogger getLogger() {
+		DownloadLogger logger = sLogger;
+		return null != logger ? logger : DownloadPlatform.get().getLogger();
+	}
+}
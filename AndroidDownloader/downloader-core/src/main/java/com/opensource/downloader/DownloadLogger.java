@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+/**
+ * Usage The output of the log of the downloader, see {@link DownloadLog#setLogger(DownloadLogger)}.
+ * The priorities are the same as the ones of android.util.Log.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface DownloadLogger {
+
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	/**
+	 * Write a message.
+	 * @param priority One of {@link #DEBUG}, {@link #INFO}, {@link #WARN} and {@link #ERROR}.
+	 * @param tag The tag of the message.
+	 * @param message The message.
+	 */
+	public void log(int priority, String tag, String message);
+
+	/**
+	 * Whether the messages of the priority are written, the message which is costly to build is skipped if not.
+	 */
+	public boolean isLoggable(String tag, int priority);
+}
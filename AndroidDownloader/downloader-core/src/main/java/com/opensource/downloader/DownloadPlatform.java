@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Usage The services of the platform the downloader runs on. The platform of Android is found at
+ * runtime when the downloader module is in the app, otherwise the plain JVM defaults are used:
+ * the log goes to java.util.logging, the event callbacks run in order on a callback thread, so a slow
+ * listener doesn't hold the download threads, and the files are allocated without fallocate.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadPlatform {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final String ANDROID_PLATFORM = "com.opensource.downloader.AndroidPlatform";
+
+	private static volatile DownloadPlatform sPlatform;
+
+	private static Executor sVirtualThreadExecutor;
+	private static boolean sVirtualThreadChecked = false;
+
+	private final DownloadLogger mLogger = new DownloadLogger() {
+		@Override
+		public void log(int priority, String tag, String message) {
+			Logger.getLogger(tag).log(getLevel(priority), message);
+		}
+
+		@Override
+		public boolean isLoggable(String tag, int priority) {
+			return Logger.getLogger(tag).isLoggable(getLevel(priority));
+		}
+
+		private Level getLevel(int priority) {
+			return priority >= ERROR ? Level.SEVERE : priority >= WARN ? Level.WARNING
+					: priority >= INFO ? Level.INFO : Level.FINE;
+		}
+	};
+
+	private final Executor mCallbackExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			DownloadScheduler.callback(command);
+		}
+	};
+
+	protected DownloadPlatform() {
+	}
+
+	/**
+	 * Get the platform, the Android platform if it is in the class path.
+	 */
+	public static DownloadPlatform get() {
+		DownloadPlatform platform = sPlatform;
+		if (null == platform) {
+			synchronized (DownloadPlatform.class) {
+				if (null == sPlatform) {
+					sPlatform = findPlatform();
+				}
+				platform = sPlatform;
+			}
+		}
+		return platform;
+	}
+
+	/**
+	 * Replace the platform, such as to run the downloads of a service with its own executors.
+	 * @param platform The platform, null to find it again.
+	 */
+	public static void set(DownloadPlatform platform) {
+		sPlatform = platform;
+	}
+
+	private static DownloadPlatform findPlatform() {
+		try {
+			return (DownloadPlatform) Class.forName(ANDROID_PLATFORM).newInstance();
+		} catch (ClassNotFoundException e) {
+			return new DownloadPlatform();
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to create " + ANDROID_PLATFORM, e);
+		}
+	}
+
+	/**
+	 * Get the logger used if no logger is set to {@link DownloadLog}.
+	 */
+	public DownloadLogger getLogger() {
+		return mLogger;
+	}
+
+	/**
+	 * Get the executor to run the callbacks of {@link DownloadEventListener} if no executor is given.
+	 */
+	public Executor getCallbackExecutor() {
+		return mCallbackExecutor;
+	}
+
+	/**
+	 * Get the executor which runs each task on a new virtual thread, for {@link Downloader#setSegmentExecutor(Executor)}.
+	 * The blocking reads of a virtual thread don't hold a platform thread, so a large number of connections
+	 * can run at the same time. It is looked up by reflection, as the downloader is built for older runtimes.
+	 * @return The executor, or null if the runtime has no virtual threads.
+	 */
+	public Executor getVirtualThreadExecutor() {
+		synchronized (DownloadPlatform.class) {
+			if (!sVirtualThreadChecked) {
+				sVirtualThreadChecked = true;
+				try {
+					Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+					sVirtualThreadExecutor = (Executor) method.invoke(null);
+				} catch (Exception e) {
+					DownloadLog.i(TAG, "Virtual threads are not supported: " + e);
+				}
+			}
+			return sVirtualThreadExecutor;
+		}
+	}
+
+	/**
+	 * Get the usable space of the folder.
+	 * @param folder
+	 * @return The usable bytes.
+	 */
+	public long getUsableSpace(File folder) {
+		return folder.getUsableSpace();
+	}
+
+	/**
+	 * Make the file executable by its owner.
+	 * @param file The file.
+	 * @return true if the file is executable, false if the platform can't set it.
+	 */
+	public boolean setExecutable(File file) {
+		return file.setExecutable(true);
+	}
+
+	/**
+	 * Reserve the real blocks of a range of the file.
+	 * @param file The file.
+	 * @param offset The start of the range.
+	 * @param length The length of the range.
+	 * @return true if the blocks are reserved, false if the platform can't, the range is filled with zeros then.
+	 */
+	public boolean fallocate(RandomAccessFile file, long offset, long length) throws IOException {
+		return false;
+	}
+}
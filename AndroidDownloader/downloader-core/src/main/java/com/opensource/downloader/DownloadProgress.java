@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+/**
+ * Usage An immutable snapshot of the progress of a download.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadProgress {
+
+	private final long mTotalSize;
+	private final long mDownloadedSize;
+	private final long mDecodedSize;
+	private final long mSpeed;
+	private final long mEta;
+	private final long [] mSegmentSizes;
+	private final long [] mSegmentDownloaded;
+
+	/**
+	 * Constructor
+	 * @param totalSize The total size of the file.
+	 * @param downloadedSize The size downloaded.
+	 * @param speed The smoothed speed in bytes per second.
+	 * @param eta The estimated time to finish in milliseconds, -1 if unknown.
+	 * @param segmentSizes The size of each segment.
+	 * @param segmentDownloaded The size downloaded of each segment.
+	 */
+	public DownloadProgress(long totalSize, long downloadedSize, long speed, long eta,
+			long [] segmentSizes, long [] segmentDownloaded) {
+		this(totalSize, downloadedSize, downloadedSize, speed, eta, segmentSizes, segmentDownloaded);
+	}
+
+	/**
+	 * Constructor
+	 * @param totalSize The total size of the file, or of the compressed data of a compressed transfer, -1 if unknown.
+	 * @param downloadedSize The size downloaded.
+	 * @param decodedSize The size after decoded, equals to downloadedSize if the transfer is not compressed.
+	 * @param speed The smoothed speed in bytes per second.
+	 * @param eta The estimated time to finish in milliseconds, -1 if unknown.
+	 * @param segmentSizes The size of each segment.
+	 * @param segmentDownloaded The size downloaded of each segment.
+	 */
+	public DownloadProgress(long totalSize, long downloadedSize, long decodedSize, long speed, long eta,
+			long [] segmentSizes, long [] segmentDownloaded) {
+		this.mTotalSize = totalSize;
+		this.mDownloadedSize = downloadedSize;
+		this.mDecodedSize = decodedSize;
+		this.mSpeed = speed;
+		this.mEta = eta;
+		this.mSegmentSizes = segmentSizes;
+		this.mSegmentDownloaded = segmentDownloaded;
+	}
+
+	public long getTotalSize() {
+		return mTotalSize;
+	}
+
+	public long getDownloadedSize() {
+		return mDownloadedSize;
+	}
+
+	/**
+	 * Get the size after decoded, it equals to the downloaded size if the transfer is not compressed.
+	 */
+	public long getDecodedSize() {
+		return mDecodedSize;
+	}
+
+	/**
+	 * Get the progress in percent, between 0 and 100.
+	 */
+	public float getPercent() {
+		return mTotalSize <= 0 ? 0 : mDownloadedSize * 100f / mTotalSize;
+	}
+
+	/**
+	 * Get the smoothed speed in bytes per second.
+	 */
+	public long getSpeed() {
+		return mSpeed;
+	}
+
+	/**
+	 * Get the estimated time to finish in milliseconds, -1 if unknown.
+	 */
+	public long getEta() {
+		return mEta;
+	}
+
+	public int getSegmentCount() {
+		return mSegmentSizes.length;
+	}
+
+	/**
+	 * Get the size of a segment.
+	 * @param index The index of the segment, the segments are ordered by the start position.
+	 */
+	public long getSegmentSize(int index) {
+		return mSegmentSizes[index];
+	}
+
+	/**
+	 * Get the size downloaded of a segment.
+	 * @param index The index of the segment, the segments are ordered by the start position.
+	 */
+	public long getSegmentDownloadedSize(int index) {
+		return mSegmentDownloaded[index];
+	}
+
+	@Override
+	public String toString() {
+		return "DownloadProgress{" + mDownloadedSize + "/" + mTotalSize + ", speed=" + mSpeed + "B/s, eta=" + mEta + "ms}";
+	}
+}
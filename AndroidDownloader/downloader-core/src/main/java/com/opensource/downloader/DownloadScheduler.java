@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Usage The shared threads of the asynchronous downloads. The progress of all the downloads is
+ * checked by one ticker thread, and the short blocking steps (probing the url, joining the
+ * download threads) run on a pool of worker threads which are released when idle. The event
+ * callbacks of the plain JVM run in order on one callback thread.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class DownloadScheduler {
+
+	private static ScheduledExecutorService sTicker;
+	private static ExecutorService sWorkers;
+	private static ExecutorService sCallbacks;
+
+	private DownloadScheduler() {
+	}
+
+	/**
+	 * Run the task on a worker thread.
+	 */
+	static synchronized void execute(Runnable task) {
+		if (null == sWorkers) {
+			sWorkers = Executors.newCachedThreadPool(new DaemonThreadFactory("Downloader-worker-"));
+		}
+		sWorkers.execute(task);
+	}
+
+	/**
+	 * Run the callback on the callback thread, after the callbacks run before.
+	 */
+	static synchronized void callback(Runnable task) {
+		if (null == sCallbacks) {
+			sCallbacks = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Downloader-callback-"));
+		}
+		sCallbacks.execute(task);
+	}
+
+	/**
+	 * Run the task on the ticker thread after the delay, the task must not block.
+	 */
+	static synchronized void schedule(Runnable task, long delayMillis) {
+		if (null == sTicker) {
+			sTicker = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Downloader-ticker-"));
+		}
+		sTicker.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+
+		private final String mPrefix;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.mPrefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, mPrefix + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.IOException;
+
+/**
+ * Usage The output of a download which is consumed without saving the file,
+ * see {@link Downloader#setSink(DownloadSink)}.<br><br>
+ *
+ * The download threads write the data of their segments at the same time, so the writes
+ * come out of order. A sink may block a write until it can accept it.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface DownloadSink {
+
+	/**
+	 * Called before the first write of a download.
+	 * @param size The total size of the data, -1 if unknown (the decoded size of a compressed transfer).
+	 * @throws IOException The sink can't accept the data, the download fails.
+	 */
+	public void open(long size) throws IOException;
+
+	/**
+	 * Write the data at the position.
+	 * @param position The position of the data.
+	 * @param buffer The data, the sink must copy it if it keeps the data after returning.
+	 * @param offset The offset of the data in buffer.
+	 * @param length The length of the data.
+	 * @throws IOException The sink failed, the download fails.
+	 * @throws InterruptedException The download was stopped while the write was blocked.
+	 */
+	public void write(long position, byte [] buffer, int offset, int length) throws IOException, InterruptedException;
+
+	/**
+	 * Called after all the data is written.
+	 * @throws IOException The sink failed, the download fails.
+	 */
+	public void close() throws IOException;
+
+	/**
+	 * Called instead of {@link #close()} after the download failed or was stopped, release the resources
+	 * and fail the writes blocked. It may be called without {@link #open(long)} called.
+	 */
+	public void abort();
+}
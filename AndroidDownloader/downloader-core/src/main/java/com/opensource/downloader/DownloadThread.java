@@ -0,0 +1,628 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */	
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+import com.opensource.downloader.trace.DownloadTracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedList;
+
+
+/**
+ * Usage The download task, it downloads one {@link Segment} of the file. It runs on its own thread,
+ * or as a task of the segment executor of the downloader, such as one of virtual threads.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadThread implements Runnable {
+
+	private static final String TAG = "DOWNLOADER";
+	private static final int RESPONSE_OK = 200;
+	private static final int RESPONSE_PARTIAL = 206;
+
+	private Downloader mDownloader;
+	private URL mUrl;
+	private File mSavedFile;
+	private Segment mSegment;
+	private int mThreadId = -1;
+
+	private volatile boolean mFinished = false;
+	private volatile boolean mFailed = false;
+	private volatile boolean mDone = false; // The thread ended and released the segment.
+	private volatile boolean mAborted = false; // The connection was aborted because it stalled.
+	private volatile boolean mWaitingWrite = false; // Blocked in writing the sink or queueing to the disk writer.
+	private volatile boolean mWaitingBuffer = false; // Blocked in waiting for the buffer budget.
+	private Thread mRunner; // The thread running this task, guarded by this.
+
+	private int mPendingWrites = 0; // The buffers queued in the disk writer, guarded by this.
+	private volatile IOException mWriteError; // The error happened in the disk writer.
+
+	private DownloadMetrics mMetrics;
+	private volatile HttpTransport.Exchange mExchange;
+	private volatile long mReadSize = 0; // The bytes read from network by this thread.
+	private volatile long mSavedSize = 0; // The bytes saved to file by this thread.
+	private final LinkedList<long []> mSamples = new LinkedList<long []>(); // {time, read size} of the stall window.
+
+	/**
+	 * 构造方法
+	 * 
+	 * @param downloader Downloader instance.
+	 * @param downUrl The url of downloading file
+	 * @param saveFile The local file that to save the downloading file.
+	 * @param segment The segment this thread need to download, it must have been assigned.
+	 */
+	public DownloadThread(Downloader downloader, URL downUrl, File saveFile, Segment segment) {
+		this.mUrl = downUrl;
+		mSavedFile = saveFile;
+		this.mSegment = segment;
+		this.mDownloader = downloader;
+		mThreadId = segment.getId();
+	}
+
+	@Override
+	public void run() {
+		synchronized (this) {
+			mRunner = Thread.currentThread();
+		}
+		try {
+			if (!mSegment.isComplete()) {// If this segment are not finished.
+				download();
+			} else {
+				mFinished = true;
+			}
+		} finally {
+			mSegment.release();
+			synchronized (this) {
+				mRunner = null;
+				// The thread may be pooled, don't leave the interrupt of stop to the next task.
+				Thread.interrupted();
+				mDone = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void download() {
+		mMetrics = mDownloader.getMetrics().segment(mThreadId);
+		DownloadTracer tracer = mDownloader.getTracer();
+		EventDispatcher dispatcher = mDownloader.getDispatcher();
+		if (null != tracer) {
+			tracer.begin(mThreadId, "segment", "downloaded", mSegment.getDownloaded());
+		}
+		try {
+			HttpTransport.Exchange conn = mDownloader.getTransport().newExchange(mUrl);
+			mExchange = conn;
+			if (mDownloader.isStop()) {
+				throw new InterruptedException("Stopped before connected");
+			}
+			conn.setRequestProperty("Accept", "*/*"); // accept all MIME-TYPE
+			conn.setRequestProperty("Accept-Language", "zh-CN");
+			conn.setRequestProperty("Referer", mUrl.toString());
+			conn.setRequestProperty("Charset", "UTF-8");
+			// The range is of the identity encoded data.
+			conn.setRequestProperty("Accept-Encoding", "identity");
+
+			// Get the position of this thread start to download.
+			long startPos = mSegment.getPosition();
+			// Get the position of this thread end to download.
+			long endPos = mSegment.getEnd() - 1;
+
+			//Setting the rage of the data, it will return exact realistic size automatically,
+			// if the size set to be is lager then realistic size.
+			conn.setRequestProperty("Range", "bytes=" + startPos + "-" + endPos);
+
+			// Client agent
+			conn.setRequestProperty("User-Agent",
+					"Mozilla/4.0 (compatible; MSIE 8.0;"
+							+ " Windows NT 5.2; Trident/4.0;"
+							+ " .NET CLR 1.1.4322;"
+							+ " .NET CLR 2.0.50727;"
+							+ " .NET CLR 3.0.04506.30;"
+							+ " .NET CLR 3.0.4506.2152;"
+							+ " .NET CLR 3.5.30729)");
+
+			// Use long connection.
+			conn.setRequestProperty("Connection", "Keep-Alive");
+			long connectStart = System.nanoTime();
+			conn.connect(6 * 1000, mDownloader.getReadTimeout());
+			long connectEnd = System.nanoTime();
+			mMetrics.record(DownloadMetrics.CONNECT_TIME, (connectEnd - connectStart) / 1000);
+			if (null != tracer) {
+				tracer.complete(mThreadId, "connect", connectStart);
+			}
+			checkRange(conn, startPos);
+			// Get the input stream of the connection.
+			InputStream inStream = conn.getInputStream();
+			mMetrics.record(DownloadMetrics.FIRST_BYTE_TIME, (System.nanoTime() - connectEnd) / 1000);
+			if (null != tracer) {
+				tracer.instant(mThreadId, "first_byte", "position", startPos);
+			}
+			if (null != dispatcher) {
+				dispatcher.segmentStarted(mThreadId, startPos);
+			}
+			DownloadLog.i(TAG, mThreadId + " starts to download from position " + startPos);
+			try {
+				if (mDownloader.isMemoryMapped()) {
+					transferMapped(inStream, startPos, Math.min(endPos + 1, mDownloader.getFileSize()));
+				} else {
+					transfer(inStream, startPos);
+				}
+			} finally {
+				inStream.close();
+			}
+			if (null != mWriteError) {
+				throw mWriteError;
+			}
+
+			long elapsed = (System.nanoTime() - connectEnd) / 1000;
+			if (elapsed > 0) {
+				mMetrics.record(DownloadMetrics.THROUGHPUT, mSavedSize * 1000000L / elapsed);
+			}
+			if (mDownloader.isStop()) {
+				DownloadLog.i(TAG, "Download thread " + mThreadId + " has been paused");
+			} else if (mAborted) {
+				DownloadLog.w(TAG, "Download thread " + mThreadId + " stalled at position " + mSegment.getPosition());
+				if (null != dispatcher) {
+					dispatcher.segmentFailed(mThreadId, new SocketTimeoutException("Segment " + mThreadId + " stalled"));
+				}
+			} else {
+				DownloadLog.i(TAG, "Download thread " + mThreadId + " has been finished");
+				if (null != dispatcher && mSegment.isComplete()) {
+					dispatcher.segmentFinished(mThreadId);
+				}
+			}
+			if (null != tracer) {
+				tracer.end(mThreadId, "segment", "saved", mSavedSize, "paused", mDownloader.isStop(), "stalled", mAborted);
+			}
+			this.mFinished = true; // 设置完成标志为true，无论是下载完成还是用户主动中断下载
+		} catch (Exception e) {
+			if (mDownloader.isStop()) {
+				// The connection was closed by stop.
+				DownloadLog.i(TAG, "Download thread " + mThreadId + " has been paused");
+				if (null != tracer) {
+					tracer.end(mThreadId, "segment", "saved", mSavedSize, "paused", true);
+				}
+				this.mFinished = true;
+				return;
+			}
+			if (mAborted && e instanceof InterruptedException) {
+				// The stalled connection was aborted while waiting for a buffer or a write, like a blocked read.
+				DownloadLog.w(TAG, "Download thread " + mThreadId + " stalled at position " + mSegment.getPosition());
+				if (null != dispatcher) {
+					dispatcher.segmentFailed(mThreadId, new SocketTimeoutException("Segment " + mThreadId + " stalled"));
+				}
+				if (null != tracer) {
+					tracer.end(mThreadId, "segment", "saved", mSavedSize, "stalled", true);
+				}
+				this.mFinished = true;
+				return;
+			}
+			// The data read but not saved will be downloaded again.
+			mMetrics.increment(DownloadMetrics.WASTED_BYTES, mReadSize - mSavedSize);
+			if (null != tracer) {
+				tracer.end(mThreadId, "segment", "saved", mSavedSize, "error", e.toString());
+			}
+			if (null != dispatcher) {
+				dispatcher.segmentFailed(mThreadId, e);
+			}
+			this.mFailed = true;
+			DownloadLog.e(TAG, "Thread " + mThreadId + ":" + e);
+		}
+	}
+
+	/**
+	 * Check the response is the data from the start position. A server which ignores the range sends
+	 * the whole file, which is only the data of this segment if the segment starts the file.
+	 * @param conn The connected exchange.
+	 * @param startPos The position this segment starts to download from.
+	 * @throws IOException The response is not of the range.
+	 */
+	private void checkRange(HttpTransport.Exchange conn, long startPos) throws IOException {
+		int code = conn.getResponseCode();
+		if (code == RESPONSE_PARTIAL) {
+			String range = conn.getHeaderField("Content-Range");
+			if (null == range || !range.trim().startsWith("bytes " + startPos + "-")) {
+				throw new IOException("The response of segment " + mThreadId + " from " + startPos
+						+ " has the range " + range);
+			}
+		} else if (code == RESPONSE_OK && startPos > 0) {
+			mDownloader.onRangeIgnored();
+			throw new IOException("The server ignored the range of segment " + mThreadId + " from " + startPos);
+		}
+	}
+
+	/**
+	 * Read the data from network and write it to file, by this thread or through the disk writer.
+	 * @param inStream The input stream of the connection.
+	 * @param startPos The position to start to write.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void transfer(InputStream inStream, long startPos) throws IOException, InterruptedException {
+		DiskWriter writer = mDownloader.getDiskWriter();
+		DownloadSink sink = mDownloader.getSink();
+		RandomAccessFile threadFile = null;
+		byte[] buffer = null; // Null after it is handed to the disk writer.
+		try {
+			// Small network reads are gathered in the write buffer, and written to file in large blocks.
+			buffer = obtainBuffer(writer);
+			int buffered = 0;
+			long position = startPos;
+			// Fill the first block only up to a buffer boundary of the file, so the later writes are aligned.
+			int limit = buffer.length - (int) (startPos % buffer.length);
+			int offset = 0;
+			if (null == writer && null == sink) {
+				threadFile = new RandomAccessFile(mSavedFile, "rwd");
+				// Make the pointer point to the position where start to download.
+				threadFile.seek(startPos);
+			}
+			// The data is written to file until user stop download or data is finished download.
+			int claimed;
+			while (!isCancelled() && null == mWriteError
+					&& (claimed = mSegment.claim(position + buffered, limit - buffered)) > 0
+					&& (offset = read(inStream, buffer, buffered, claimed)) != -1) {
+				buffered += offset;
+				mReadSize += offset;
+				if (buffered == limit) {
+					buffer = flush(writer, sink, threadFile, position, buffer, buffered);
+					position += buffered;
+					buffered = 0;
+					if (null == buffer) {
+						buffer = obtainBuffer(writer);
+					}
+					limit = buffer.length;
+				}
+			}
+			// Write the rest data when finished or paused, the data of a sink is not kept when paused.
+			clearInterruptIfStopped();
+			if (buffered > 0 && (null == sink || !mDownloader.isStop())) {
+				buffer = flush(writer, sink, threadFile, position, buffer, buffered);
+			}
+		} finally {
+			if (null != buffer) {
+				releaseBuffer(writer, buffer);
+			}
+			if (null != threadFile) {
+				threadFile.close();
+			}
+			// Wait for the queued writes, so the download log is up to date when this thread ends.
+			clearInterruptIfStopped();
+			awaitWrites();
+		}
+	}
+
+	/**
+	 * Read the data from network straight into the mapped windows of the file.
+	 * The mapped data is forced to file before the download log advances.
+	 * @param inStream The input stream of the connection.
+	 * @param startPos The position to start to write.
+	 * @param endPos The position after the last byte of this thread.
+	 * @throws IOException
+	 */
+	private void transferMapped(InputStream inStream, long startPos, long endPos) throws IOException {
+		ReadableByteChannel in = Channels.newChannel(inStream);
+		RandomAccessFile threadFile = new RandomAccessFile(mSavedFile, "rw");
+		MappedSegmentWriter out = new MappedSegmentWriter(threadFile.getChannel(), startPos, endPos,
+				mDownloader.getMappedWindowSize());
+		try {
+			int checkpointSize = mDownloader.getWriteBufferSize();
+			int unsaved = 0;
+			int offset;
+			while (!isCancelled()
+					&& (offset = transferFrom(out, in, mSegment.claim(out.getPosition(), out.getWindowRemaining()))) != -1) {
+				unsaved += offset;
+				mReadSize += offset;
+				if (unsaved >= checkpointSize) {
+					force(out);
+					advance(unsaved);
+					unsaved = 0;
+				}
+			}
+			clearInterruptIfStopped();
+			force(out);
+			advance(unsaved);
+		} finally {
+			out.close();
+			threadFile.close();
+		}
+	}
+
+	/**
+	 * Write the buffered data to file, the checkpoint only advances after the data is written.
+	 * @param writer The disk writer, write in this thread if it is null.
+	 * @param sink The sink to write instead of the file, null to write the file.
+	 * @param threadFile The file to write in this thread.
+	 * @param position The position of the data in file.
+	 * @param buffer The buffered data.
+	 * @param length The length of buffered data.
+	 * @return The buffer to fill next, null if the buffer is handed to the disk writer.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private byte[] flush(DiskWriter writer, DownloadSink sink, RandomAccessFile threadFile, long position,
+			byte[] buffer, int length) throws IOException, InterruptedException {
+		if (null != writer) {
+			synchronized (this) {
+				mPendingWrites++;
+			}
+			// The queue of the disk writer is full while the disk is slower than the network, which is not a stall.
+			mWaitingWrite = true;
+			try {
+				writer.write(this, position, buffer, length);
+			} catch (InterruptedException e) {
+				onWritten(0, null);
+				throw e;
+			} finally {
+				mWaitingWrite = false;
+			}
+			return null;
+		}
+		long start = System.nanoTime();
+		if (null != sink) {
+			// The sink may block until the data before is consumed, which is not a stall.
+			mWaitingWrite = true;
+			try {
+				sink.write(position, buffer, 0, length);
+			} catch (IOException e) {
+				// A write interrupted by stop or abort is not an error of the sink.
+				if (!isCancelled()) {
+					mDownloader.onSinkError(e);
+				}
+				throw e;
+			} finally {
+				mWaitingWrite = false;
+			}
+		} else {
+			threadFile.write(buffer, 0, length);
+		}
+		mMetrics.record(DownloadMetrics.DISK_WRITE_LATENCY, (System.nanoTime() - start) / 1000);
+		advance(length);
+		return buffer;
+	}
+
+	/**
+	 * Get a write buffer from the disk writer or the {@link BufferBudget}, wait while the budget is used up.
+	 * @param writer The disk writer, null if this thread writes by itself.
+	 * @throws InterruptedException
+	 */
+	private byte[] obtainBuffer(DiskWriter writer) throws InterruptedException {
+		mWaitingBuffer = true;
+		try {
+			return null != writer ? writer.obtainBuffer() : BufferBudget.acquire(mDownloader.getWriteBufferSize());
+		} finally {
+			mWaitingBuffer = false;
+		}
+	}
+
+	private void releaseBuffer(DiskWriter writer, byte[] buffer) {
+		if (null != writer) {
+			writer.recycleBuffer(buffer);
+		} else {
+			BufferBudget.release(buffer.length);
+		}
+	}
+
+	/**
+	 * Read from the connection, a read aborted by stop or stall is taken as the end of data,
+	 * so the data read before is still saved.
+	 */
+	private int read(InputStream inStream, byte[] buffer, int offset, int length) throws IOException {
+		try {
+			return inStream.read(buffer, offset, length);
+		} catch (IOException e) {
+			if (isCancelled()) {
+				return -1;
+			}
+			throw e;
+		}
+	}
+
+	private int transferFrom(MappedSegmentWriter out, ReadableByteChannel in, int max) throws IOException {
+		try {
+			return out.transferFrom(in, max);
+		} catch (IOException e) {
+			if (isCancelled()) {
+				return -1;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Clear the interrupt of stop or stall, so the last data can be saved.
+	 */
+	private void clearInterruptIfStopped() {
+		if (isCancelled()) {
+			Thread.interrupted();
+		}
+	}
+
+	private boolean isCancelled() {
+		return mAborted || mDownloader.isStop();
+	}
+
+	/**
+	 * Stop this thread at once, close the connection and interrupt the blocked read.
+	 * The data read before is saved when the thread ends.
+	 */
+	void cancel() {
+		HttpTransport.Exchange conn = mExchange;
+		if (null != conn) {
+			conn.cancel();
+		}
+		synchronized (this) {
+			if (null != mRunner) {
+				mRunner.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Abort the connection of a stalled segment, the data read before is saved,
+	 * and the rest of the segment can be downloaded by another connection.
+	 */
+	void abort() {
+		mAborted = true;
+		cancel();
+	}
+
+	/**
+	 * Sample the read size of this thread, called periodically by the downloader.
+	 * @param now The current time in milliseconds.
+	 * @param window The time window to check.
+	 * @param minBytesPerSecond The min throughput in the window.
+	 * @return true if the throughput in the whole window is lower than the min throughput.
+	 */
+	boolean isStalled(long now, long window, long minBytesPerSecond) {
+		long readSize = mReadSize;
+		if (mWaitingWrite || mWaitingBuffer) {
+			// Measure again after the data is taken or the buffer is got.
+			mSamples.clear();
+			return false;
+		}
+		mSamples.addLast(new long [] {now, readSize});
+		// Keep only one sample older than the window.
+		while (mSamples.size() > 1 && mSamples.get(1)[0] <= now - window) {
+			mSamples.removeFirst();
+		}
+		long [] oldest = mSamples.getFirst();
+		long elapsed = now - oldest[0];
+		return elapsed >= window && (readSize - oldest[1]) * 1000 / elapsed < minBytesPerSecond;
+	}
+
+	private void force(MappedSegmentWriter out) {
+		long start = System.nanoTime();
+		out.force();
+		mMetrics.record(DownloadMetrics.DISK_WRITE_LATENCY, (System.nanoTime() - start) / 1000);
+	}
+
+	/**
+	 * Advance the checkpoint of this thread after the data is written.
+	 * @param length The length written.
+	 */
+	private void advance(int length) {
+		if (length <= 0) {
+			return;
+		}
+		mSegment.setDownloaded(mSegment.getDownloaded() + length);
+		mSavedSize += length;
+		mMetrics.increment(DownloadMetrics.DOWNLOADED_BYTES, length);
+		// Update the range of this segment to the download log.
+		mDownloader.update(mSegment);
+		// Update the size of downloaded.
+		mDownloader.append(length);
+	}
+
+	/**
+	 * Called by the disk writer after a buffer of this thread is written.
+	 * @param length The length written.
+	 * @param error The error if the write failed.
+	 */
+	synchronized void onWritten(int length, IOException error) {
+		if (null != error) {
+			mWriteError = error;
+		} else if (null == mWriteError) {
+			advance(length);
+		}
+		mPendingWrites--;
+		notifyAll();
+	}
+
+	/**
+	 * Wait for this task to end and release the segment.
+	 * @throws InterruptedException
+	 */
+	synchronized void await() throws InterruptedException {
+		while (!mDone) {
+			wait();
+		}
+	}
+
+	private synchronized void awaitWrites() {
+		while (mPendingWrites > 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the id of this thread.
+	 */
+	int getThreadId() {
+		return mThreadId;
+	}
+
+	/**
+	 * Get the segment of this thread.
+	 */
+	Segment getSegment() {
+		return mSegment;
+	}
+
+	/**
+	 * Whether this thread ended and released the segment.
+	 */
+	boolean isDone() {
+		return mDone;
+	}
+
+	/**
+	 * Whether this thread ended with an error.
+	 */
+	boolean isFailed() {
+		return mFailed;
+	}
+
+	/**
+	 * Whether this thread was aborted because it stalled.
+	 */
+	boolean isAborted() {
+		return mAborted;
+	}
+
+	/**
+	 * Get the download state,finished or not.
+	 * 
+	 * @return true if this thread is finished.
+	 */
+	public boolean isFinished() {
+		return mFinished;
+	}
+
+	/**
+	 * Get the size of downloaded.
+	 * 
+	 * @return The size of downloaded,return -1 when this thread download failed
+	 */
+	public long getDownloadedLength() {
+		return mFailed ? -1 : mSegment.getDownloaded();
+	}
+}
@@ -0,0 +1,1977 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+import com.opensource.downloader.metrics.MetricsReporter;
+import com.opensource.downloader.trace.DownloadTracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipException;
+
+
+/**
+ * usage Downloader class
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class Downloader {
+	
+	private static final String TAG = "DOWNLOADER";
+	
+	private static final String TEMP_FILE_SUFFIX = ".download";
+	
+	private static final int RESPONSE_OK = 200;
+
+	private static final int DEFAULT_WRITE_BUFFER_SIZE = 1024 * 256;
+	private static final int MIN_WRITE_BUFFER_SIZE = 1024 * 8;
+	private static final int DEFAULT_MAPPED_WINDOW_SIZE = 1024 * 1024 * 4;
+	private static final int DEFAULT_READ_TIMEOUT = 20 * 1000;
+	private static final HttpTransport DEFAULT_TRANSPORT = new UrlConnectionTransport();
+	private static final long DEFAULT_STALL_WINDOW = 8 * 1000;
+	private static final long DEFAULT_STALL_MIN_SPEED = 512;
+	private static final long DEFAULT_MIN_SPLIT_SIZE = 1024 * 1024;
+	private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+	private static final int MAX_CHUNK_FAILURES = 3; // The download fails when a chunk fails the verification this many times.
+	private static final float SPEED_SMOOTHING = 0.3f; // The weight of the latest sample in the smoothed speed.
+
+	/**
+	 * The downloads in flight keyed by url, a request for a url which is already downloading to the same
+	 * file attaches to the running transfer instead of starting a new one. A request of the url to another
+	 * file waits for the running transfer to end, the download log of a url is of one file.
+	 */
+	private static final Map<String, Downloader> sActiveDownloads = new HashMap<String, Downloader>();
+
+	private ResumeStore mResumeStore; // The storage of the download log, null if not resumable.
+	private boolean mStop = true; // The flag of stopped.
+	private int mDownloadedSize = 0; // The size of downloaded.
+	private int mFileSize = 0; // The size of the file which to download.
+	private DownloadThread [] mTheadPool; // The thread pool of download thread.
+	private Executor mSegmentExecutor; // Runs the download threads, null to start a thread for each.
+	private HttpTransport mTransport = DEFAULT_TRANSPORT; // Sends the range requests of the download threads.
+	private HttpURLConnection mProbe; // The response of the url the caller has read, taken by the next probe.
+    private File mSaveFolder;
+	private File mSavedFile; // The local file.
+	private File mDownloadedFile;
+	private String mFileName; // save file name;
+	private long mUpdateTime = 1000;
+	private Map<Integer, Segment> mSegments = new ConcurrentHashMap<Integer, Segment>(); // The segments of the file keyed by id
+	private String mUrl; // The url of the file which to download.
+	
+	private boolean mFinished = false;
+	
+
+	private FileAllocation mFileAllocation = FileAllocation.SPARSE;
+	private int mWriteBufferSize = DEFAULT_WRITE_BUFFER_SIZE; // The size of data gathered before writing to file.
+	private int mDiskWriterNum = 1; // The number of disk writer threads, 0 means download threads write by themselves.
+	private DiskWriter mDiskWriter;
+	private boolean mMemoryMapped = false; // Write the file through mapped windows.
+	private int mMappedWindowSize = DEFAULT_MAPPED_WINDOW_SIZE;
+	private volatile DownloadMetrics mMetrics = new DownloadMetrics(); // The metrics of the last download run.
+	private MetricsReporter mMetricsReporter;
+	private long mStartTime;
+	private DownloadTracer mTracer;
+	private EventDispatcher mDispatcher;
+	private long mSpeed = -1; // The smoothed speed in bytes per second.
+	private long mLastProgressTime = 0;
+	private long mLastProgressSize = 0;
+	private volatile State mState = State.IDLE;
+	private final Object mTickLock = new Object(); // Notified to wake up the progress loop at once.
+	private volatile Downloader mCoalescedOwner; // The owner of the transfer this request attached to.
+	private int mReadTimeout = DEFAULT_READ_TIMEOUT;
+	private long mStallWindow = DEFAULT_STALL_WINDOW;
+	private long mStallMinSpeed = DEFAULT_STALL_MIN_SPEED;
+	private long mMinSplitSize = DEFAULT_MIN_SPLIT_SIZE;
+	private Scheduling mScheduling = Scheduling.PARALLEL;
+	private int mChunkSize = DEFAULT_CHUNK_SIZE;
+	private final Object mPrefixLock = new Object(); // Notified when more data is saved or the download ends.
+	private volatile boolean mFileReady = false; // The local file of the running download is created.
+	private DownloadSink mSink;
+	private volatile IOException mSinkError;
+	private boolean mSinkOpened = false; // The sink is opened and not closed yet.
+	private boolean mCompressedTransfer = false; // Accept gzip and deflate encoded responses.
+	private volatile EncodedTransfer mEncodedTransfer; // The transfer of an encoded response, null if not encoded.
+	private File mDeltaSource; // The previous version of the file to copy the unchanged blocks from.
+	private BlockManifest mDeltaManifest; // The block checksums of the file to download.
+	private BlockManifest mChunkHashes; // The digests to verify the chunks of the file.
+	private volatile ChunkVerifier mVerifier;
+	private volatile DownloadException mVerifyError;
+	private volatile boolean mRangeIgnored = false; // A range request was answered with the whole file.
+	private boolean mSingleRange = false; // The file is downloaded by one request from the start, not split.
+	private volatile DownloadException mRangeError;
+
+	private boolean mInFlight = false; // Guarded by this, true while this instance owns the transfer of mUrl.
+	private DownloadException mError; // The error of the last transfer, guarded by this.
+	private List<Runnable> mReleaseHooks = new ArrayList<Runnable>(); // Run when the transfer ends, guarded by this.
+	private List<DownloadListener> mAttachedListeners = new CopyOnWriteArrayList<DownloadListener>(); // Listeners of coalesced requests.
+	private final AtomicBoolean mSizeReporting = new AtomicBoolean(); // A size callback is queued and not run yet.
+	private boolean mSavePending = false; // The download log is to be replaced by a worker, guarded by this.
+	private Segment mSaveSegment; // The segment the latency of the pending save is recorded on, guarded by this.
+
+	/**
+	 * The order to download the parts of the file.
+	 */
+	public enum Scheduling {
+		/**
+		 * The file is divided into one segment for each thread, all parts of the file arrive at the same time.
+		 */
+		PARALLEL,
+		/**
+		 * The file is divided into small chunks which are downloaded in order, the start of the file
+		 * arrives first. Use it to consume the file while it is downloading, see {@link #openStream()}.
+		 */
+		SEQUENTIAL,
+	}
+
+	/**
+	 * The strategy to create the local file.
+	 */
+	public enum FileAllocation {
+		/**
+		 * Only set the length of the file, the file system may create a sparse file.
+		 */
+		SPARSE,
+		/**
+		 * Reserve the real blocks of the whole file before downloading.
+		 */
+		PREALLOCATE,
+	}
+
+	/**
+	 * The state of a download.
+	 */
+	public enum State {
+		/**
+		 * The download has not been started.
+		 */
+		IDLE,
+		/**
+		 * The download is running.
+		 */
+		DOWNLOADING,
+		/**
+		 * The download was stopped, it can be resumed by downloading again.
+		 */
+		PAUSED,
+		/**
+		 * The file is downloaded.
+		 */
+		COMPLETED,
+		/**
+		 * The download failed.
+		 */
+		FAILED,
+	}
+
+	/**
+	 * Constructor<br><br>
+	 * @param store The storage of the download log, the download can be resumed if not null.
+	 * @param downloadUrl
+	 * @param saveFolder
+     * @param fileName 保存文件名称
+	 * @param threadNum
+	 */
+	public Downloader(ResumeStore store, String downloadUrl, File saveFolder, String fileName, int threadNum) {
+        this.mResumeStore = store;
+        this.mUrl = downloadUrl;
+        this.mSaveFolder = saveFolder;
+        this.mTheadPool = new DownloadThread[threadNum];
+        this.mFileName = fileName;
+
+        checkDownloadFolder(saveFolder);
+    }
+	
+	/**
+	 * Download file，this method has network, don't use it on ui thread.
+	 * 
+	 * @param listener The listener to listen download state, can be null if not need. It is called on the
+	 * callback executor of {@link DownloadPlatform}.
+	 * @return The downloaded file, or null if the download was stopped.
+	 * @throws DownloadException The error happened when downloading.
+	 */
+	public File download(DownloadListener listener) throws DownloadException {
+		mStop = false;
+		mState = State.DOWNLOADING;
+		while (true) {
+			Downloader owner = claim();
+			if (null == owner) {
+				break;
+			}
+			boolean attached = owner.hasSameDestination(this);
+			DownloadLog.i(TAG, (attached ? "Attach to" : "Wait for") + " the running download of " + mUrl);
+			File file;
+			mCoalescedOwner = owner;
+			try {
+				file = owner.await(this, attached ? listener : null);
+			} catch (DownloadException e) {
+				mState = State.FAILED;
+				throw e;
+			} finally {
+				mCoalescedOwner = null;
+			}
+			if (null != file || isStop() || Thread.currentThread().isInterrupted()) {
+				// An interrupted waiter is paused, like a download stopped by stop().
+				mStop = true;
+				mState = null != file ? State.COMPLETED : State.PAUSED;
+				return file;
+			}
+			// The owner was paused before finishing, or saved another file, take over the transfer.
+		}
+
+		DownloadException error = null;
+		mMetrics = new DownloadMetrics();
+		mStartTime = System.currentTimeMillis();
+		try {
+			return doDownload(listener);
+		} catch (DownloadException e) {
+			error = e;
+			onFailed(e);
+			throw e;
+		} finally {
+			release(error);
+		}
+	}
+
+	/**
+	 * Start to download the file and return at once, no thread waits for the download.
+	 * The progress of the download is checked by a thread shared by all the asynchronous downloads.
+	 * 
+	 * @param listener The listener to listen download state, can be null if not need. It is called on the
+	 * callback executor of {@link DownloadPlatform}.
+	 * @return The handle to listen the result and to cancel the download.
+	 */
+	public DownloadFuture downloadAsync(final DownloadListener listener) {
+		mStop = false;
+		mState = State.DOWNLOADING;
+		final DownloadFuture future = new DownloadFuture(this);
+		DownloadScheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				startAsync(future, listener);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Own the transfer of mUrl, or attach to the running transfer without waiting for it.
+	 */
+	private void startAsync(final DownloadFuture future, final DownloadListener listener) {
+		if (isStop()) {
+			mState = State.PAUSED;
+			future.cancelled();
+			return;
+		}
+		final Downloader owner = claim();
+		if (null != owner) {
+			boolean attached = owner.hasSameDestination(this);
+			DownloadLog.i(TAG, (attached ? "Attach to" : "Wait for") + " the running download of " + mUrl);
+			mCoalescedOwner = owner;
+			if (null != listener && attached) {
+				owner.mAttachedListeners.add(listener);
+			}
+			owner.whenReleased(new Runnable() {
+				@Override
+				public void run() {
+					if (null != listener) {
+						owner.mAttachedListeners.remove(listener);
+					}
+					mCoalescedOwner = null;
+					File file;
+					try {
+						file = owner.getResult(Downloader.this);
+					} catch (DownloadException e) {
+						mState = State.FAILED;
+						future.fail(e);
+						return;
+					}
+					if (null != file || isStop()) {
+						mStop = true;
+						mState = null != file ? State.COMPLETED : State.PAUSED;
+						if (null != file) {
+							future.complete(file);
+						} else {
+							future.cancelled();
+						}
+						return;
+					}
+					// The owner was paused before finishing, or saved another file, take over the transfer.
+					startAsync(future, listener);
+				}
+			});
+			return;
+		}
+
+		mMetrics = new DownloadMetrics();
+		mStartTime = System.currentTimeMillis();
+		final URL url;
+		try {
+			url = prepare();
+		} catch (DownloadException e) {
+			finishAsync(future, null, e);
+			return;
+		}
+		if (null == url) {
+			finishAsync(future, null, null);
+			return;
+		}
+		DownloadScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				boolean downloading;
+				try {
+					downloading = tick(url, listener);
+				} catch (RuntimeException e) {
+					closeDiskWriter();
+					finishAsync(future, null, new DownloadException(DownloadException.Reason.UNKNOWN,
+							"Exception occured when downloading file", e));
+					return;
+				}
+				if (downloading) {
+					DownloadScheduler.schedule(this, mUpdateTime);
+					return;
+				}
+				// Joining the download threads may block, leave the ticker thread to the other downloads.
+				DownloadScheduler.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							finishAsync(future, finish(), null);
+						} catch (DownloadException e) {
+							finishAsync(future, null, e);
+						}
+					}
+				});
+			}
+		}, 0);
+	}
+
+	private void finishAsync(DownloadFuture future, File file, DownloadException error) {
+		if (null != error) {
+			onFailed(error);
+		}
+		release(error);
+		if (null != error) {
+			future.fail(error);
+		} else if (mState == State.COMPLETED) {
+			future.complete(file);
+		} else {
+			future.cancelled();
+		}
+	}
+
+	/**
+	 * Own the transfer of mUrl if no one is downloading it.
+	 * @return The Downloader which owns the transfer, null if this instance is the owner now.
+	 */
+	private Downloader claim() {
+		if (null != mSink) {
+			// The data written to a sink can't be shared, never coalesce.
+			synchronized (this) {
+				mInFlight = true;
+				mError = null;
+			}
+			return null;
+		}
+		synchronized (sActiveDownloads) {
+			Downloader owner = sActiveDownloads.get(mUrl);
+			if (null == owner) {
+				synchronized (this) {
+					mInFlight = true;
+					mError = null;
+				}
+				sActiveDownloads.put(mUrl, this);
+			}
+			return owner;
+		}
+	}
+
+	/**
+	 * Whether a download of the url, or to the temp file, is running in this process.
+	 * @param url The url, null to check the file only.
+	 * @param file The temp file, null to check the url only.
+	 */
+	static boolean isActive(String url, File file) {
+		synchronized (sActiveDownloads) {
+			if (null != url && sActiveDownloads.containsKey(url)) {
+				return true;
+			}
+			if (null != file) {
+				for (Downloader downloader : sActiveDownloads.values()) {
+					if (file.equals(downloader.mSavedFile)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Run the action if no download of the url, or to the temp file, is running in this process.
+	 * No such download can start while the action runs, so it may write the log of the url.
+	 * @param url The url, null to check the file only.
+	 * @param file The temp file, null to check the url only.
+	 * @param action The action.
+	 * @return true if the action ran, false if a download is running.
+	 */
+	static boolean runIfInactive(String url, File file, Runnable action) {
+		synchronized (sActiveDownloads) {
+			if (isActive(url, file)) {
+				return false;
+			}
+			action.run();
+			return true;
+		}
+	}
+
+	private void onFailed(DownloadException error) {
+		mState = State.FAILED;
+		if (null != mDispatcher) {
+			mDispatcher.failed(error);
+		}
+	}
+
+	/**
+	 * Report the metrics, and hand the result to the coalesced requests when a transfer ends.
+	 * @param error The error of the transfer, null if it didn't fail.
+	 */
+	private void release(DownloadException error) {
+		mMetrics.record(DownloadMetrics.DURATION_MS, System.currentTimeMillis() - mStartTime);
+		if (null != mMetricsReporter) {
+			mMetricsReporter.report(mUrl, mMetrics);
+		}
+		mFileReady = false;
+		notifyPrefix();
+		if (mSinkOpened) {
+			// The sink can't be resumed, a download ended without closing it won't write it again.
+			mSinkOpened = false;
+			mSink.abort();
+		}
+		List<Runnable> hooks;
+		synchronized (this) {
+			mError = error;
+			mInFlight = false;
+			hooks = mReleaseHooks;
+			mReleaseHooks = new ArrayList<Runnable>();
+			notifyAll();
+		}
+		synchronized (sActiveDownloads) {
+			if (sActiveDownloads.get(mUrl) == this) {
+				sActiveDownloads.remove(mUrl);
+			}
+		}
+		for (Runnable hook : hooks) {
+			DownloadScheduler.execute(hook);
+		}
+	}
+
+	/**
+	 * Run the task on a worker thread when the transfer owned by this instance ends.
+	 */
+	private void whenReleased(Runnable hook) {
+		synchronized (this) {
+			if (mInFlight) {
+				mReleaseHooks.add(hook);
+				return;
+			}
+		}
+		DownloadScheduler.execute(hook);
+	}
+
+	/**
+	 * Wait for the transfer owned by this instance, on behalf of a coalesced request.
+	 * @param waiter The Downloader which requested the same url.
+	 * @param listener The listener of the coalesced request, can be null.
+	 * @return The downloaded file, or null if the transfer was paused or the waiter was stopped.
+	 * @throws DownloadException The error which failed the transfer.
+	 */
+	private File await(Downloader waiter, DownloadListener listener) throws DownloadException {
+		if (null != listener) {
+			mAttachedListeners.add(listener);
+		}
+		try {
+			synchronized (this) {
+				while (mInFlight && !waiter.isStop()) {
+					try {
+						wait(mUpdateTime);
+					} catch (InterruptedException e) {
+						// Keep the interrupt, the waiter takes it as stopped.
+						Thread.currentThread().interrupt();
+						return null;
+					}
+				}
+				return getResult(waiter);
+			}
+		} finally {
+			if (null != listener) {
+				mAttachedListeners.remove(listener);
+			}
+		}
+	}
+
+	/**
+	 * Hand the result of the ended transfer to a coalesced request.
+	 * @param waiter The Downloader which requested the same url.
+	 * @return The downloaded file, or null if the transfer was paused, the waiter was stopped or saves another file.
+	 * @throws DownloadException The error which failed the transfer.
+	 */
+	private synchronized File getResult(Downloader waiter) throws DownloadException {
+		if (waiter.isStop() || !hasSameDestination(waiter)) {
+			return null; // The request of another file downloads it by itself.
+		}
+		if (null != mError) {
+			throw new DownloadException(mError.getReason(), "Exception occured when downloading file", mError);
+		}
+		waiter.mFileSize = mFileSize;
+		waiter.mDownloadedSize = mDownloadedSize;
+		waiter.mDownloadedFile = mDownloadedFile;
+		waiter.mFinished = mFinished;
+		return mDownloadedFile;
+	}
+
+	/**
+	 * Whether the request saves the file to the same place as this instance, only such a request can
+	 * take the result of this transfer. The requests which don't name the file get the same name.
+	 */
+	private boolean hasSameDestination(Downloader request) {
+		return getDestination().equals(request.getDestination());
+	}
+
+	private File getDestination() {
+		return new File(mSaveFolder, null == mFileName ? "" : mFileName).getAbsoluteFile();
+	}
+
+	/**
+	 * Download the file as the owner of the transfer of mUrl.
+	 */
+	private File doDownload(DownloadListener listener) throws DownloadException {
+		URL url = prepare();
+		if (null == url) {
+			return null;
+		}
+		try {
+			while (tick(url, listener)) {
+				try {
+					synchronized (mTickLock) {
+						if (!isStop()) {
+							mTickLock.wait(mUpdateTime);
+						}
+					}
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		} catch (RuntimeException e) {
+			closeDiskWriter();
+			throw new DownloadException(DownloadException.Reason.UNKNOWN, "Exception occured when downloading file", e);
+		}
+		return finish();
+	}
+
+	/**
+	 * Probe the file, load the download log and create the local file.
+	 * @return The url to download, or null if there is nothing to download.
+	 */
+	private URL prepare() throws DownloadException {
+		mFileReady = false;
+		mEncodedTransfer = null;
+		mVerifier = null;
+		mVerifyError = null;
+		mRangeIgnored = false;
+		mSingleRange = false;
+		mRangeError = null;
+		mDownloadedFile = null;
+		mFinished = false;
+		mSpeed = -1;
+		mLastProgressTime = 0;
+        HttpURLConnection conn = null;
+        HttpURLConnection encodedConn = null; // The connection to read the encoded response from.
+        String encoding = null;
+        if (null != mTracer) {
+            mTracer.begin(DownloadTracer.LANE_DOWNLOADER, "probe", "url", mUrl);
+        }
+        try {
+            conn = null == mProbe ? getConnection(mUrl) : mProbe;
+            mProbe = null;
+
+            if (conn.getResponseCode() == RESPONSE_OK) {
+                mFileSize = conn.getContentLength();
+                encoding = conn.getContentEncoding();
+                boolean encoded = mCompressedTransfer && EncodedTransfer.isSupported(encoding);
+                // Throw a DownloadException when got file size failed, the size of an encoded response is not needed.
+                if (mFileSize <= 0 && !encoded) {
+                    throw new DownloadException(DownloadException.Reason.SERVER, "Can't get file size of " + mUrl);
+                }
+
+                if(null == mFileName || mFileName.length() < 1) {
+                    String filename = getFileName(conn);
+                    // Create local file object according to local saved folder and local file name.
+                    mSavedFile = new File(mSaveFolder, filename);
+                } else {
+                    mSavedFile = new File(mSaveFolder, mFileName);
+                }
+
+                if(isLogged() && !encoded) {
+                	List<Segment> logData = mResumeStore.load(mUrl);
+                	if (!logData.isEmpty()) {
+                		mSegments.clear();
+                		for (Segment segment : logData) {
+                			mSegments.put(segment.getId(), segment);
+                		}
+                	}
+                }
+                if (encoded) {
+                	// Keep the connection, the response is read in one stream.
+                	encodedConn = conn;
+                	conn = null;
+                }
+            } else {
+                DownloadLog.w(TAG, "Server response error! Response code：" + conn.getResponseCode()
+						+ "Response message：" + conn.getResponseMessage());
+                throw new DownloadException(DownloadException.Reason.SERVER,
+                		"server response error, response code:" + conn.getResponseCode());
+            }
+        } catch (DownloadException e) {
+            DownloadLog.e(TAG, e.toString());
+            throw e;
+        } catch (Exception e) {
+            DownloadLog.e(TAG, e.toString());
+            throw new DownloadException(DownloadException.Reason.NETWORK, "Failed to connect the url:" + mUrl, e);
+        } finally {
+            if(null != conn) {
+                conn.disconnect();
+            }
+            if (null != mTracer) {
+                mTracer.end(DownloadTracer.LANE_DOWNLOADER, "probe", "file_size", mFileSize);
+            }
+        }
+
+        if(null == mSavedFile) {
+            mStop = true;
+            mState = State.PAUSED;
+            return null;
+        }
+        if (null != mDispatcher) {
+            mDispatcher.probed(mUrl, mFileSize);
+        }
+
+        // Mark a downloading file name a suffix flag,
+        // so as not to open the unfinished download files and error
+        mSavedFile = new File(mSavedFile.getAbsolutePath() + TEMP_FILE_SUFFIX);
+        if (null != encodedConn) {
+        	return prepareEncoded(encodedConn, encoding);
+        }
+
+		try {
+			URL url = new URL(mUrl);
+			mSinkError = null;
+			boolean delta = false; // Copy the unchanged blocks from the previous version.
+			if (null != mSink) {
+				// The sink is written once from the start of the file.
+				initSegments();
+				mSinkOpened = true;
+				mSink.open(mFileSize);
+			} else if (!checkSegments()) { // The segments in download log don't cover the file.
+				initSegments();
+				delta = null != mDeltaSource && null != mDeltaManifest;
+			} else if (null != mChunkHashes && mChunkHashes.getLength() == mFileSize) {
+				// Don't trust the end of the segments in the download log, the data may not be saved before a crash.
+				new ChunkVerifier(mChunkHashes, mSavedFile, mMetrics).verifyTails(getSortedSegments());
+			}
+			if (null == mSink && null != mChunkHashes) {
+				if (mChunkHashes.getLength() == mFileSize) {
+					mVerifier = new ChunkVerifier(mChunkHashes, mSavedFile, mMetrics);
+				} else {
+					DownloadLog.w(TAG, "The chunk hashes are of " + mChunkHashes.getLength() + " bytes, the file size is "
+							+ mFileSize + ", don't verify the chunks");
+				}
+			}
+			// Set the total length of the downloaded data of all the segments.
+			mDownloadedSize = getDownloadedSize();
+			if (null == mSink) {
+				// Fail fast when the rest of the file can't fit in the folder.
+				FileAllocator.checkFreeSpace(mSaveFolder, mFileSize - mDownloadedSize);
+				FileAllocator.allocate(mSavedFile, mFileSize, mFileAllocation);
+				if (delta) {
+					applyDelta();
+					mDownloadedSize = getDownloadedSize();
+				}
+				if (mDiskWriterNum > 0 && !mMemoryMapped) {
+					int queueCapacity = Math.max(2, mTheadPool.length * 2 / mDiskWriterNum);
+					mDiskWriter = new DiskWriter(mSavedFile, mDiskWriterNum, queueCapacity, getWriteBufferSize(), mMetrics);
+				}
+			}
+			for (int i = 0; i < mTheadPool.length; i++) {
+				mTheadPool[i] = null;
+			}
+			if(isLogged()) {
+				mResumeStore.save(mUrl, mSavedFile.getAbsolutePath(), mSegments.values()); // Replace the download log.
+			}
+			mFileReady = true;
+			notifyPrefix();
+			return url;
+		} catch (DownloadException e) {
+			closeDiskWriter();
+			throw e;
+		} catch (IOException e) {
+			closeDiskWriter();
+			DownloadLog.e(TAG, e.toString());// 打印错误
+			throw new DownloadException(DownloadException.Reason.STORAGE, "Exception occured when downloading file", e);
+		}
+	}
+
+	/**
+	 * Start the transfer of an encoded response, it is decoded and saved in order by one thread.
+	 * Ranges can't be requested from an encoded response, so it is downloaded from the start every time.
+	 * @param conn The connection of the response.
+	 * @param encoding The content encoding.
+	 * @return The url to download.
+	 */
+	private URL prepareEncoded(HttpURLConnection conn, String encoding) throws DownloadException {
+		DownloadLog.i(TAG, "Download " + mUrl + " in one " + encoding + " stream");
+		try {
+			URL url = new URL(mUrl);
+			mDownloadedSize = 0;
+			mSinkError = null;
+			for (int i = 0; i < mTheadPool.length; i++) {
+				mTheadPool[i] = null;
+			}
+			if (null != mSink) {
+				mSinkOpened = true;
+				mSink.open(-1);
+			}
+			mEncodedTransfer = new EncodedTransfer(this, conn, encoding, null == mSink ? mSavedFile : null, mSink);
+			mEncodedTransfer.setPriority(7);
+			mEncodedTransfer.start();
+			mFileReady = true;
+			notifyPrefix();
+			return url;
+		} catch (IOException e) {
+			conn.disconnect();
+			DownloadLog.e(TAG, e.toString());
+			throw new DownloadException(DownloadException.Reason.STORAGE, "Exception occured when downloading file", e);
+		}
+	}
+
+	/**
+	 * Check the result of the encoded transfer after it ended.
+	 * @return true if the response is read to the end.
+	 * @throws DownloadException The transfer failed.
+	 */
+	private boolean checkEncodedTransfer() throws DownloadException {
+		EncodedTransfer transfer = mEncodedTransfer;
+		Exception error = transfer.getError();
+		if (error instanceof DownloadException) {
+			throw (DownloadException) error;
+		}
+		if (null != error) {
+			throw new DownloadException(error instanceof ZipException ? DownloadException.Reason.VERIFICATION
+					: DownloadException.Reason.NETWORK, "Failed to download the encoded response of " + mUrl, error);
+		}
+		if (!transfer.isCompleted()) {
+			return false;
+		}
+		if (mFileSize > 0 && transfer.getEncodedSize() != mFileSize) {
+			throw new DownloadException(DownloadException.Reason.VERIFICATION, "The size of the encoded response is "
+					+ transfer.getEncodedSize() + ", expected " + mFileSize);
+		}
+		return true;
+	}
+
+	/**
+	 * Check the download threads once, restart the failed and stalled segments and report the progress.
+	 * @param url The url to download.
+	 * @param listener The listener to listen download state, can be null.
+	 * @return true if the download is still running.
+	 */
+	private boolean tick(URL url, DownloadListener listener) {
+		if (null != mSinkError) {
+			// The sink can't take more data, end the download.
+			for (DownloadThread thread : mTheadPool) {
+				if (null != thread) {
+					thread.abort();
+				}
+			}
+			return false;
+		}
+		EncodedTransfer transfer = mEncodedTransfer;
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < mTheadPool.length && null == transfer; i++) {
+			DownloadThread thread = mTheadPool[i];
+			if (null == thread || isStop()) {
+				continue;
+			}
+			if (thread.isDone()) {
+				if (thread.isFailed()) { // The segment is downloaded again by the next free thread.
+					Segment segment = thread.getSegment();
+					mMetrics.segment(segment.getId()).increment(DownloadMetrics.RETRIES, 1);
+					if (null != mTracer) {
+						mTracer.instant(segment.getId(), "retry", "downloaded", segment.getDownloaded());
+					}
+				}
+				mTheadPool[i] = null;
+			} else if (!thread.isAborted() && thread.isStalled(now, mStallWindow, mStallMinSpeed)) {
+				// Drop the slow connection, the rest of the segment is requested again.
+				Segment segment = thread.getSegment();
+				DownloadLog.w(TAG, "Segment " + segment.getId() + " stalled at position " + segment.getPosition());
+				mMetrics.segment(segment.getId()).increment(DownloadMetrics.STALLS, 1);
+				if (null != mTracer) {
+					mTracer.instant(segment.getId(), "stall", "position", segment.getPosition());
+				}
+				thread.abort();
+			}
+		}
+		if (mRangeIgnored && null == transfer && !fallBackToSingleRange()) {
+			return false;
+		}
+		if (!isStop() && null == transfer && !mRangeIgnored) {
+			assignSegments(url);
+		}
+		reportSize(listener);
+		if (null != mDispatcher) {
+			mDispatcher.progress(getProgress());
+		}
+		if (null != transfer) {
+			return !transfer.isDone() && !isStop();
+		}
+		ChunkVerifier verifier = mVerifier;
+		if (null != verifier) {
+			if (!requeueFailedChunks(verifier)) {
+				return false;
+			}
+			verifier.schedule(getSortedSegments(), new Runnable() {
+				@Override
+				public void run() {
+					wakeUp();
+				}
+			});
+			if (mFileSize == mDownloadedSize && !verifier.isAllVerified()) {
+				return !isStop(); // Wait for the verification of the last chunks.
+			}
+		}
+		return mFileSize != mDownloadedSize && !isStop();
+	}
+
+	/**
+	 * The server answered a range request with the whole file, so the data can only be downloaded from the start
+	 * of the file. When the threads end, the file is downloaded again by one request which is not split. The data
+	 * handed to a sink or verified by chunks can't be downloaded again, the download fails then.
+	 * @return false if the download fails.
+	 */
+	private boolean fallBackToSingleRange() {
+		boolean running = false;
+		for (DownloadThread thread : mTheadPool) {
+			if (null != thread) {
+				running = true;
+				if (!thread.isAborted()) {
+					thread.abort();
+				}
+			}
+		}
+		if (null != mSink || null != mVerifier) {
+			mRangeError = new DownloadException(DownloadException.Reason.SERVER, "The server of " + mUrl
+					+ " doesn't support ranges");
+			return false;
+		}
+		if (running) {
+			return true; // Wait for the threads to end.
+		}
+		DownloadLog.w(TAG, "The server of " + mUrl + " ignored the range, download the file in one request");
+		synchronized (this) {
+			mSegments.clear();
+			Segment segment = new Segment(1, 0, mFileSize, 0);
+			mSegments.put(segment.getId(), segment);
+			mDownloadedSize = 0;
+			mSingleRange = true;
+			mRangeIgnored = false;
+			saveLater(null);
+		}
+		return true;
+	}
+
+	/**
+	 * Download the failed chunks again. A chunk is taken back when the segments it is saved in are
+	 * complete and no thread is writing them, the segments are cut so the chunk becomes a new segment.
+	 * @return false if a chunk failed too many times, the download fails.
+	 */
+	private boolean requeueFailedChunks(ChunkVerifier verifier) {
+		for (int chunk : verifier.takeFailed()) {
+			if (verifier.getFailures(chunk) >= MAX_CHUNK_FAILURES) {
+				mVerifyError = new DownloadException(DownloadException.Reason.VERIFICATION, "The chunk " + chunk
+						+ " of " + mUrl + " failed the verification " + verifier.getFailures(chunk) + " times");
+				for (DownloadThread thread : mTheadPool) {
+					if (null != thread) {
+						thread.abort();
+					}
+				}
+				return false;
+			}
+			long start = verifier.getChunkStart(chunk);
+			long end = verifier.getChunkEnd(chunk);
+			List<Segment> overlapping = new ArrayList<Segment>();
+			boolean ready = true;
+			int maxId = 0;
+			for (Segment segment : getSortedSegments()) {
+				maxId = Math.max(maxId, segment.getId());
+				if (segment.getStart() < end && segment.getEnd() > start) {
+					overlapping.add(segment);
+					ready &= segment.isComplete() && !segment.isAssigned();
+				}
+			}
+			if (!ready || overlapping.isEmpty()) {
+				continue; // Wait for the threads writing the chunk.
+			}
+			DownloadLog.w(TAG, "Download the chunk " + chunk + " [" + start + ", " + end + ") again");
+			Segment first = overlapping.get(0);
+			Segment last = overlapping.get(overlapping.size() - 1);
+			synchronized (this) {
+				for (Segment segment : overlapping) {
+					mSegments.remove(segment.getId());
+				}
+				if (first.getStart() < start) {
+					maxId++;
+					mSegments.put(maxId, new Segment(maxId, first.getStart(), start, start - first.getStart()));
+				}
+				maxId++;
+				mSegments.put(maxId, new Segment(maxId, start, end, 0));
+				if (end < last.getEnd()) {
+					maxId++;
+					mSegments.put(maxId, new Segment(maxId, end, last.getEnd(), last.getEnd() - end));
+				}
+				mDownloadedSize -= end - start;
+				saveLater(null);
+			}
+			verifier.requeued(chunk);
+		}
+		return true;
+	}
+
+	/**
+	 * Wait for the download threads to end, verify and rename the file if all data is downloaded.
+	 * @return The downloaded file, or null if the download was stopped.
+	 */
+	private File finish() throws DownloadException {
+		try {
+			// The stopped threads save their last data and checkpoint before they end.
+			joinThreads();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			closeDiskWriter();
+			flushLog();
+		}
+		if (null != mSinkError) {
+			throw new DownloadException(DownloadException.Reason.STORAGE, "Failed to write the sink", mSinkError);
+		}
+		if (null != mVerifyError) {
+			throw mVerifyError;
+		}
+		if (null != mRangeError) {
+			throw mRangeError;
+		}
+		boolean complete;
+		long size; // The size of the saved file.
+		if (null != mEncodedTransfer) {
+			complete = checkEncodedTransfer();
+			size = mEncodedTransfer.getDecodedSize();
+		} else {
+			complete = mDownloadedSize == mFileSize && (null == mVerifier || mVerifier.isAllVerified());
+			size = mFileSize;
+		}
+		if (null != mSink && complete) {
+			try {
+				mSink.close();
+				mSinkOpened = false;
+			} catch (IOException e) {
+				throw new DownloadException(DownloadException.Reason.STORAGE, "Failed to close the sink", e);
+			}
+			mFinished = true;
+			mState = State.COMPLETED;
+			if (null != mDispatcher) {
+				mDispatcher.completed(null);
+			}
+		} else if (complete) {
+            if (mSavedFile.length() != size) {
+                throw new DownloadException(DownloadException.Reason.VERIFICATION, "The size of " + mSavedFile
+                		+ " is " + mSavedFile.length() + ", expected " + size);
+            }
+            if (null != mDispatcher) {
+                mDispatcher.verified(mSavedFile);
+            }
+            String fileName = mSavedFile.getAbsolutePath();
+            fileName = fileName.substring(0, fileName.indexOf(TEMP_FILE_SUFFIX));
+            mDownloadedFile = new File(fileName);
+            long renameStart = System.nanoTime();
+            mSavedFile.renameTo(mDownloadedFile);
+            if (null != mTracer) {
+                mTracer.complete(DownloadTracer.LANE_DOWNLOADER, "rename", renameStart);
+            }
+            if(isLogged()) {
+            	mResumeStore.delete(mUrl);// Delete download log when finished download
+            }
+			mFinished = true;
+			mState = State.COMPLETED;
+			if (null != mDispatcher) {
+				mDispatcher.completed(mDownloadedFile);
+			}
+		} else if (isStop()) {
+			mState = State.PAUSED;
+			if (null != mDispatcher) {
+				mDispatcher.paused(getProgress());
+			}
+		}
+		return mDownloadedFile;
+	}
+
+	/**
+	 * Get download state is finished or not.
+	 * @return
+	 */
+	public boolean isFinished() {
+		return mFinished;
+	}
+
+	/**
+	 * Get download thread count.
+	 */
+	public int getThreadNum() {
+		return mTheadPool.length;
+	}
+
+	/**
+	 * Stop the download
+	 */
+	public void stop() {
+		synchronized (this) {
+			this.mStop = true;
+		}
+		// Close the connections and interrupt the threads blocked in reading.
+		DownloadThread [] threads = mTheadPool;
+		for (DownloadThread thread : threads) {
+			if (null != thread) {
+				thread.cancel();
+			}
+		}
+		EncodedTransfer transfer = mEncodedTransfer;
+		if (null != transfer) {
+			transfer.cancel();
+		}
+		synchronized (mTickLock) {
+			mTickLock.notifyAll();
+		}
+		Downloader owner = mCoalescedOwner;
+		if (null != owner) {
+			synchronized (owner) {
+				owner.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Get the state of the download.
+	 */
+	public State getState() {
+		return mState;
+	}
+
+	/**
+	 * Set the read timeout of the connections in milliseconds, 20 seconds by default.
+	 * @param timeout
+	 */
+	public void setReadTimeout(int timeout) {
+		this.mReadTimeout = timeout;
+	}
+
+	int getReadTimeout() {
+		return mReadTimeout;
+	}
+
+	/**
+	 * Set how a connection is detected stalled, a connection is dropped and its segment is requested
+	 * again when it reads less than minBytesPerSecond in the window, 512 bytes per second in 8 seconds by default.
+	 * The read timeout still applies to a connection which reads nothing.
+	 * @param windowMillis The time window to measure the throughput.
+	 * @param minBytesPerSecond The min throughput, 0 to disable the detection.
+	 */
+	public void setStallDetection(long windowMillis, long minBytesPerSecond) {
+		this.mStallWindow = windowMillis;
+		this.mStallMinSpeed = minBytesPerSecond;
+	}
+
+	/**
+	 * Set the order to download the parts of the file, {@link Scheduling#PARALLEL} by default.
+	 * It applies to the downloads without a download log, a resumed download keeps its segments.
+	 * @param scheduling
+	 */
+	public void setScheduling(Scheduling scheduling) {
+		this.mScheduling = scheduling;
+	}
+
+	/**
+	 * Set the size of the chunks of {@link Scheduling#SEQUENTIAL}, 1MB by default.
+	 * @param size
+	 */
+	public void setChunkSize(int size) {
+		this.mChunkSize = Math.max(size, 1);
+	}
+
+	/**
+	 * Open a stream to read the file while it is downloading, call it after the download is started.
+	 * The stream reads the data saved from the start of the file, and blocks at the end of it until
+	 * more data is saved. It throws an IOException if the download is paused or failed before the data is saved.
+	 * Use {@link Scheduling#SEQUENTIAL} so the start of the file arrives first.
+	 * @return The stream, close it after reading.
+	 */
+	public InputStream openStream() {
+		return new DownloadInputStream(this);
+	}
+
+	/**
+	 * Set the min size of the segments split for the idle threads, 1MB by default.
+	 * @param size
+	 */
+	public void setMinSplitSize(long size) {
+		this.mMinSplitSize = size;
+	}
+
+	/**
+	 * Get download state is stopped or not.
+	 * @return
+	 */
+	public synchronized boolean isStop() {
+		return this.mStop;
+	}
+
+	/**
+	 * Get total file size
+	 * 
+	 * @return
+	 */
+	public int getFileSize() {
+		return mFileSize;
+	}
+
+	/**
+	 * Set update frequency
+	 * @param updateTime
+	 */
+	public void setUpdateTime(long updateTime) {
+		this.mUpdateTime = updateTime;
+	}
+
+	/**
+	 * Set the reporter to publish the metrics when each download run ends.
+	 * @param reporter
+	 */
+	public void setMetricsReporter(MetricsReporter reporter) {
+		this.mMetricsReporter = reporter;
+	}
+
+	/**
+	 * Get the metrics of the running or the last download run.
+	 */
+	public DownloadMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * Set the listener to listen the lifecycle and progress of downloads, the callbacks run by the executor
+	 * of the platform, on the main thread of Android.
+	 * @param listener The listener, null to remove.
+	 */
+	public void setEventListener(DownloadEventListener listener) {
+		setEventListener(listener, null == listener ? null : DownloadPlatform.get().getCallbackExecutor());
+	}
+
+	/**
+	 * Set the listener to listen the lifecycle and progress of downloads.
+	 * @param listener The listener, null to remove.
+	 * @param executor The executor to run the callbacks.
+	 */
+	public void setEventListener(DownloadEventListener listener, Executor executor) {
+		this.mDispatcher = null == listener ? null : new EventDispatcher(listener, executor);
+	}
+
+	EventDispatcher getDispatcher() {
+		return mDispatcher;
+	}
+
+	/**
+	 * Get the progress of the download, with the speed smoothed since the last call.
+	 */
+	private DownloadProgress getProgress() {
+		long now = System.currentTimeMillis();
+		long downloaded = mDownloadedSize;
+		if (mLastProgressTime > 0 && now > mLastProgressTime) {
+			long speed = (downloaded - mLastProgressSize) * 1000 / (now - mLastProgressTime);
+			mSpeed = mSpeed < 0 ? speed : (long) (SPEED_SMOOTHING * speed + (1 - SPEED_SMOOTHING) * mSpeed);
+		}
+		mLastProgressTime = now;
+		mLastProgressSize = downloaded;
+		long eta = mSpeed > 0 && mFileSize > 0 ? (mFileSize - downloaded) * 1000 / mSpeed : -1;
+		EncodedTransfer transfer = mEncodedTransfer;
+		if (null != transfer) {
+			return new DownloadProgress(mFileSize, downloaded, transfer.getDecodedSize(), Math.max(mSpeed, 0), eta,
+					new long[0], new long[0]);
+		}
+		List<Segment> segments = getSortedSegments();
+		long [] segmentSizes = new long[segments.size()];
+		long [] segmentDownloaded = new long[segments.size()];
+		for (int i = 0; i < segmentSizes.length; i++) {
+			Segment segment = segments.get(i);
+			segmentSizes[i] = segment.getEnd() - segment.getStart();
+			segmentDownloaded[i] = segment.getDownloaded();
+		}
+		return new DownloadProgress(mFileSize, downloaded, Math.max(mSpeed, 0), eta, segmentSizes, segmentDownloaded);
+	}
+
+	/**
+	 * Set the tracer to record the timeline of the download runs, null to stop tracing.
+	 * @param tracer
+	 */
+	public void setTracer(DownloadTracer tracer) {
+		this.mTracer = tracer;
+	}
+
+	DownloadTracer getTracer() {
+		return mTracer;
+	}
+
+	/**
+	 * Set the strategy to create the local file, {@link FileAllocation#SPARSE} by default.
+	 * @param allocation
+	 */
+	public void setFileAllocation(FileAllocation allocation) {
+		this.mFileAllocation = allocation;
+	}
+
+	/**
+	 * Set the size of data each download thread gathers before writing it to file,
+	 * 256KB by default. The download log is updated once per write.
+	 * @param size
+	 */
+	public void setWriteBufferSize(int size) {
+		this.mWriteBufferSize = size;
+	}
+
+	/**
+	 * Get the size of data each download thread gathers before writing it to file.
+	 */
+	int getWriteBufferSize() {
+		return Math.max(mWriteBufferSize, MIN_WRITE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Set the transport of the range requests of the download threads, {@link UrlConnectionTransport} by default.
+	 * Use a {@link Http2Transport} to run the requests as streams of one HTTP/2 connection. The url is probed
+	 * with {@link HttpURLConnection} either way.
+	 * @param transport The transport, null for the default.
+	 */
+	public void setTransport(HttpTransport transport) {
+		this.mTransport = null == transport ? DEFAULT_TRANSPORT : transport;
+	}
+
+	HttpTransport getTransport() {
+		return mTransport;
+	}
+
+	/**
+	 * Use a response the caller has read from the url as the probe of the next download, so the url is not
+	 * requested twice. The connection must be a GET of the url answered with 200, it is disconnected once
+	 * probed, the caller disconnects it if the download attaches to a running one instead.
+	 * @param conn The connection.
+	 */
+	void setProbe(HttpURLConnection conn) {
+		this.mProbe = conn;
+	}
+
+	/**
+	 * Set the executor to run the download threads, each segment connection runs as one task of it.
+	 * By default each connection starts its own thread. The reads of the connections block, so the executor
+	 * must not queue the tasks behind each other, such as the executor of
+	 * {@link DownloadPlatform#getVirtualThreadExecutor()} which runs each task on a virtual thread.
+	 * @param executor The executor, null to start a thread for each connection.
+	 */
+	public void setSegmentExecutor(Executor executor) {
+		this.mSegmentExecutor = executor;
+	}
+
+	/**
+	 * Set the number of disk writer threads, 1 by default. The download threads hand the filled
+	 * buffers to the disk writer threads and go on reading from network, so disk and network latency
+	 * overlap. Set 0 to let each download thread write by itself.
+	 * @param num
+	 */
+	public void setDiskWriterNum(int num) {
+		this.mDiskWriterNum = num;
+	}
+
+	/**
+	 * Get the disk writer of the running download, null if the download threads write by themselves.
+	 */
+	DiskWriter getDiskWriter() {
+		return mDiskWriter;
+	}
+
+	/**
+	 * Set the download threads copy the data into memory mapped windows of the file instead of writing it,
+	 * false by default. Each thread maps one window of its block at a time, and forces it to file before
+	 * the download log advances. The disk writer is not used in this mode.
+	 * @param memoryMapped
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.mMemoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Set the size of each mapped window, 4MB by default.
+	 * @param size
+	 */
+	public void setMappedWindowSize(int size) {
+		this.mMappedWindowSize = size;
+	}
+
+	boolean isMemoryMapped() {
+		return mMemoryMapped && null == mSink;
+	}
+
+	/**
+	 * Set the sink to consume the data instead of saving the file, null to save the file.
+	 * The download is scheduled {@link Scheduling#SEQUENTIAL}, no download log is saved, and
+	 * {@link #download(DownloadListener)} returns null when the download is completed.
+	 * See {@link StreamSink} to write a stream, and {@link ExtractionSink} to unpack an archive.
+	 * @param sink
+	 */
+	public void setSink(DownloadSink sink) {
+		this.mSink = sink;
+	}
+
+	DownloadSink getSink() {
+		return mSink;
+	}
+
+	/**
+	 * Called by the download threads when the sink failed.
+	 */
+	void onSinkError(IOException error) {
+		if (null == mSinkError) {
+			mSinkError = error;
+		}
+		wakeUp();
+	}
+
+	/**
+	 * Called by the download threads when the server answered a range request with the whole file.
+	 */
+	void onRangeIgnored() {
+		mRangeIgnored = true;
+		wakeUp();
+	}
+
+	/**
+	 * Wake up the progress loop to check the download at once.
+	 */
+	void wakeUp() {
+		synchronized (mTickLock) {
+			mTickLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Verify the chunks of the file by their digests while it is downloading. A chunk which doesn't
+	 * match is downloaded again, and the download fails if a chunk fails too many times. When a download
+	 * is resumed, the last chunk saved in each segment is verified before the download goes on.
+	 * It has no effect on a sink or an encoded response.
+	 * @param manifest The digests of the chunks, null not to verify.
+	 */
+	public void setChunkHashes(BlockManifest manifest) {
+		this.mChunkHashes = manifest;
+	}
+
+	/**
+	 * Download the changes against a previous version of the file. Before a new download starts, the
+	 * blocks of the manifest found in the previous version are copied, and only the other blocks are
+	 * downloaded. It has no effect on a resumed download, a sink or an encoded response.
+	 * @param previous The previous version of the file, it is not modified.
+	 * @param manifest The block checksums of the file to download, null to download the whole file.
+	 */
+	public void setDeltaSource(File previous, BlockManifest manifest) {
+		this.mDeltaSource = previous;
+		this.mDeltaManifest = manifest;
+	}
+
+	/**
+	 * Accept gzip and deflate encoded responses, false by default. If the server encodes the response,
+	 * it is downloaded in one stream and decoded while it is read, otherwise it is downloaded in segments.
+	 * An encoded download can't be resumed, and its total and downloaded sizes in the progress are of
+	 * the encoded data, see {@link DownloadProgress#getDecodedSize()}.
+	 * @param compressed
+	 */
+	public void setCompressedTransfer(boolean compressed) {
+		this.mCompressedTransfer = compressed;
+	}
+
+	/**
+	 * Whether the download log is saved.
+	 */
+	private boolean isLogged() {
+		return null != mResumeStore && null == mSink;
+	}
+
+	private boolean isSequential() {
+		return mScheduling == Scheduling.SEQUENTIAL || null != mSink;
+	}
+
+	int getMappedWindowSize() {
+		return Math.max(mMappedWindowSize, getWriteBufferSize());
+	}
+
+	/**
+	 * Update downloaded size.
+	 * 
+	 * @param size
+	 */
+	protected void append(int size) {
+		synchronized (this) {
+			mDownloadedSize += size;
+		}
+		notifyPrefix();
+	}
+
+	/**
+	 * Update the download state of the segment.
+	 * 
+	 * @param segment The segment changed.
+	 */
+	protected synchronized void update(Segment segment) {
+		if(isLogged()) {
+			long start = System.nanoTime();
+			mResumeStore.update(mUrl, mSavedFile.getAbsolutePath(), segment); // Update the download log.
+			mMetrics.segment(segment.getId()).record(DownloadMetrics.CHECKPOINT_LATENCY, (System.nanoTime() - start) / 1000);
+			if (null != mTracer) {
+				mTracer.complete(segment.getId(), "checkpoint", start, "position", segment.getPosition());
+			}
+		}
+	}
+
+	/**
+	 * Replace the download log with all the segments on a worker thread, the ticker doesn't wait for the
+	 * store. The saves asked before the worker runs are written once, with the segments at that time.
+	 * 
+	 * @param segment The segment changed, the latency is recorded on it, can be null.
+	 */
+	private synchronized void saveLater(Segment segment) {
+		if (!isLogged()) {
+			return;
+		}
+		if (null != segment) {
+			mSaveSegment = segment;
+		}
+		if (mSavePending) {
+			return;
+		}
+		mSavePending = true;
+		DownloadScheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				flushLog();
+			}
+		});
+	}
+
+	/**
+	 * Write the pending save of the download log, called by the worker and when the download ends.
+	 */
+	private synchronized void flushLog() {
+		if (!mSavePending) {
+			return;
+		}
+		mSavePending = false;
+		Segment segment = mSaveSegment;
+		mSaveSegment = null;
+		long start = System.nanoTime();
+		mResumeStore.save(mUrl, mSavedFile.getAbsolutePath(), mSegments.values()); // Replace the download log.
+		if (null != segment) {
+			mMetrics.segment(segment.getId()).record(DownloadMetrics.CHECKPOINT_LATENCY, (System.nanoTime() - start) / 1000);
+			if (null != mTracer) {
+				mTracer.complete(segment.getId(), "checkpoint", start, "position", segment.getPosition());
+			}
+		}
+	}
+
+	/**
+	 * Report the size to the listeners on the callback executor of the platform, the ticker doesn't run
+	 * the callbacks. While a report is queued no more is queued, it reports the size when it runs.
+	 * @param listener The listener of this request, can be null.
+	 */
+	private void reportSize(final DownloadListener listener) {
+		if ((null == listener && mAttachedListeners.isEmpty()) || !mSizeReporting.compareAndSet(false, true)) {
+			return;
+		}
+		DownloadPlatform.get().getCallbackExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				mSizeReporting.set(false);
+				int fileSize = mFileSize;
+				int downloadedSize = mDownloadedSize;
+				if (null != listener) {
+					listener.onDownloadSize(fileSize, downloadedSize); // download state call back
+				}
+				for (DownloadListener attached : mAttachedListeners) {
+					attached.onDownloadSize(fileSize, downloadedSize);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start download threads in the free slots. A free slot takes a segment nobody is downloading,
+	 * or the unread half of the running segment with the most data left.
+	 * @param url The url to download.
+	 */
+	private void assignSegments(URL url) {
+		for (int i = 0; i < mTheadPool.length; i++) {
+			if (null != mTheadPool[i]) {
+				continue;
+			}
+			Segment segment = nextSegment();
+			if (null == segment) {
+				return;
+			}
+			mTheadPool[i] = new DownloadThread(this, url, mSavedFile, segment); // Init the thread with the segment
+			startThread(mTheadPool[i]);
+		}
+	}
+
+	/**
+	 * Run the download thread on the segment executor, or on a new thread if there is no executor.
+	 * @param task The download thread.
+	 */
+	private void startThread(DownloadThread task) {
+		Executor executor = mSegmentExecutor;
+		if (null != executor) {
+			try {
+				executor.execute(task);
+				return;
+			} catch (RejectedExecutionException e) {
+				DownloadLog.w(TAG, "Segment executor rejected segment " + task.getThreadId() + ", start a thread for it");
+			}
+		}
+		Thread thread = new Thread(task);
+		thread.setPriority(7); // Set the priority of thread
+		                       // Thread.NORM_PRIORITY = 5
+		                       // Thread.MIN_PRIORITY = 1
+		                       // Thread.MAX_PRIORITY = 10
+		thread.start(); // Start thread
+	}
+
+	/**
+	 * Get the next segment to download and mark it assigned.
+	 * @return The segment, or null if there is nothing to download in another connection.
+	 */
+	private Segment nextSegment() {
+		List<Segment> segments = getSortedSegments();
+		for (Segment segment : segments) {
+			if (!segment.isComplete() && segment.assign()) {
+				return segment;
+			}
+		}
+		int maxId = 0;
+		for (Segment segment : segments) {
+			maxId = Math.max(maxId, segment.getId());
+		}
+		if (BufferBudget.isUnderPressure() || mSingleRange) {
+			// More connections take more buffers, keep the segments running until the memory is released.
+			// A server which ignores the ranges can't serve a split.
+			return null;
+		}
+		Segment largest = null;
+		Segment tail = null;
+		if (isSequential()) {
+			// Split the first running segment which is large enough, the data near the read head comes first.
+			for (Segment segment : segments) {
+				tail = segment.split(maxId + 1, mMinSplitSize);
+				if (null != tail) {
+					largest = segment;
+					break;
+				}
+			}
+		} else {
+			// Split the running segment which has the most data left.
+			for (Segment segment : segments) {
+				if (null == largest || segment.getRemaining() > largest.getRemaining()) {
+					largest = segment;
+				}
+			}
+			if (null != largest) {
+				tail = largest.split(maxId + 1, mMinSplitSize);
+			}
+		}
+		if (null == tail) {
+			return null;
+		}
+		tail.assign();
+		mSegments.put(tail.getId(), tail);
+		DownloadLog.i(TAG, "Split " + largest + ", new " + tail);
+		if (null != mTracer) {
+			mTracer.instant(largest.getId(), "split", "segment", tail.getId(), "position", tail.getStart());
+		}
+		// Save both halves in one write, a crash between two updates would leave them overlapping.
+		saveLater(largest);
+		return tail;
+	}
+
+	/**
+	 * Get the segments ordered by the start position.
+	 */
+	private List<Segment> getSortedSegments() {
+		List<Segment> segments = new ArrayList<Segment>(mSegments.values());
+		Collections.sort(segments, new Comparator<Segment>() {
+			@Override
+			public int compare(Segment lhs, Segment rhs) {
+				return lhs.getStart() < rhs.getStart() ? -1 : (lhs.getStart() == rhs.getStart() ? 0 : 1);
+			}
+		});
+		return segments;
+	}
+
+	/**
+	 * Divide the file into one segment for each thread.
+	 */
+	private void initSegments() {
+		mSegments.clear();
+		int blockNum = mTheadPool.length;
+		if (isSequential()) {
+			// Small chunks taken in order, the threads download the chunk at the read head and the next ones.
+			blockNum = Math.max(blockNum, (int) ((mFileSize + (long) mChunkSize - 1) / mChunkSize));
+		}
+		int blockSize = getBlockSize(mFileSize, blockNum);
+		for (int i = 0; i < blockNum; i++) {
+			long start = Math.min((long) blockSize * i, mFileSize);
+			long end = Math.min(start + blockSize, mFileSize);
+			mSegments.put(i + 1, new Segment(i + 1, start, end, 0));
+		}
+	}
+
+	/**
+	 * Copy the blocks of the new file which the previous version has, and only download the other blocks.
+	 * The copied ranges become complete segments, so they are kept in the download log as the downloaded ones.
+	 */
+	private void applyDelta() throws IOException {
+		BlockManifest manifest = mDeltaManifest;
+		if (!mDeltaSource.isFile()) {
+			DownloadLog.w(TAG, "The previous version " + mDeltaSource + " doesn't exist, download the whole file");
+			return;
+		}
+		if (manifest.getLength() != mFileSize) {
+			DownloadLog.w(TAG, "The manifest length " + manifest.getLength() + " doesn't match the file size " + mFileSize
+					+ ", download the whole file");
+			return;
+		}
+		if (null != mTracer) {
+			mTracer.begin(DownloadTracer.LANE_DOWNLOADER, "delta", "source", mDeltaSource.getPath());
+		}
+		long copied = 0;
+		try {
+			long [] offsets = DeltaScanner.scan(mDeltaSource, manifest);
+			copied = DeltaScanner.copy(mDeltaSource, mSavedFile, manifest, offsets);
+			if (copied == 0) {
+				return;
+			}
+			// One segment for each run of copied or missing blocks.
+			mSegments.clear();
+			int blockSize = manifest.getBlockSize();
+			int id = 1;
+			int i = 0;
+			while (i < offsets.length) {
+				boolean found = offsets[i] != -1;
+				int first = i;
+				while (++i < offsets.length && (offsets[i] != -1) == found) {
+					// Find the end of the run.
+				}
+				long start = (long) first * blockSize;
+				long end = Math.min((long) i * blockSize, mFileSize);
+				mSegments.put(id, new Segment(id, start, end, found ? end - start : 0));
+				id++;
+			}
+			mMetrics.increment(DownloadMetrics.DELTA_COPIED_BYTES, copied);
+		} finally {
+			if (null != mTracer) {
+				mTracer.end(DownloadTracer.LANE_DOWNLOADER, "delta", "copied", copied);
+			}
+		}
+	}
+
+	/**
+	 * Get the size of the data saved from the start of the file without a gap.
+	 */
+	private long getSavedPrefix() {
+		long prefix = 0;
+		for (Segment segment : getSortedSegments()) {
+			if (segment.getStart() != prefix) {
+				break;
+			}
+			prefix = segment.getPosition();
+			if (!segment.isComplete()) {
+				break;
+			}
+		}
+		return prefix;
+	}
+
+	/**
+	 * Wait until the data at the position is saved, called by {@link DownloadInputStream}.
+	 * @param position The position to read.
+	 * @return The size of the data saved from the start of the file, or -1 if the position is the end of the file.
+	 * @throws IOException The download ended before the position was saved, or the wait was interrupted.
+	 */
+	long awaitSavedPrefix(long position) throws IOException {
+		synchronized (mPrefixLock) {
+			while (true) {
+				State state = mState;
+				if (state == State.COMPLETED || (mFileReady && state == State.DOWNLOADING)) {
+					EncodedTransfer transfer = mEncodedTransfer;
+					long end = mFileSize;
+					if (null != transfer) {
+						// The decoded size is known at the end.
+						end = state == State.COMPLETED ? transfer.getDecodedSize() : Long.MAX_VALUE;
+					}
+					if (position >= end) {
+						return -1;
+					}
+					long prefix = state == State.COMPLETED ? end
+							: null != transfer ? transfer.getDecodedSize() : getSavedPrefix();
+					if (prefix > position) {
+						return prefix;
+					}
+				} else if (state == State.PAUSED || state == State.FAILED) {
+					throw new IOException("The download of " + mUrl + " is " + state);
+				}
+				try {
+					mPrefixLock.wait(mUpdateTime);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for " + mUrl);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the file to read the saved data from.
+	 */
+	File getReadableFile() {
+		return mState == State.COMPLETED ? mDownloadedFile : mSavedFile;
+	}
+
+	private void notifyPrefix() {
+		synchronized (mPrefixLock) {
+			mPrefixLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Check the segments cover the whole file exactly.
+	 */
+	private boolean checkSegments() {
+		long position = 0;
+		for (Segment segment : getSortedSegments()) {
+			if (segment.getStart() != position || segment.getEnd() < segment.getStart()
+					|| segment.getDownloaded() < 0 || segment.getPosition() > segment.getEnd()) {
+				return false;
+			}
+			position = segment.getEnd();
+		}
+		return !mSegments.isEmpty() && position == mFileSize;
+	}
+
+	/**
+	 * Wait for all download threads to end.
+	 */
+	private void joinThreads() throws InterruptedException {
+		for (DownloadThread thread : mTheadPool) {
+			if (null != thread) {
+				thread.await();
+			}
+		}
+		EncodedTransfer transfer = mEncodedTransfer;
+		if (null != transfer) {
+			transfer.join();
+		}
+	}
+
+	/**
+	 * Write the queued data and close the disk writer.
+	 */
+	private void closeDiskWriter() {
+		if (null != mDiskWriter) {
+			mDiskWriter.close();
+			mDiskWriter = null;
+		}
+	}
+
+	/**
+	 * Get HttpConnection object
+	 * @param downloadUrl the url to download.
+	 * @return HttpConnection object
+	 */
+	private HttpURLConnection getConnection(String downloadUrl) throws IOException {
+		URL url = new URL(downloadUrl);
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setConnectTimeout(5 * 1000);
+		conn.setReadTimeout(mReadTimeout);
+		conn.setRequestMethod("GET");
+		conn.setRequestProperty("Accept", "*/*");
+		conn.setRequestProperty("Accept-Language", "zh-CN");
+		conn.setRequestProperty("Referer", downloadUrl);
+		conn.setRequestProperty("Charset", "UTF-8");
+		// Set agent.
+		conn.setRequestProperty("User-Agent", "Mozilla/4.0 (compatible; "
+				+ "MSIE 8.0; Windows NT 5.2;"
+				+ " Trident/4.0; .NET CLR 1.1.4322;"
+				+ ".NET CLR 2.0.50727; " + ".NET CLR 3.0.04506.30;"
+				+ " .NET CLR 3.0.4506.2152; " + ".NET CLR 3.5.30729)");
+		conn.setRequestProperty("Connection", "Keep-Alive");
+		// Ranges are requested from the identity encoded data.
+		conn.setRequestProperty("Accept-Encoding", mCompressedTransfer ? "gzip, deflate" : "identity");
+		long start = System.nanoTime();
+		conn.connect();
+		mMetrics.record(DownloadMetrics.CONNECT_TIME, (System.nanoTime() - start) / 1000);
+		if (DownloadLog.isLoggable(TAG, DownloadLogger.DEBUG)) {
+			DownloadLog.d(TAG, getResponseHeader(conn));
+		}
+		return conn;
+	}
+	
+	/**
+	 * Check the download folder, make new folder if it is not exist.
+	 * @param folder
+	 */
+	private void checkDownloadFolder(File folder) {
+		if (!folder.exists()) {
+			folder.mkdirs();
+		}
+	}
+	
+	/**
+	 * Get the block size.
+	 * @param fileSize The size of the file which to download.
+	 * @param blockNum The amount of block.
+	 * @return
+	 */
+	private int getBlockSize(int fileSize, int blockNum) {
+		return fileSize % blockNum == 0 ? fileSize / blockNum
+				: fileSize / blockNum + 1;
+	}
+	
+	/**
+     * Get downloaded size.
+	 * @return
+	 */
+	private int getDownloadedSize() {
+		int size = 0;
+		for (Segment segment : mSegments.values()) {
+			size += segment.getDownloaded();
+		}
+		DownloadLog.i(TAG, "Downloaded size " + size + " bytes");
+		return size;
+	}
+
+	/**
+	 * Get file name
+	 * @param conn HttpConnection object
+	 * @return
+	 */
+	private String getFileName(HttpURLConnection conn) {
+		String filename = mUrl.substring(mUrl.lastIndexOf("/") + 1);
+
+		if (null == filename || filename.length() < 1) {// Get file name failed.
+			for (int i = 0;; i++) { // Get file name from http header.
+				String mine = conn.getHeaderField(i);
+				if (mine == null)
+					break; // Exit the loop when go through all http header.
+				if ("content-disposition".equals(conn.getHeaderFieldKey(i).toLowerCase(Locale.ENGLISH))) { // Get content-disposition header field returns, which may contain a file name
+					Matcher m = Pattern.compile(".*filename=(.*)").matcher(mine.toLowerCase(Locale.ENGLISH)); // Using regular expressions query file name
+					if (m.find()) {
+						return m.group(1); // If there is compliance with the rules of the regular expression string
+					}
+				}
+			}
+			filename = UUID.randomUUID() + ".tmp";// A 16-byte binary digits generated by a unique identification number
+			                                      // (each card has a unique identification number)
+			                                      // on the card and the CPU clock as the file name
+		}
+		return filename;
+	}
+
+	/**
+	 * Get HTTP response header field
+	 * 
+	 * @param http HttpURLConnection object
+	 * @return HTTp response header field map.
+	 */
+	private static Map<String, String> getHttpResponseHeader(HttpURLConnection http) {
+		Map<String, String> header = new LinkedHashMap<String, String>();
+		for (int i = 0;; i++) {
+			String fieldValue = http.getHeaderField(i);
+			if (fieldValue == null) {
+				break;
+			}
+			header.put(http.getHeaderFieldKey(i), fieldValue);
+		}
+		return header;
+	}
+
+	/**
+	 * Get HTTP response header field as a string
+	 * @param conn HttpURLConnection object
+     * @return HTTP response header field as a string
+	 */
+	private static String getResponseHeader(HttpURLConnection conn) {
+		Map<String, String> header = getHttpResponseHeader(conn);
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : header.entrySet()) {
+			String key = entry.getKey() != null ? entry.getKey() + ":" : "";
+			sb.append(key + entry.getValue());
+		}
+		return sb.toString();
+	}
+}
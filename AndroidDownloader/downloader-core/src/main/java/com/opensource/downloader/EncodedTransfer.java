@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Usage The thread to download a gzip or deflate encoded response in one stream,
+ * the data is decoded while it is read and written to the file or the sink in order.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class EncodedTransfer extends Thread {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private final Downloader mDownloader;
+	private final HttpURLConnection mConnection;
+	private final String mEncoding;
+	private final File mFile;
+	private final DownloadSink mSink;
+	private Inflater mInflater; // The inflater of the deflate data, its native memory is freed in run().
+
+	private volatile long mEncodedSize = 0; // The bytes read from network.
+	private volatile long mDecodedSize = 0; // The bytes after decoded.
+	private volatile boolean mDone = false;
+	private volatile boolean mCompleted = false; // Read to the end of the response.
+	private volatile Exception mError;
+
+	/**
+	 * Constructor
+	 * @param downloader Downloader instance.
+	 * @param conn The connection of the encoded response.
+	 * @param encoding The content encoding, gzip or deflate.
+	 * @param file The file to save the decoded data, null to write the sink.
+	 * @param sink The sink to write the decoded data, null to save the file.
+	 */
+	EncodedTransfer(Downloader downloader, HttpURLConnection conn, String encoding, File file, DownloadSink sink) {
+		this.mDownloader = downloader;
+		this.mConnection = conn;
+		this.mEncoding = encoding;
+		this.mFile = file;
+		this.mSink = sink;
+	}
+
+	/**
+	 * Whether the content encoding can be decoded.
+	 */
+	static boolean isSupported(String encoding) {
+		return "gzip".equalsIgnoreCase(encoding) || "deflate".equalsIgnoreCase(encoding);
+	}
+
+	@Override
+	public void run() {
+		DownloadMetrics metrics = mDownloader.getMetrics();
+		long start = System.nanoTime();
+		InputStream inStream = null;
+		OutputStream outStream = null;
+		try {
+			inStream = decode(new CountingInputStream(mConnection.getInputStream(), metrics));
+			if (null == mSink) {
+				outStream = new FileOutputStream(mFile);
+			}
+			byte [] buffer = new byte[mDownloader.getWriteBufferSize()];
+			int offset;
+			while (!mDownloader.isStop() && (offset = inStream.read(buffer)) != -1) {
+				write(outStream, buffer, offset);
+				mDecodedSize += offset;
+				metrics.increment(DownloadMetrics.DECODED_BYTES, offset);
+			}
+			if (null != outStream) {
+				try {
+					outStream.close();
+				} catch (IOException e) {
+					throw new DownloadException(DownloadException.Reason.STORAGE, "Failed to save " + mFile, e);
+				}
+			}
+			mCompleted = !mDownloader.isStop();
+			long elapsed = (System.nanoTime() - start) / 1000;
+			if (elapsed > 0) {
+				metrics.record(DownloadMetrics.THROUGHPUT, mEncodedSize * 1000000L / elapsed);
+			}
+			DownloadLog.i(TAG, "Encoded transfer read " + mEncodedSize + " bytes, decoded " + mDecodedSize + " bytes");
+		} catch (Exception e) {
+			if (!mDownloader.isStop()) {
+				DownloadLog.e(TAG, "Encoded transfer failed: " + e);
+				mError = e;
+			}
+		} finally {
+			close(inStream);
+			close(outStream);
+			if (null != mInflater) {
+				mInflater.end();
+			}
+			mConnection.disconnect();
+			mDone = true;
+			mDownloader.wakeUp();
+		}
+	}
+
+	/**
+	 * Write the decoded data to the sink or the file, the errors are of the storage, not of the network.
+	 */
+	private void write(OutputStream outStream, byte [] buffer, int length) throws DownloadException, InterruptedException {
+		try {
+			if (null != mSink) {
+				mSink.write(mDecodedSize, buffer, 0, length);
+			} else {
+				outStream.write(buffer, 0, length);
+			}
+		} catch (IOException e) {
+			throw new DownloadException(DownloadException.Reason.STORAGE, "Failed to write the decoded data", e);
+		}
+	}
+
+	/**
+	 * Wrap the stream with the decoder of the content encoding.
+	 */
+	private InputStream decode(InputStream inStream) throws IOException {
+		if ("gzip".equalsIgnoreCase(mEncoding)) {
+			return new GZIPInputStream(inStream, mDownloader.getWriteBufferSize());
+		}
+		// Deflate should be wrapped by zlib, but some servers send the raw deflate data.
+		PushbackInputStream pushback = new PushbackInputStream(inStream, 2);
+		int first = pushback.read();
+		int second = pushback.read();
+		if (second != -1) {
+			pushback.unread(second);
+		}
+		if (first != -1) {
+			pushback.unread(first);
+		}
+		boolean zlib = first != -1 && second != -1 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+		mInflater = new Inflater(!zlib);
+		return new InflaterInputStream(pushback, mInflater, mDownloader.getWriteBufferSize());
+	}
+
+	private static void close(Closeable closeable) {
+		if (null != closeable) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Nothing to do.
+			}
+		}
+	}
+
+	/**
+	 * Stop at once, close the connection and interrupt the blocked read.
+	 */
+	void cancel() {
+		mConnection.disconnect();
+		interrupt();
+	}
+
+	boolean isDone() {
+		return mDone;
+	}
+
+	/**
+	 * Whether the whole response was read and saved.
+	 */
+	boolean isCompleted() {
+		return mCompleted;
+	}
+
+	/**
+	 * Get the error, null if the transfer succeeded or was stopped.
+	 */
+	Exception getError() {
+		return mError;
+	}
+
+	long getEncodedSize() {
+		return mEncodedSize;
+	}
+
+	long getDecodedSize() {
+		return mDecodedSize;
+	}
+
+	/**
+	 * Count the bytes read from network before decoded.
+	 */
+	private class CountingInputStream extends FilterInputStream {
+
+		private final DownloadMetrics mMetrics;
+
+		CountingInputStream(InputStream in, DownloadMetrics metrics) {
+			super(in);
+			this.mMetrics = metrics;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int count = super.read(buffer, offset, length);
+			if (count > 0) {
+				count(count);
+			}
+			return count;
+		}
+
+		private void count(int length) {
+			mEncodedSize += length;
+			mMetrics.increment(DownloadMetrics.DOWNLOADED_BYTES, length);
+			mDownloader.append(length);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Usage Deliver the events of a download to a {@link DownloadEventListener} through an executor.
+ * Progress events are coalesced, only the latest undelivered progress is kept.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class EventDispatcher {
+
+	private final DownloadEventListener mListener;
+	private final Executor mExecutor;
+	private final AtomicReference<DownloadProgress> mPendingProgress = new AtomicReference<DownloadProgress>();
+
+	private final Runnable mProgressTask = new Runnable() {
+		@Override
+		public void run() {
+			DownloadProgress progress = mPendingProgress.getAndSet(null);
+			if (null != progress) {
+				mListener.onProgress(progress);
+			}
+		}
+	};
+
+	EventDispatcher(DownloadEventListener listener, Executor executor) {
+		this.mListener = listener;
+		this.mExecutor = executor;
+	}
+
+	void probed(final String url, final long fileSize) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onProbed(url, fileSize);
+			}
+		});
+	}
+
+	void segmentStarted(final int segmentId, final long position) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onSegmentStarted(segmentId, position);
+			}
+		});
+	}
+
+	void segmentFinished(final int segmentId) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onSegmentFinished(segmentId);
+			}
+		});
+	}
+
+	void segmentFailed(final int segmentId, final Exception error) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onSegmentFailed(segmentId, error);
+			}
+		});
+	}
+
+	void progress(DownloadProgress progress) {
+		if (null == mPendingProgress.getAndSet(progress)) {
+			mExecutor.execute(mProgressTask);
+		}
+	}
+
+	void paused(final DownloadProgress progress) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onPaused(progress);
+			}
+		});
+	}
+
+	void verified(final File file) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onVerified(file);
+			}
+		});
+	}
+
+	void completed(final File file) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onCompleted(file);
+			}
+		});
+	}
+
+	void failed(final Exception error) {
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mListener.onFailed(error);
+			}
+		});
+	}
+}
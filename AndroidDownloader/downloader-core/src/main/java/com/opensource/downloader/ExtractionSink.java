@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Usage The sink which unpacks a zip, tar or tar.gz archive to a folder while it is downloading.<br><br>
+ *
+ * The data is put in order as {@link StreamSink} does, and read by an extraction thread through a
+ * bounded pipe, so the entries are unpacked while the rest of the archive is on the network, and
+ * the archive is never saved or read again. The download runs in sequential scheduling as all the
+ * sink downloads, the threads work near the read head of the extraction.
+ * A download to this sink can't be resumed.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class ExtractionSink implements DownloadSink {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final int PIPE_SIZE = 1024 * 256;
+	private static final int BUFFER_SIZE = 1024 * 32;
+	private static final int TAR_BLOCK_SIZE = 512;
+
+	private final File mFolder;
+	private final Pipe mPipe = new Pipe(PIPE_SIZE);
+	private final StreamSink mOrder;
+	private final List<File> mFiles = Collections.synchronizedList(new ArrayList<File>());
+	private Thread mExtractor;
+	private volatile IOException mError;
+
+	/**
+	 * Constructor
+	 * @param folder The folder to unpack the entries to, created if not exists.
+	 * @param windowSize The max size of the data kept ahead of the extraction, see {@link StreamSink}.
+	 */
+	public ExtractionSink(File folder, long windowSize) {
+		this.mFolder = folder;
+		this.mOrder = new StreamSink(mPipe.getOutputStream(), windowSize);
+	}
+
+	@Override
+	public void open(long size) throws IOException {
+		if (!mFolder.isDirectory() && !mFolder.mkdirs()) {
+			throw new IOException("Failed to create the folder " + mFolder);
+		}
+		mOrder.open(size);
+		mExtractor = new Thread("ExtractionSink") {
+			@Override
+			public void run() {
+				extract();
+			}
+		};
+		mExtractor.setDaemon(true);
+		mExtractor.start();
+	}
+
+	@Override
+	public void write(long position, byte[] buffer, int offset, int length) throws IOException, InterruptedException {
+		IOException error = mError;
+		if (null != error) {
+			throw error;
+		}
+		mOrder.write(position, buffer, offset, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		mOrder.close();
+		try {
+			mExtractor.join();
+		} catch (InterruptedException e) {
+			mPipe.abort(null);
+			throw new IOException("Interrupted when waiting for the extraction");
+		}
+		if (null != mError) {
+			throw mError;
+		}
+	}
+
+	@Override
+	public void abort() {
+		// Wake the writer blocked in the pipe first, it holds the lock of the stream until it returns.
+		// Then release the data held ahead of the stream.
+		mPipe.abort(null);
+		mOrder.abort();
+	}
+
+	/**
+	 * Get the files unpacked so far, the folders are not included.
+	 */
+	public List<File> getExtractedFiles() {
+		synchronized (mFiles) {
+			return new ArrayList<File>(mFiles);
+		}
+	}
+
+	private void extract() {
+		InputStream in = new BufferedInputStream(mPipe.getInputStream(), BUFFER_SIZE);
+		try {
+			in.mark(4);
+			int b0 = in.read();
+			int b1 = in.read();
+			in.reset();
+			if (b0 == 'P' && b1 == 'K') {
+				extractZip(in);
+			} else if (b0 == 0x1f && b1 == 0x8b) {
+				extractTar(new GZIPInputStream(in, BUFFER_SIZE));
+			} else {
+				extractTar(in);
+			}
+			// Read to the end, the data after the entries (the zip central directory, the tar padding) is not needed.
+			byte [] buffer = new byte[BUFFER_SIZE];
+			while (in.read(buffer) != -1) {
+				// Nothing to do.
+			}
+			DownloadLog.i(TAG, "Extracted " + mFiles.size() + " files to " + mFolder);
+		} catch (IOException e) {
+			DownloadLog.e(TAG, "Extraction failed: " + e);
+			mError = e;
+			// The download fails at the next write, the pipe is aborted first as in abort().
+			mPipe.abort(e);
+			mOrder.abort();
+		}
+	}
+
+	private void extractZip(InputStream in) throws IOException {
+		ZipInputStream zipIn = new ZipInputStream(in);
+		ZipEntry entry;
+		while (null != (entry = zipIn.getNextEntry())) {
+			File file = resolve(entry.getName());
+			if (entry.isDirectory()) {
+				mkdirs(file);
+			} else {
+				save(zipIn, file, -1);
+			}
+			if (entry.getTime() > 0) {
+				file.setLastModified(entry.getTime());
+			}
+		}
+	}
+
+	private void extractTar(InputStream in) throws IOException {
+		byte [] header = new byte[TAR_BLOCK_SIZE];
+		String longName = null; // The name of the next entry from a GNU long name or pax header.
+		while (true) {
+			if (!readFully(in, header)) {
+				return; // Some writers omit the end blocks.
+			}
+			if (isZeros(header)) {
+				return; // The end of archive.
+			}
+			if (!verifyChecksum(header)) {
+				throw new IOException("Not a tar archive, or the header is broken");
+			}
+			long size = parseOctal(header, 124, 12);
+			char type = (char) header[156];
+			if (type == 'L' || type == 'x') {
+				String data = new String(readData(in, size), "UTF-8");
+				longName = type == 'L' ? trimNull(data) : parsePaxPath(data, longName);
+				continue;
+			}
+			String name = longName;
+			longName = null;
+			if (null == name) {
+				name = parseString(header, 0, 100);
+				String prefix = parseString(header, 345, 155);
+				if (parseString(header, 257, 6).startsWith("ustar") && prefix.length() > 0) {
+					name = prefix + "/" + name;
+				}
+			}
+			if (type == '0' || type == '\0' || type == '7') {
+				File file = resolve(name);
+				save(in, file, size);
+				skipPadding(in, size);
+				if ((parseOctal(header, 100, 8) & 0100) != 0) {
+					DownloadPlatform.get().setExecutable(file);
+				}
+				file.setLastModified(parseOctal(header, 136, 12) * 1000);
+			} else if (type == '5') {
+				mkdirs(resolve(name));
+				skip(in, size + padding(size));
+			} else {
+				// Links, devices and the global pax header are not unpacked.
+				DownloadLog.w(TAG, "Skip tar entry " + name + " of type " + type);
+				skip(in, size + padding(size));
+			}
+		}
+	}
+
+	/**
+	 * Get the file of the entry in the folder, the entries out of the folder are refused.
+	 */
+	private File resolve(String name) throws IOException {
+		File file = new File(mFolder, name);
+		String folder = mFolder.getCanonicalPath();
+		String path = file.getCanonicalPath();
+		if (!path.equals(folder) && !path.startsWith(folder + File.separator)) {
+			throw new IOException("The entry " + name + " is out of the folder");
+		}
+		return file;
+	}
+
+	private static void mkdirs(File folder) throws IOException {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("Failed to create the folder " + folder);
+		}
+	}
+
+	/**
+	 * Save the entry to the file.
+	 * @param in The stream of the archive.
+	 * @param file The file to save.
+	 * @param size The size of the entry, -1 to save to the end of the stream.
+	 */
+	private void save(InputStream in, File file, long size) throws IOException {
+		mkdirs(file.getParentFile());
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte [] buffer = new byte[BUFFER_SIZE];
+			long remaining = size < 0 ? Long.MAX_VALUE : size;
+			while (remaining > 0) {
+				int length = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (length == -1) {
+					if (size < 0) {
+						break;
+					}
+					throw new IOException("The archive ended in the entry " + file);
+				}
+				out.write(buffer, 0, length);
+				remaining -= length;
+			}
+		} finally {
+			out.close();
+		}
+		mFiles.add(file);
+	}
+
+	private static boolean readFully(InputStream in, byte [] buffer) throws IOException {
+		int read = 0;
+		while (read < buffer.length) {
+			int length = in.read(buffer, read, buffer.length - read);
+			if (length == -1) {
+				if (read == 0) {
+					return false;
+				}
+				throw new IOException("The archive ended in a header");
+			}
+			read += length;
+		}
+		return true;
+	}
+
+	private static byte [] readData(InputStream in, long size) throws IOException {
+		if (size > 1024 * 1024) {
+			throw new IOException("The tar extended header is too large: " + size);
+		}
+		byte [] data = new byte[(int) size];
+		if (size > 0 && !readFully(in, data)) {
+			throw new IOException("The archive ended in an extended header");
+		}
+		skipPadding(in, size);
+		return data;
+	}
+
+	private static void skipPadding(InputStream in, long size) throws IOException {
+		skip(in, padding(size));
+	}
+
+	private static long padding(long size) {
+		return (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+	}
+
+	private static void skip(InputStream in, long length) throws IOException {
+		byte [] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+		while (length > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (read == -1) {
+				throw new IOException("The archive ended in an entry");
+			}
+			length -= read;
+		}
+	}
+
+	private static boolean isZeros(byte [] header) {
+		for (byte b : header) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean verifyChecksum(byte [] header) {
+		long expected = parseOctal(header, 148, 8);
+		long sum = 0;
+		for (int i = 0; i < header.length; i++) {
+			sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+		}
+		return sum == expected;
+	}
+
+	/**
+	 * Parse a numeric field, in octal text or in the base-256 form of large values.
+	 */
+	private static long parseOctal(byte [] header, int offset, int length) {
+		long value = 0;
+		if ((header[offset] & 0x80) != 0) {
+			for (int i = offset + 1; i < offset + length; i++) {
+				value = (value << 8) | (header[i] & 0xff);
+			}
+			return value;
+		}
+		for (int i = offset; i < offset + length; i++) {
+			byte b = header[i];
+			if (b >= '0' && b <= '7') {
+				value = (value << 3) + (b - '0');
+			} else if (b != ' ' || value != 0) {
+				break;
+			}
+		}
+		return value;
+	}
+
+	private static String parseString(byte [] header, int offset, int length) throws IOException {
+		return trimNull(new String(header, offset, length, "UTF-8"));
+	}
+
+	private static String trimNull(String value) {
+		int end = value.indexOf('\0');
+		return end == -1 ? value : value.substring(0, end);
+	}
+
+	/**
+	 * Get the path from the records of a pax header, "length key=value\n" each.
+	 */
+	private static String parsePaxPath(String data, String defaultPath) {
+		String path = defaultPath;
+		for (String record : data.split("\n")) {
+			int space = record.indexOf(' ');
+			if (space != -1 && record.startsWith("path=", space + 1)) {
+				path = record.substring(space + 6);
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * The bounded pipe from the sink to the extraction thread. A write blocks while the pipe is full,
+	 * a read blocks while it is empty. Either side aborts the pipe to fail the other one.
+	 */
+	private static final class Pipe {
+
+		private final byte [] mBuffer;
+		private int mReadPos = 0;
+		private int mCount = 0;
+		private boolean mClosed = false;
+		private boolean mAborted = false;
+		private IOException mError; // The error of the extraction.
+
+		Pipe(int size) {
+			this.mBuffer = new byte[size];
+		}
+
+		/**
+		 * @param error The error of the extraction to fail the writes with, null if the download is aborted.
+		 */
+		synchronized void abort(IOException error) {
+			mAborted = true;
+			mError = error;
+			notifyAll();
+		}
+
+		synchronized void write(byte [] buffer, int offset, int length) throws IOException {
+			while (length > 0) {
+				while (mCount == mBuffer.length && !mAborted) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted when writing the pipe");
+					}
+				}
+				if (mAborted) {
+					throw null == mError ? new IOException("The extraction was aborted") : mError;
+				}
+				int writePos = (mReadPos + mCount) % mBuffer.length;
+				int count = Math.min(length, Math.min(mBuffer.length - mCount, mBuffer.length - writePos));
+				System.arraycopy(buffer, offset, mBuffer, writePos, count);
+				mCount += count;
+				offset += count;
+				length -= count;
+				notifyAll();
+			}
+		}
+
+		synchronized int read(byte [] buffer, int offset, int length) throws IOException {
+			while (mCount == 0 && !mClosed && !mAborted) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted when reading the pipe");
+				}
+			}
+			if (mAborted) {
+				throw new IOException("The download was aborted");
+			}
+			if (mCount == 0) {
+				return -1;
+			}
+			int count = Math.min(length, Math.min(mCount, mBuffer.length - mReadPos));
+			System.arraycopy(mBuffer, mReadPos, buffer, offset, count);
+			mReadPos = (mReadPos + count) % mBuffer.length;
+			mCount -= count;
+			notifyAll();
+			return count;
+		}
+
+		synchronized void close() {
+			mClosed = true;
+			notifyAll();
+		}
+
+		OutputStream getOutputStream() {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte [] {(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] buffer, int offset, int length) throws IOException {
+					Pipe.this.write(buffer, offset, length);
+				}
+
+				@Override
+				public void close() {
+					Pipe.this.close();
+				}
+			};
+		}
+
+		InputStream getInputStream() {
+			return new InputStream() {
+				@Override
+				public int read() throws IOException {
+					byte [] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					if (length == 0) {
+						return 0;
+					}
+					return Pipe.this.read(buffer, offset, length);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Usage Create the local file of a download with the configured allocation strategy.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class FileAllocator {
+
+	private static final int ZERO_FILL_SIZE = 1024 * 64;
+
+	private FileAllocator() {
+	}
+
+	/**
+	 * Check there is enough free space in the folder, fail before any byte is downloaded if not.
+	 * @param folder The folder to save the file.
+	 * @param required The bytes need to be written.
+	 * @throws DownloadException There is not enough free space.
+	 */
+	static void checkFreeSpace(File folder, long required) throws DownloadException {
+		long usable = getUsableSpace(folder);
+		if (required > usable) {
+			throw new DownloadException(DownloadException.Reason.INSUFFICIENT_SPACE, "Not enough free space in "
+					+ folder + ", required " + required + " bytes, usable " + usable + " bytes");
+		}
+	}
+
+	/**
+	 * Get the usable space of the folder.
+	 * @param folder
+	 * @return The usable bytes.
+	 */
+	static long getUsableSpace(File folder) {
+		return DownloadPlatform.get().getUsableSpace(folder);
+	}
+
+	/**
+	 * Allocate the file to the given length.
+	 * @param file The file to allocate.
+	 * @param length The total length of the file.
+	 * @param allocation The allocation strategy.
+	 * @throws IOException
+	 */
+	static void allocate(File file, long length, Downloader.FileAllocation allocation) throws IOException {
+		RandomAccessFile randOut = new RandomAccessFile(file, "rw");
+		try {
+			long current = randOut.length();
+			if (allocation == Downloader.FileAllocation.PREALLOCATE && current < length) {
+				preallocate(randOut, current, length);
+			}
+			randOut.setLength(length); // Set total size of the download file.
+			randOut.getFD().sync();
+		} finally {
+			randOut.close();
+		}
+	}
+
+	/**
+	 * Reserve the real blocks of [from, to) so parallel segment writes don't fragment the file.
+	 * Use fallocate where the platform supports it, or write zeros through the file channel.
+	 */
+	private static void preallocate(RandomAccessFile randOut, long from, long to) throws IOException {
+		if (DownloadPlatform.get().fallocate(randOut, from, to - from)) {
+			return;
+		}
+		FileChannel channel = randOut.getChannel();
+		ByteBuffer zeros = ByteBuffer.allocate(ZERO_FILL_SIZE);
+		long position = from;
+		while (position < to) {
+			zeros.clear();
+			if (to - position < ZERO_FILL_SIZE) {
+				zeros.limit((int) (to - position));
+			}
+			position += channel.write(zeros, position);
+		}
+	}
+}
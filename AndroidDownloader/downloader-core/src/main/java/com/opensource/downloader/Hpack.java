@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Usage The header compression of HTTP/2 (RFC 7541). The headers are lists of {name, value} pairs.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class Hpack {
+
+	/** The size of the dynamic table of the decoder, the default of SETTINGS_HEADER_TABLE_SIZE. */
+	static final int TABLE_SIZE = 4096;
+
+	private static final int ENTRY_OVERHEAD = 32;
+
+	private static final String [][] STATIC_TABLE = {
+			{":authority", ""},
+			{":method", "GET"},
+			{":method", "POST"},
+			{":path", "/"},
+			{":path", "/index.html"},
+			{":scheme", "http"},
+			{":scheme", "https"},
+			{":status", "200"},
+			{":status", "204"},
+			{":status", "206"},
+			{":status", "304"},
+			{":status", "400"},
+			{":status", "404"},
+			{":status", "500"},
+			{"accept-charset", ""},
+			{"accept-encoding", "gzip, deflate"},
+			{"accept-language", ""},
+			{"accept-ranges", ""},
+			{"accept", ""},
+			{"access-control-allow-origin", ""},
+			{"age", ""},
+			{"allow", ""},
+			{"authorization", ""},
+			{"cache-control", ""},
+			{"content-disposition", ""},
+			{"content-encoding", ""},
+			{"content-language", ""},
+			{"content-length", ""},
+			{"content-location", ""},
+			{"content-range", ""},
+			{"content-type", ""},
+			{"cookie", ""},
+			{"date", ""},
+			{"etag", ""},
+			{"expect", ""},
+			{"expires", ""},
+			{"from", ""},
+			{"host", ""},
+			{"if-match", ""},
+			{"if-modified-since", ""},
+			{"if-none-match", ""},
+			{"if-range", ""},
+			{"if-unmodified-since", ""},
+			{"last-modified", ""},
+			{"link", ""},
+			{"location", ""},
+			{"max-forwards", ""},
+			{"proxy-authenticate", ""},
+			{"proxy-authorization", ""},
+			{"range", ""},
+			{"referer", ""},
+			{"refresh", ""},
+			{"retry-after", ""},
+			{"server", ""},
+			{"set-cookie", ""},
+			{"strict-transport-security", ""},
+			{"transfer-encoding", ""},
+			{"user-agent", ""},
+			{"vary", ""},
+			{"via", ""},
+			{"www-authenticate", ""}
+	};
+
+	private Hpack() {
+	}
+
+	/**
+	 * Usage Decodes the header blocks of one connection, the blocks must be decoded in the order received
+	 * as they share the dynamic table.
+	 * @author yinglovezhuzhu@gmail.com
+	 *
+	 */
+	static final class Reader {
+
+		private final LinkedList<String []> mTable = new LinkedList<String []>(); // The newest entry first.
+		private int mTableSize = 0;
+		private int mMaxTableSize = TABLE_SIZE;
+		private byte [] mData;
+		private int mPosition;
+		private int mEnd;
+
+		/**
+		 * Decode a header block.
+		 * @param block The buffer of the block.
+		 * @param offset The offset of the block in buffer.
+		 * @param length The length of the block.
+		 * @return The headers.
+		 * @throws IOException The block is invalid, the connection can't be used any more.
+		 */
+		List<String []> decode(byte [] block, int offset, int length) throws IOException {
+			mData = block;
+			mPosition = offset;
+			mEnd = offset + length;
+			List<String []> headers = new ArrayList<String []>();
+			while (mPosition < mEnd) {
+				int b = mData[mPosition] & 0xff;
+				if ((b & 0x80) != 0) { // Indexed header field.
+					String [] entry = getEntry(readInt(7));
+					headers.add(new String [] {entry[0], entry[1]});
+				} else if ((b & 0x40) != 0) { // Literal with incremental indexing.
+					String [] header = readLiteral(6);
+					add(header);
+					headers.add(header);
+				} else if ((b & 0x20) != 0) { // Dynamic table size update.
+					int size = readInt(5);
+					if (size > TABLE_SIZE) {
+						throw new IOException("Invalid HPACK table size " + size);
+					}
+					mMaxTableSize = size;
+					evict();
+				} else { // Literal without indexing or never indexed.
+					headers.add(readLiteral(4));
+				}
+			}
+			mData = null;
+			return headers;
+		}
+
+		private String [] readLiteral(int prefix) throws IOException {
+			int index = readInt(prefix);
+			String name = index == 0 ? readString() : getEntry(index)[0];
+			return new String [] {name, readString()};
+		}
+
+		private String [] getEntry(int index) throws IOException {
+			if (index > 0 && index <= STATIC_TABLE.length) {
+				return STATIC_TABLE[index - 1];
+			}
+			index -= STATIC_TABLE.length + 1;
+			if (index < 0 || index >= mTable.size()) {
+				throw new IOException("Invalid HPACK index " + index);
+			}
+			return mTable.get(index);
+		}
+
+		private void add(String [] header) {
+			mTable.addFirst(header);
+			mTableSize += header[0].length() + header[1].length() + ENTRY_OVERHEAD;
+			evict();
+		}
+
+		private void evict() {
+			while (mTableSize > mMaxTableSize) {
+				String [] header = mTable.removeLast();
+				mTableSize -= header[0].length() + header[1].length() + ENTRY_OVERHEAD;
+			}
+		}
+
+		private int readInt(int prefix) throws IOException {
+			int mask = (1 << prefix) - 1;
+			int value = readByte() & mask;
+			if (value < mask) {
+				return value;
+			}
+			for (int shift = 0; shift < 28; shift += 7) {
+				int b = readByte();
+				value += (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("HPACK integer overflow");
+		}
+
+		private String readString() throws IOException {
+			if (mPosition >= mEnd) {
+				throw new IOException("Truncated HPACK block");
+			}
+			boolean huffman = (mData[mPosition] & 0x80) != 0;
+			int length = readInt(7);
+			if (length < 0 || length > mEnd - mPosition) {
+				throw new IOException("Invalid HPACK string length " + length);
+			}
+			byte [] bytes = huffman ? Huffman.decode(mData, mPosition, length) : null;
+			String value = null == bytes ? new String(mData, mPosition, length, "ISO-8859-1")
+					: new String(bytes, "ISO-8859-1");
+			mPosition += length;
+			return value;
+		}
+
+		private int readByte() throws IOException {
+			if (mPosition >= mEnd) {
+				throw new IOException("Truncated HPACK block");
+			}
+			return mData[mPosition++] & 0xff;
+		}
+	}
+
+	/**
+	 * Usage Encodes the header blocks, as literals without indexing, so the peer's dynamic table is never used.
+	 * @author yinglovezhuzhu@gmail.com
+	 *
+	 */
+	static final class Writer {
+
+		/**
+		 * Encode a header block.
+		 * @param headers The headers, the names must be in lower case.
+		 * @return The block.
+		 */
+		byte [] encode(List<String []> headers) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (String [] header : headers) {
+				int nameIndex = 0;
+				int index = 0;
+				for (int i = 0; i < STATIC_TABLE.length && 0 == index; i++) {
+					if (STATIC_TABLE[i][0].equals(header[0])) {
+						if (0 == nameIndex) {
+							nameIndex = i + 1;
+						}
+						if (STATIC_TABLE[i][1].equals(header[1])) {
+							index = i + 1;
+						}
+					}
+				}
+				if (index > 0) {
+					writeInt(out, 0x80, 7, index);
+				} else {
+					writeInt(out, 0x00, 4, nameIndex);
+					if (0 == nameIndex) {
+						writeString(out, header[0]);
+					}
+					writeString(out, header[1]);
+				}
+			}
+			return out.toByteArray();
+		}
+
+		private void writeString(ByteArrayOutputStream out, String value) throws IOException {
+			byte [] bytes = value.getBytes("ISO-8859-1");
+			writeInt(out, 0x00, 7, bytes.length);
+			out.write(bytes);
+		}
+
+		private void writeInt(ByteArrayOutputStream out, int flags, int prefix, int value) {
+			int mask = (1 << prefix) - 1;
+			if (value < mask) {
+				out.write(flags | value);
+				return;
+			}
+			out.write(flags | mask);
+			value -= mask;
+			while (value >= 0x80) {
+				out.write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		}
+	}
+}
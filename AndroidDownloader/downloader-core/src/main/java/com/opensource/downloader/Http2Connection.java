@@ -0,0 +1,609 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Usage A cleartext HTTP/2 connection with prior knowledge (h2c), the requests of the connection
+ * run as streams on it at the same time. The frames are read by a reader thread of the connection,
+ * and the streams are written by the threads of the requests.<br><br>
+ *
+ * The connection window is given back as soon as the data is received, as the data buffered is
+ * already bounded by the window of each stream. The window of a stream is given back as the data
+ * is read, so a slow reader only holds its own stream.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class Http2Connection implements Runnable {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final byte [] PREFACE = {'P', 'R', 'I', ' ', '*', ' ', 'H', 'T', 'T', 'P', '/', '2', '.', '0',
+			'\r', '\n', '\r', '\n', 'S', 'M', '\r', '\n', '\r', '\n'};
+
+	private static final int TYPE_DATA = 0x0;
+	private static final int TYPE_HEADERS = 0x1;
+	private static final int TYPE_RST_STREAM = 0x3;
+	private static final int TYPE_SETTINGS = 0x4;
+	private static final int TYPE_PUSH_PROMISE = 0x5;
+	private static final int TYPE_PING = 0x6;
+	private static final int TYPE_GOAWAY = 0x7;
+	private static final int TYPE_WINDOW_UPDATE = 0x8;
+	private static final int TYPE_CONTINUATION = 0x9;
+
+	private static final int FLAG_END_STREAM = 0x1;
+	private static final int FLAG_ACK = 0x1;
+	private static final int FLAG_END_HEADERS = 0x4;
+	private static final int FLAG_PADDED = 0x8;
+	private static final int FLAG_PRIORITY = 0x20;
+
+	private static final int SETTINGS_ENABLE_PUSH = 0x2;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	private static final int ERROR_NO_ERROR = 0x0;
+	private static final int ERROR_CANCEL = 0x8;
+
+	static final int DEFAULT_WINDOW_SIZE = 65535;
+	private static final int MAX_FRAME_SIZE = 16384; // The default SETTINGS_MAX_FRAME_SIZE, not changed.
+	private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+	private final String mOrigin;
+	private final Socket mSocket;
+	private final DataInputStream mIn;
+	private final OutputStream mOut; // The frames are written with the lock of it.
+	private final Hpack.Writer mHpackWriter = new Hpack.Writer(); // Guarded by mOut.
+	private final Hpack.Reader mHpackReader = new Hpack.Reader(); // Used by the reader thread only.
+	private final int mStreamWindowSize;
+	private final int mConnectionWindowSize;
+	private volatile int mPeerMaxFrameSize = MAX_FRAME_SIZE;
+	private int mUnackedSize = 0; // The data received and not given back to the connection window, reader thread only.
+
+	private final Map<Integer, Http2Stream> mStreams = new HashMap<Integer, Http2Stream>(); // The open streams, guarded by this.
+	private int mPendingStreams = 0; // The streams waiting to be sent, guarded by this.
+	private int mNextStreamId = 1; // Guarded by this.
+	// One stream before the server's SETTINGS, which may lower the limit, guarded by this.
+	private int mMaxConcurrentStreams = 1;
+	private int mPeerMaxConcurrentStreams = Integer.MAX_VALUE; // Guarded by this.
+	private boolean mShutdown = false; // No more streams, guarded by this.
+	private IOException mError; // The error which closed the connection, guarded by this.
+	private long mIdleSince = 0; // The time the last stream closed, 0 if there are streams, guarded by this.
+
+	private Http2Connection(String origin, Socket socket, int streamWindowSize, int connectionWindowSize) throws IOException {
+		this.mOrigin = origin;
+		this.mSocket = socket;
+		this.mIn = new DataInputStream(socket.getInputStream());
+		this.mOut = new BufferedOutputStream(socket.getOutputStream(), MAX_FRAME_SIZE);
+		this.mStreamWindowSize = streamWindowSize;
+		this.mConnectionWindowSize = connectionWindowSize;
+		this.mIdleSince = System.currentTimeMillis();
+	}
+
+	/**
+	 * Connect to the server, send the connection preface and start the reader thread.
+	 * @param host The host of the server.
+	 * @param port The port of the server.
+	 * @param connectTimeout The timeout to connect in milliseconds.
+	 * @param streamWindowSize The flow control window of each stream.
+	 * @param connectionWindowSize The flow control window of the whole connection.
+	 * @return The connection.
+	 * @throws IOException
+	 */
+	static Http2Connection open(String host, int port, int connectTimeout, int streamWindowSize,
+			int connectionWindowSize) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			socket.setTcpNoDelay(true);
+			Http2Connection connection = new Http2Connection(host + ":" + port, socket, streamWindowSize,
+					connectionWindowSize);
+			connection.start();
+			return connection;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	private void start() throws IOException {
+		synchronized (mOut) {
+			mOut.write(PREFACE);
+			byte [] settings = new byte[12];
+			putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+			putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, mStreamWindowSize);
+			writeFrame(TYPE_SETTINGS, 0, 0, settings, 0, settings.length);
+			if (mConnectionWindowSize > DEFAULT_WINDOW_SIZE) {
+				writeWindowUpdateFrame(0, mConnectionWindowSize - DEFAULT_WINDOW_SIZE);
+			}
+			mOut.flush();
+		}
+		Thread reader = new Thread(this, "Http2Connection-" + mOrigin);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Whether new streams can be opened on this connection.
+	 */
+	synchronized boolean isUsable() {
+		return !mShutdown;
+	}
+
+	/**
+	 * Open a stream and send the request headers, the request has no body. It waits while the server's
+	 * limit of concurrent streams is reached, and only one stream is sent before the limit is known.
+	 * @param headers The request headers, including the pseudo headers.
+	 * @param readTimeout The timeout of each read of the stream in milliseconds.
+	 * @return The stream.
+	 * @throws IOException The connection was closed.
+	 * @throws InterruptedIOException Interrupted while waiting for a stream.
+	 */
+	Http2Stream newStream(List<String []> headers, int readTimeout) throws IOException {
+		synchronized (this) {
+			try {
+				while (!mShutdown && mStreams.size() + mPendingStreams >= mMaxConcurrentStreams) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for a stream of " + mOrigin);
+			}
+			checkShutdown();
+			mPendingStreams++;
+			mIdleSince = 0;
+		}
+		Http2Stream stream = null;
+		try {
+			// The stream ids must be sent in order, so the id is taken with the lock of writing.
+			synchronized (mOut) {
+				synchronized (this) {
+					checkShutdown();
+					stream = new Http2Stream(this, mNextStreamId, mStreamWindowSize, readTimeout);
+					mStreams.put(mNextStreamId, stream);
+					mNextStreamId += 2;
+					if (mNextStreamId < 0 || mNextStreamId > MAX_STREAM_ID - 2) {
+						mShutdown = true; // Use a new connection for the next streams.
+					}
+				}
+				try {
+					byte [] block = mHpackWriter.encode(headers);
+					int length = Math.min(block.length, mPeerMaxFrameSize);
+					writeFrame(TYPE_HEADERS, FLAG_END_STREAM | (length == block.length ? FLAG_END_HEADERS : 0),
+							stream.getId(), block, 0, length);
+					for (int offset = length; offset < block.length; offset += length) {
+						length = Math.min(block.length - offset, mPeerMaxFrameSize);
+						writeFrame(TYPE_CONTINUATION, offset + length == block.length ? FLAG_END_HEADERS : 0,
+								stream.getId(), block, offset, length);
+					}
+					mOut.flush();
+				} catch (IOException e) {
+					shutdown(e);
+					throw e;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				mPendingStreams--;
+				notifyAll();
+			}
+		}
+		return stream;
+	}
+
+	private void checkShutdown() throws IOException {
+		if (null != mError) {
+			throw new IOException("Connection to " + mOrigin + " closed", mError);
+		}
+		if (mShutdown) {
+			throw new IOException("Connection to " + mOrigin + " is shut down");
+		}
+	}
+
+	/**
+	 * Reset the stream which is not ended by the server, the data received after is dropped.
+	 * @param stream
+	 */
+	void resetStream(Http2Stream stream) {
+		byte [] payload = new byte[4];
+		putInt(payload, 0, ERROR_CANCEL);
+		try {
+			// The stream is removed after RST_STREAM is written, else a new stream waiting for its slot
+			// could be sent first and exceed the server's limit of concurrent streams.
+			synchronized (mOut) {
+				synchronized (this) {
+					if (!mStreams.containsKey(stream.getId())) {
+						return;
+					}
+				}
+				writeFrame(TYPE_RST_STREAM, 0, stream.getId(), payload, 0, payload.length);
+				mOut.flush();
+			}
+		} catch (IOException e) {
+			shutdown(e);
+		} finally {
+			removeStream(stream.getId());
+		}
+	}
+
+	/**
+	 * Give back the window of the data read from a stream.
+	 * @param stream
+	 * @param increment The size of data read.
+	 */
+	void updateWindow(Http2Stream stream, int increment) {
+		synchronized (this) {
+			if (!mStreams.containsKey(stream.getId())) {
+				return; // The server ended the stream, no more data comes.
+			}
+		}
+		try {
+			synchronized (mOut) {
+				writeWindowUpdateFrame(stream.getId(), increment);
+				mOut.flush();
+			}
+		} catch (IOException e) {
+			shutdown(e);
+		}
+	}
+
+	/**
+	 * Close the connection if it has no streams for the time.
+	 * @param idleTimeout The idle time in milliseconds.
+	 * @return true if the connection is closed.
+	 */
+	boolean closeIfIdle(long idleTimeout) {
+		synchronized (this) {
+			if (!mStreams.isEmpty() || mPendingStreams > 0 || System.currentTimeMillis() - mIdleSince < idleTimeout) {
+				return false;
+			}
+			mShutdown = true;
+		}
+		goAway();
+		shutdown(null);
+		return true;
+	}
+
+	/**
+	 * Close the connection at once, the streams fail.
+	 */
+	void close() {
+		goAway();
+		shutdown(null);
+	}
+
+	private void goAway() {
+		byte [] payload = new byte[8];
+		putInt(payload, 0, 0); // The server has opened no streams.
+		putInt(payload, 4, ERROR_NO_ERROR);
+		try {
+			synchronized (mOut) {
+				writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+				mOut.flush();
+			}
+		} catch (IOException e) {
+			// The connection is closed anyway.
+		}
+	}
+
+	/**
+	 * Close the socket and fail the open streams.
+	 * @param error The error, null if closed by this side.
+	 */
+	private void shutdown(IOException error) {
+		List<Http2Stream> streams;
+		synchronized (this) {
+			if (null == mError) {
+				mError = null == error ? new IOException("Connection to " + mOrigin + " closed") : error;
+			}
+			error = mError;
+			mShutdown = true;
+			streams = new ArrayList<Http2Stream>(mStreams.values());
+			mStreams.clear();
+			notifyAll();
+		}
+		for (Http2Stream stream : streams) {
+			stream.receiveError(error);
+		}
+		try {
+			mSocket.close();
+		} catch (IOException e) {
+			// Nothing to do.
+		}
+	}
+
+	private boolean removeStream(int id) {
+		boolean close;
+		synchronized (this) {
+			if (null == mStreams.remove(id)) {
+				return false;
+			}
+			notifyAll();
+			if (!mStreams.isEmpty() || mPendingStreams > 0) {
+				return true;
+			}
+			mIdleSince = System.currentTimeMillis();
+			// The streams before GOAWAY are all done.
+			close = mShutdown;
+		}
+		if (close) {
+			shutdown(null);
+		}
+		return true;
+	}
+
+	private synchronized Http2Stream getStream(int id) {
+		return mStreams.get(id);
+	}
+
+	@Override
+	public void run() {
+		IOException error;
+		try {
+			while (true) {
+				readFrame();
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+		synchronized (this) {
+			if (mShutdown && mStreams.isEmpty()) {
+				error = null; // Closed by this side.
+			}
+		}
+		if (null != error && !(error instanceof EOFException)) {
+			DownloadLog.w(TAG, "HTTP/2 connection to " + mOrigin + " failed: " + error);
+		}
+		shutdown(error);
+	}
+
+	private void readFrame() throws IOException {
+		int length = readLength();
+		int type = mIn.readUnsignedByte();
+		int flags = mIn.readUnsignedByte();
+		int streamId = mIn.readInt() & MAX_STREAM_ID;
+		byte [] payload = new byte[length];
+		mIn.readFully(payload);
+		switch (type) {
+			case TYPE_DATA:
+				readData(streamId, flags, payload);
+				break;
+			case TYPE_HEADERS:
+				readHeaders(streamId, flags, payload);
+				break;
+			case TYPE_RST_STREAM:
+				Http2Stream stream = getStream(streamId);
+				if (null != stream && payload.length == 4) {
+					removeStream(streamId);
+					stream.receiveError(new IOException("Stream " + streamId + " reset by server, error " + getInt(payload, 0)));
+				}
+				break;
+			case TYPE_SETTINGS:
+				if ((flags & FLAG_ACK) == 0) {
+					readSettings(payload);
+				}
+				break;
+			case TYPE_PUSH_PROMISE:
+				throw new IOException("PUSH_PROMISE received while push is disabled");
+			case TYPE_PING:
+				if ((flags & FLAG_ACK) == 0) {
+					synchronized (mOut) {
+						writeFrame(TYPE_PING, FLAG_ACK, 0, payload, 0, payload.length);
+						mOut.flush();
+					}
+				}
+				break;
+			case TYPE_GOAWAY:
+				readGoAway(payload);
+				break;
+			case TYPE_CONTINUATION:
+				throw new IOException("CONTINUATION without HEADERS");
+			default:
+				// PRIORITY, WINDOW_UPDATE (no data is sent) and the unknown frames are ignored.
+				break;
+		}
+	}
+
+	private int readLength() throws IOException {
+		int length = (mIn.readUnsignedByte() << 16) | (mIn.readUnsignedByte() << 8) | mIn.readUnsignedByte();
+		if (length > MAX_FRAME_SIZE) {
+			throw new IOException("Frame size " + length + " exceeds " + MAX_FRAME_SIZE);
+		}
+		return length;
+	}
+
+	private void readData(int streamId, int flags, byte [] payload) throws IOException {
+		int padding = getPadding(flags, payload, 0);
+		int offset = (flags & FLAG_PADDED) != 0 ? 1 : 0;
+		// The padding counts in the flow control too.
+		mUnackedSize += payload.length;
+		if (mUnackedSize >= mConnectionWindowSize / 2) {
+			synchronized (mOut) {
+				writeWindowUpdateFrame(0, mUnackedSize);
+				mOut.flush();
+			}
+			mUnackedSize = 0;
+		}
+		Http2Stream stream = getStream(streamId);
+		if (null == stream) {
+			return; // Reset by this side.
+		}
+		boolean end = (flags & FLAG_END_STREAM) != 0;
+		int length = payload.length - offset - padding;
+		stream.receiveData(payload, offset, length, payload.length - length);
+		if (end) {
+			removeStream(streamId);
+			stream.receiveEnd();
+		}
+	}
+
+	private void readHeaders(int streamId, int flags, byte [] payload) throws IOException {
+		int padding = getPadding(flags, payload, 0);
+		int offset = ((flags & FLAG_PADDED) != 0 ? 1 : 0) + ((flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+		if (offset + padding > payload.length) {
+			throw new IOException("Invalid HEADERS frame");
+		}
+		byte [] block = new byte[payload.length - padding - offset];
+		System.arraycopy(payload, offset, block, 0, block.length);
+		int continuation = flags;
+		while ((continuation & FLAG_END_HEADERS) == 0) {
+			int length = readLength();
+			int type = mIn.readUnsignedByte();
+			continuation = mIn.readUnsignedByte();
+			if (type != TYPE_CONTINUATION || (mIn.readInt() & MAX_STREAM_ID) != streamId) {
+				throw new IOException("Expected CONTINUATION of stream " + streamId);
+			}
+			byte [] joined = new byte[block.length + length];
+			System.arraycopy(block, 0, joined, 0, block.length);
+			mIn.readFully(joined, block.length, length);
+			block = joined;
+		}
+		// The block is decoded even if the stream is reset, to keep the table in sync.
+		List<String []> headers = mHpackReader.decode(block, 0, block.length);
+		Http2Stream stream = getStream(streamId);
+		if (null == stream) {
+			return;
+		}
+		stream.receiveHeaders(headers);
+		if ((flags & FLAG_END_STREAM) != 0) {
+			removeStream(streamId);
+			stream.receiveEnd();
+		}
+	}
+
+	private void readSettings(byte [] payload) throws IOException {
+		if (payload.length % 6 != 0) {
+			throw new IOException("Invalid SETTINGS frame");
+		}
+		for (int i = 0; i < payload.length; i += 6) {
+			int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+			int value = getInt(payload, i + 2);
+			if (SETTINGS_MAX_CONCURRENT_STREAMS == id) {
+				synchronized (this) {
+					mPeerMaxConcurrentStreams = value;
+				}
+			} else if (SETTINGS_MAX_FRAME_SIZE == id) {
+				mPeerMaxFrameSize = value;
+			}
+		}
+		synchronized (this) {
+			mMaxConcurrentStreams = mPeerMaxConcurrentStreams;
+			notifyAll();
+		}
+		synchronized (mOut) {
+			writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+			mOut.flush();
+		}
+	}
+
+	private void readGoAway(byte [] payload) throws IOException {
+		if (payload.length < 8) {
+			throw new IOException("Invalid GOAWAY frame");
+		}
+		int lastStreamId = getInt(payload, 0) & MAX_STREAM_ID;
+		List<Http2Stream> refused = new ArrayList<Http2Stream>();
+		synchronized (this) {
+			mShutdown = true;
+			for (Iterator<Http2Stream> iterator = mStreams.values().iterator(); iterator.hasNext(); ) {
+				Http2Stream stream = iterator.next();
+				if (stream.getId() > lastStreamId) {
+					iterator.remove();
+					refused.add(stream);
+				}
+			}
+			notifyAll();
+		}
+		DownloadLog.i(TAG, "HTTP/2 connection to " + mOrigin + " goes away, error " + getInt(payload, 4));
+		for (Http2Stream stream : refused) {
+			stream.receiveError(new IOException("Stream " + stream.getId() + " refused by GOAWAY"));
+		}
+		synchronized (this) {
+			if (!mStreams.isEmpty()) {
+				return;
+			}
+		}
+		shutdown(null);
+	}
+
+	private int getPadding(int flags, byte [] payload, int offset) throws IOException {
+		if ((flags & FLAG_PADDED) == 0) {
+			return 0;
+		}
+		if (payload.length <= offset) {
+			throw new IOException("Invalid padded frame");
+		}
+		int padding = payload[offset] & 0xff;
+		if (padding >= payload.length) {
+			throw new IOException("Invalid padding " + padding);
+		}
+		return padding;
+	}
+
+	private void writeWindowUpdateFrame(int streamId, int increment) throws IOException {
+		byte [] payload = new byte[4];
+		putInt(payload, 0, increment);
+		writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+	}
+
+	/**
+	 * Write a frame, the caller holds the lock of mOut and flushes it.
+	 */
+	private void writeFrame(int type, int flags, int streamId, byte [] payload, int offset, int length) throws IOException {
+		mOut.write(length >>> 16);
+		mOut.write(length >>> 8);
+		mOut.write(length);
+		mOut.write(type);
+		mOut.write(flags);
+		mOut.write(streamId >>> 24);
+		mOut.write(streamId >>> 16);
+		mOut.write(streamId >>> 8);
+		mOut.write(streamId);
+		mOut.write(payload, offset, length);
+	}
+
+	private static void putSetting(byte [] buffer, int offset, int id, int value) {
+		buffer[offset] = (byte) (id >>> 8);
+		buffer[offset + 1] = (byte) id;
+		putInt(buffer, offset + 2, value);
+	}
+
+	private static void putInt(byte [] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private static int getInt(byte [] buffer, int offset) {
+		return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+				| ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Usage A request stream of {@link Http2Connection}. The reader thread of the connection queues the
+ * response, and the thread of the request reads it. The window of the stream is given back after
+ * half of it is read.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class Http2Stream {
+
+	private final Http2Connection mConnection;
+	private final int mId;
+	private final int mWindowSize;
+	private final int mReadTimeout;
+
+	private final LinkedList<ByteBuffer> mData = new LinkedList<ByteBuffer>(); // Guarded by this.
+	private List<String []> mHeaders; // Guarded by this.
+	private boolean mEnd = false; // The server ended the stream, guarded by this.
+	private IOException mError; // Guarded by this.
+	private int mUnackedSize = 0; // The data read and not given back to the window, guarded by this.
+
+	Http2Stream(Http2Connection connection, int id, int windowSize, int readTimeout) {
+		this.mConnection = connection;
+		this.mId = id;
+		this.mWindowSize = windowSize;
+		this.mReadTimeout = readTimeout;
+	}
+
+	int getId() {
+		return mId;
+	}
+
+	/**
+	 * Called by the reader thread with the response headers, the informational responses are skipped.
+	 * @param headers
+	 */
+	synchronized void receiveHeaders(List<String []> headers) {
+		if (null == mHeaders && !getHeader(headers, ":status", "").startsWith("1")) {
+			mHeaders = headers;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Called by the reader thread with the data of a DATA frame.
+	 * @param payload The payload of the frame, it is kept without copying.
+	 * @param offset The offset of the data in the payload.
+	 * @param length The length of the data.
+	 * @param padding The size of padding, given back with the data read.
+	 */
+	void receiveData(byte [] payload, int offset, int length, int padding) {
+		int increment = 0;
+		synchronized (this) {
+			if (length > 0 && null == mError) {
+				mData.addLast(ByteBuffer.wrap(payload, offset, length));
+				notifyAll();
+			}
+			mUnackedSize += padding;
+			if (mUnackedSize >= mWindowSize / 2) {
+				increment = mUnackedSize;
+				mUnackedSize = 0;
+			}
+		}
+		if (increment > 0) {
+			mConnection.updateWindow(this, increment);
+		}
+	}
+
+	/**
+	 * Called by the reader thread when the server ended the stream.
+	 */
+	synchronized void receiveEnd() {
+		mEnd = true;
+		notifyAll();
+	}
+
+	/**
+	 * Called when the stream is reset or the connection is closed.
+	 * @param error
+	 */
+	synchronized void receiveError(IOException error) {
+		if (null == mError && !mEnd) {
+			mError = error;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Get the status code of the response, wait for the response headers.
+	 * @return The status code.
+	 * @throws IOException
+	 */
+	int getStatus() throws IOException {
+		String status;
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + mReadTimeout;
+			while (null == mHeaders) {
+				checkError();
+				if (mEnd) {
+					throw new IOException("Stream " + mId + " ended without response headers");
+				}
+				await(deadline);
+			}
+			status = getHeader(mHeaders, ":status", null);
+		}
+		try {
+			return Integer.parseInt(status);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid status of stream " + mId + ": " + status);
+		}
+	}
+
+	/**
+	 * Get a header of the response, wait for the response headers.
+	 * @param name The name of the header in lower case.
+	 * @return The value of the header, null if the response has no such header.
+	 * @throws IOException
+	 */
+	String getHeader(String name) throws IOException {
+		getStatus();
+		synchronized (this) {
+			return getHeader(mHeaders, name, null);
+		}
+	}
+
+	/**
+	 * Get the response body.
+	 */
+	InputStream getInputStream() {
+		return new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				byte [] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte [] buffer, int offset, int length) throws IOException {
+				return Http2Stream.this.read(buffer, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				cancel();
+			}
+		};
+	}
+
+	private int read(byte [] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		int read = 0;
+		int increment = 0;
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + mReadTimeout;
+			while (mData.isEmpty()) {
+				checkError();
+				if (mEnd) {
+					return -1;
+				}
+				await(deadline);
+			}
+			while (read < length && !mData.isEmpty()) {
+				ByteBuffer data = mData.getFirst();
+				int size = Math.min(length - read, data.remaining());
+				data.get(buffer, offset + read, size);
+				read += size;
+				if (!data.hasRemaining()) {
+					mData.removeFirst();
+				}
+			}
+			mUnackedSize += read;
+			if (mUnackedSize >= mWindowSize / 2 && !mEnd) {
+				increment = mUnackedSize;
+				mUnackedSize = 0;
+			}
+		}
+		if (increment > 0) {
+			mConnection.updateWindow(this, increment);
+		}
+		return read;
+	}
+
+	/**
+	 * Cancel the stream, the blocked reads fail and the stream is reset if the server has not ended it.
+	 */
+	void cancel() {
+		synchronized (this) {
+			mData.clear();
+			if (null == mError) {
+				mError = new IOException("Stream " + mId + " cancelled");
+			}
+			notifyAll();
+		}
+		mConnection.resetStream(this);
+	}
+
+	private void checkError() throws IOException {
+		if (null != mError) {
+			throw new IOException(mError.getMessage(), mError);
+		}
+	}
+
+	private void await(long deadline) throws IOException {
+		long timeout = deadline - System.currentTimeMillis();
+		if (mReadTimeout > 0 && timeout <= 0) {
+			throw new SocketTimeoutException("Read timed out of stream " + mId);
+		}
+		try {
+			wait(mReadTimeout > 0 ? timeout : 0);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while reading stream " + mId);
+		}
+	}
+
+	private static String getHeader(List<String []> headers, String name, String defaultValue) {
+		for (String [] header : headers) {
+			if (header[0].equals(name)) {
+				return header[1];
+			}
+		}
+		return defaultValue;
+	}
+}
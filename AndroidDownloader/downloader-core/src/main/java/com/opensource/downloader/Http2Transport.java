@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Usage The transport of HTTP/2 over cleartext connections with prior knowledge (h2c). The range requests
+ * of all the download threads to the same origin run as streams on one connection, so they share one
+ * TCP handshake and one congestion window. Share one instance between the downloaders, such as the
+ * downloads of a {@link BatchDownloader}, to share the connections between them too.<br><br>
+ *
+ * The server must accept HTTP/2 without upgrade on the http port. The https urls go to
+ * {@link UrlConnectionTransport}, as the protocol of TLS can't be negotiated (ALPN) on the platforms
+ * the downloader supports.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class Http2Transport implements HttpTransport {
+
+	private static final String TAG = "DOWNLOADER";
+
+	/** The default window of each stream, how much of a response is sent before it is read. */
+	public static final int DEFAULT_STREAM_WINDOW_SIZE = 1024 * 1024;
+	/** The default window of each connection. */
+	public static final int DEFAULT_CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+	/** The default time to keep a connection without streams. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000;
+
+	// The headers of HTTP/1.1 connections, they are not allowed in HTTP/2.
+	private static final String [] CONNECTION_HEADERS = {"connection", "keep-alive", "proxy-connection",
+			"transfer-encoding", "upgrade", "host"};
+
+	private final HttpTransport mFallback = new UrlConnectionTransport();
+	private final Map<String, Http2Connection> mConnections = new HashMap<String, Http2Connection>(); // Guarded by this.
+	private final Set<String> mOpening = new HashSet<String>(); // The origins of the connections being opened, guarded by this.
+	private boolean mSweeping = false; // Guarded by this.
+	private int mStreamWindowSize = DEFAULT_STREAM_WINDOW_SIZE;
+	private int mConnectionWindowSize = DEFAULT_CONNECTION_WINDOW_SIZE;
+	private long mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	/**
+	 * Set the flow control window of each stream, 1MB by default. A larger window keeps more data in flight
+	 * on a connection with high latency, the data received and not read is buffered up to the window.
+	 * It applies to the connections opened after.
+	 * @param size The size in bytes, 65535 to 2^31-1.
+	 */
+	public synchronized void setStreamWindowSize(int size) {
+		if (size < Http2Connection.DEFAULT_WINDOW_SIZE) {
+			throw new IllegalArgumentException("Stream window size must be at least " + Http2Connection.DEFAULT_WINDOW_SIZE);
+		}
+		this.mStreamWindowSize = size;
+	}
+
+	/**
+	 * Set the flow control window of each connection, 16MB by default. It applies to the connections opened after.
+	 * @param size The size in bytes, 65535 to 2^31-1.
+	 */
+	public synchronized void setConnectionWindowSize(int size) {
+		if (size < Http2Connection.DEFAULT_WINDOW_SIZE) {
+			throw new IllegalArgumentException("Connection window size must be at least " + Http2Connection.DEFAULT_WINDOW_SIZE);
+		}
+		this.mConnectionWindowSize = size;
+	}
+
+	/**
+	 * Set the time to keep a connection without streams, 60 seconds by default.
+	 * @param idleTimeout The time in milliseconds.
+	 */
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		this.mIdleTimeout = idleTimeout;
+	}
+
+	@Override
+	public Exchange newExchange(URL url) throws IOException {
+		if (!"http".equalsIgnoreCase(url.getProtocol())) {
+			return mFallback.newExchange(url);
+		}
+		return new Http2Exchange(url);
+	}
+
+	/**
+	 * Close all the connections, the streams on them fail.
+	 */
+	public void close() {
+		List<Http2Connection> connections;
+		synchronized (this) {
+			connections = new ArrayList<Http2Connection>(mConnections.values());
+			mConnections.clear();
+		}
+		for (Http2Connection connection : connections) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Get the connection to the origin, open one if there is no usable connection. The connection is
+	 * opened out of the lock, so a slow origin doesn't hold up the exchanges to the others, and the
+	 * exchanges to the same origin wait for it meanwhile.
+	 */
+	private Http2Connection getConnection(String host, int port, int connectTimeout) throws IOException {
+		String origin = host.toLowerCase(Locale.US) + ":" + port;
+		int streamWindowSize;
+		int connectionWindowSize;
+		synchronized (this) {
+			while (true) {
+				Http2Connection connection = mConnections.get(origin);
+				if (null != connection && connection.isUsable()) {
+					return connection;
+				}
+				if (!mOpening.contains(origin)) {
+					break;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted when waiting for the connection to " + origin);
+				}
+			}
+			mOpening.add(origin);
+			streamWindowSize = mStreamWindowSize;
+			connectionWindowSize = mConnectionWindowSize;
+		}
+		Http2Connection connection = null;
+		try {
+			connection = Http2Connection.open(host, port, connectTimeout, streamWindowSize, connectionWindowSize);
+			DownloadLog.i(TAG, "Opened HTTP/2 connection to " + origin);
+			return connection;
+		} finally {
+			synchronized (this) {
+				mOpening.remove(origin);
+				if (null != connection) {
+					mConnections.put(origin, connection);
+					scheduleSweep();
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	private void scheduleSweep() {
+		if (mSweeping) {
+			return;
+		}
+		mSweeping = true;
+		DownloadScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, mIdleTimeout);
+	}
+
+	/**
+	 * Close the connections idle for the timeout, run on the ticker thread while there are connections.
+	 */
+	private void sweep() {
+		synchronized (this) {
+			mSweeping = false;
+			for (Iterator<Http2Connection> iterator = mConnections.values().iterator(); iterator.hasNext(); ) {
+				Http2Connection connection = iterator.next();
+				if (!connection.isUsable()) {
+					iterator.remove();
+				} else if (connection.closeIfIdle(mIdleTimeout)) {
+					iterator.remove();
+					DownloadLog.i(TAG, "Closed idle HTTP/2 connection");
+				}
+			}
+			if (!mConnections.isEmpty()) {
+				scheduleSweep();
+			}
+		}
+	}
+
+	private class Http2Exchange implements Exchange {
+
+		private final URL mUrl;
+		private final Map<String, String> mProperties = new LinkedHashMap<String, String>();
+		private volatile Http2Stream mStream;
+		private volatile boolean mCancelled = false;
+
+		Http2Exchange(URL url) {
+			this.mUrl = url;
+		}
+
+		@Override
+		public void setRequestProperty(String name, String value) {
+			mProperties.put(name.toLowerCase(Locale.US), value);
+		}
+
+		@Override
+		public void connect(int connectTimeout, int readTimeout) throws IOException {
+			if (mCancelled) {
+				throw new IOException("Cancelled before connected");
+			}
+			int port = -1 == mUrl.getPort() ? mUrl.getDefaultPort() : mUrl.getPort();
+			String path = mUrl.getFile();
+			List<String []> headers = new ArrayList<String []>();
+			headers.add(new String [] {":method", "GET"});
+			headers.add(new String [] {":scheme", "http"});
+			// The Host header names the authority if the url is of an address, see MultiAddressTransport.
+			String authority = mProperties.get("host");
+			if (null == authority) {
+				authority = -1 == mUrl.getPort() ? mUrl.getHost() : mUrl.getHost() + ":" + port;
+			}
+			headers.add(new String [] {":authority", authority});
+			headers.add(new String [] {":path", path.length() == 0 ? "/" : path});
+			for (Map.Entry<String, String> property : mProperties.entrySet()) {
+				if (!isConnectionHeader(property.getKey())) {
+					headers.add(new String [] {property.getKey(), property.getValue()});
+				}
+			}
+			Http2Stream stream = getConnection(mUrl.getHost(), port, connectTimeout).newStream(headers, readTimeout);
+			mStream = stream;
+			if (mCancelled) {
+				stream.cancel();
+			}
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			return getStream().getStatus();
+		}
+
+		@Override
+		public String getHeaderField(String name) throws IOException {
+			return getStream().getHeader(name.toLowerCase(Locale.US));
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			int code = getResponseCode();
+			if (code >= 400) {
+				getStream().cancel();
+				throw new IOException("Server returned HTTP response code: " + code + " for URL: " + mUrl);
+			}
+			return getStream().getInputStream();
+		}
+
+		@Override
+		public void cancel() {
+			mCancelled = true;
+			Http2Stream stream = mStream;
+			if (null != stream) {
+				stream.cancel();
+			}
+		}
+
+		private Http2Stream getStream() throws IOException {
+			Http2Stream stream = mStream;
+			if (null == stream) {
+				throw new IOException("Not connected");
+			}
+			return stream;
+		}
+
+		private boolean isConnectionHeader(String name) {
+			for (String header : CONNECTION_HEADERS) {
+				if (header.equals(name)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
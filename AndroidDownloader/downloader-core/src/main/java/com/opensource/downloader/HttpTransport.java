@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Usage The transport of the range requests of the download threads,
+ * see {@link Downloader#setTransport(HttpTransport)}.<br><br>
+ *
+ * An exchange is used like a {@link java.net.HttpURLConnection}: the request headers are set,
+ * then it is connected and the response is read. It may be cancelled from another thread at any time.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface HttpTransport {
+
+	/**
+	 * Create an exchange of a GET request of the url, it is not sent until connected.
+	 * @param url The url to request.
+	 * @return The exchange.
+	 * @throws IOException The url is not supported.
+	 */
+	public Exchange newExchange(URL url) throws IOException;
+
+	/**
+	 * Usage One request and its response.
+	 * @author yinglovezhuzhu@gmail.com
+	 *
+	 */
+	public interface Exchange {
+
+		/**
+		 * Set a header of the request, it must be called before connected.
+		 * @param name The name of the header.
+		 * @param value The value of the header.
+		 */
+		public void setRequestProperty(String name, String value);
+
+		/**
+		 * Send the request.
+		 * @param connectTimeout The timeout to connect in milliseconds.
+		 * @param readTimeout The timeout of each read of the response in milliseconds.
+		 * @throws IOException
+		 */
+		public void connect(int connectTimeout, int readTimeout) throws IOException;
+
+		/**
+		 * Get the status code of the response, it blocks until the response headers are received.
+		 * @throws IOException
+		 */
+		public int getResponseCode() throws IOException;
+
+		/**
+		 * Get a header of the response, it blocks until the response headers are received.
+		 * @param name The name of the header.
+		 * @return The value of the header, null if the response has no such header.
+		 * @throws IOException
+		 */
+		public String getHeaderField(String name) throws IOException;
+
+		/**
+		 * Get the body of the response.
+		 * @throws IOException The response failed or its status is an error.
+		 */
+		public InputStream getInputStream() throws IOException;
+
+		/**
+		 * Abort the exchange, the reads blocked fail at once.
+		 */
+		public void cancel();
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Usage Write the block of a download thread through memory mapped windows of the file.
+ * Only one window is mapped at a time, and it is forced and released as soon as it is filled,
+ * so the resident memory stays bounded for any file size.<br>
+ * The windows are unmapped by sun.misc.Unsafe.invokeCleaner on Java 9 and later, and by the cleaner
+ * of the buffer before. Where neither is available the released windows stay mapped until they are
+ * collected, so keep the window size small on such runtimes.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class MappedSegmentWriter {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final Object sUnsafe; // The sun.misc.Unsafe of Java 9 and later, null if not available.
+	private static final Method sInvokeCleaner;
+	private static boolean sUnmapFailed = false; // Logged once, guarded by the class.
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+		} catch (Throwable t) {
+			// Before Java 9 or not on the JDK, the cleaner of the buffer is used.
+			invokeCleaner = null;
+		}
+		sUnsafe = unsafe;
+		sInvokeCleaner = invokeCleaner;
+	}
+
+	private final FileChannel mChannel;
+	private final long mEnd;
+	private final int mWindowSize;
+
+	private long mWindowStart;
+	private MappedByteBuffer mWindow;
+
+	/**
+	 * Constructor
+	 * @param channel The channel of the file, opened for read and write.
+	 * @param start The position to start to write.
+	 * @param end The position after the last byte to write.
+	 * @param windowSize The size of each mapped window.
+	 */
+	MappedSegmentWriter(FileChannel channel, long start, long end, int windowSize) {
+		this.mChannel = channel;
+		this.mWindowStart = start;
+		this.mEnd = end;
+		this.mWindowSize = windowSize;
+	}
+
+	/**
+	 * Read from the channel into the current window, map the next window if the current one is full.
+	 * @param in The channel to read.
+	 * @param max The max bytes to read.
+	 * @return The bytes read, -1 if the channel or the block reaches the end.
+	 * @throws IOException
+	 */
+	int transferFrom(ReadableByteChannel in, int max) throws IOException {
+		if (null != mWindow && !mWindow.hasRemaining()) {
+			// Force the filled window before it is released, the data of it may not be checkpointed yet.
+			mWindow.force();
+			mWindowStart += mWindow.capacity();
+			release();
+		}
+		if (null == mWindow) {
+			if (mWindowStart >= mEnd) {
+				return -1;
+			}
+			long size = Math.min(mWindowSize, mEnd - mWindowStart);
+			mWindow = mChannel.map(FileChannel.MapMode.READ_WRITE, mWindowStart, size);
+		}
+		if (max <= 0) {
+			return -1;
+		}
+		int limit = mWindow.limit();
+		mWindow.limit(Math.min(limit, mWindow.position() + max));
+		try {
+			return in.read(mWindow);
+		} finally {
+			mWindow.limit(limit);
+		}
+	}
+
+	/**
+	 * Get the position in file to write next.
+	 */
+	long getPosition() {
+		return null == mWindow ? mWindowStart : mWindowStart + mWindow.position();
+	}
+
+	/**
+	 * Get the bytes can be written to the current window, or the next window if it is full.
+	 */
+	int getWindowRemaining() {
+		if (null != mWindow && mWindow.hasRemaining()) {
+			return mWindow.remaining();
+		}
+		long next = null == mWindow ? mWindowStart : mWindowStart + mWindow.capacity();
+		return (int) Math.min(mWindowSize, mEnd - next);
+	}
+
+	/**
+	 * Force the data in the current window to file.
+	 */
+	void force() {
+		if (null != mWindow) {
+			mWindow.force();
+		}
+	}
+
+	/**
+	 * Force and release the current window.
+	 */
+	void close() {
+		force();
+		release();
+	}
+
+	private void release() {
+		MappedByteBuffer window = mWindow;
+		mWindow = null;
+		if (null != window) {
+			unmap(window);
+		}
+	}
+
+	/**
+	 * Unmap the window at once where the runtime allows it, otherwise it is unmapped when collected.
+	 * The window must not be used after.
+	 * @return true if the window is unmapped.
+	 */
+	static boolean unmap(MappedByteBuffer buffer) {
+		try {
+			if (null != sInvokeCleaner) {
+				sInvokeCleaner.invoke(sUnsafe, buffer);
+				return true;
+			}
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (null != cleaner) {
+				Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+				return true;
+			}
+		} catch (Throwable t) {
+			synchronized (MappedSegmentWriter.class) {
+				if (!sUnmapFailed) {
+					sUnmapFailed = true;
+					DownloadLog.w(TAG, "Can't unmap the windows, they are unmapped when collected: " + t);
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Usage The {@link ResumeStore} in memory, a download can be resumed in the same process only.
+ * It is for the tests and the services which don't keep the downloads over a restart.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class MemoryResumeStore implements ResumeStore {
+
+	private final Map<String, Map<Integer, Segment>> mLogs = new LinkedHashMap<String, Map<Integer, Segment>>(); // Guarded by this.
+	private final Map<String, String> mFiles = new HashMap<String, String>(); // Guarded by this.
+	private final Map<String, Set<String>> mBatches = new HashMap<String, Set<String>>(); // Guarded by this.
+
+	@Override
+	public synchronized List<Segment> load(String url) {
+		Map<Integer, Segment> log = mLogs.get(url);
+		return null == log ? new ArrayList<Segment>() : copy(log.values());
+	}
+
+	@Override
+	public synchronized Map<String, List<Segment>> loadAll(Map<String, String> files) {
+		Map<String, List<Segment>> logs = new LinkedHashMap<String, List<Segment>>();
+		for (Map.Entry<String, Map<Integer, Segment>> entry : mLogs.entrySet()) {
+			logs.put(entry.getKey(), copy(entry.getValue().values()));
+			files.put(entry.getKey(), mFiles.get(entry.getKey()));
+		}
+		return logs;
+	}
+
+	@Override
+	public synchronized void save(String url, String file, Collection<Segment> segments) {
+		Map<Integer, Segment> log = new HashMap<Integer, Segment>();
+		for (Segment segment : segments) {
+			log.put(segment.getId(), copy(segment));
+		}
+		mLogs.put(url, log);
+		mFiles.put(url, file);
+	}
+
+	@Override
+	public synchronized void update(String url, String file, Segment segment) {
+		Map<Integer, Segment> log = mLogs.get(url);
+		if (null == log) {
+			log = new HashMap<Integer, Segment>();
+			mLogs.put(url, log);
+		}
+		log.put(segment.getId(), copy(segment));
+		mFiles.put(url, file);
+	}
+
+	@Override
+	public synchronized void delete(String url) {
+		mLogs.remove(url);
+		mFiles.remove(url);
+	}
+
+	@Override
+	public synchronized Set<String> getFinished(String batch) {
+		Set<String> urls = mBatches.get(batch);
+		return null == urls ? new HashSet<String>() : new HashSet<String>(urls);
+	}
+
+	@Override
+	public synchronized void addFinished(String batch, Collection<String> urls) {
+		Set<String> finished = mBatches.get(batch);
+		if (null == finished) {
+			finished = new HashSet<String>();
+			mBatches.put(batch, finished);
+		}
+		finished.addAll(urls);
+	}
+
+	@Override
+	public synchronized void deleteBatch(String batch) {
+		mBatches.remove(batch);
+	}
+
+	/**
+	 * Copy the segments sorted by start position, the segments of a download change while it is running.
+	 */
+	private static List<Segment> copy(Collection<Segment> segments) {
+		List<Segment> copies = new ArrayList<Segment>();
+		for (Segment segment : segments) {
+			copies.add(copy(segment));
+		}
+		Collections.sort(copies, new Comparator<Segment>() {
+			@Override
+			public int compare(Segment lhs, Segment rhs) {
+				return lhs.getStart() < rhs.getStart() ? -1 : (lhs.getStart() == rhs.getStart() ? 0 : 1);
+			}
+		});
+		return copies;
+	}
+
+	private static Segment copy(Segment segment) {
+		return new Segment(segment.getId(), segment.getStart(), segment.getEnd(), segment.getDownloaded());
+	}
+}
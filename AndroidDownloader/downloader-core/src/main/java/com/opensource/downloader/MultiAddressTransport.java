@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Usage The transport which spreads the range requests over all the addresses of the host. The host is
+ * resolved once and its addresses are kept for a time to live, each exchange goes to the address with
+ * the least requests for its throughput, and an address which fails is pulled out for a while. So the
+ * segments of a download from a host with several servers, such as the edges of a CDN, aren't all
+ * held back by one slow server.<br><br>
+ *
+ * The requests are sent by another transport to the address, with the name of the host in the Host header.
+ * The https urls and the urls of addresses go to the other transport as they are, as the certificate
+ * of the server is verified by its name. Share one instance between the downloaders to share the scores
+ * of the addresses too.<br><br>
+ *
+ * The {@link UrlConnectionTransport} of the JVM drops the Host header unless the system property
+ * sun.net.http.allowRestrictedHeaders is true, the requests would go to the virtual host of the address
+ * then. So all the requests go to the host as they are in this case, and a warning is logged.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class MultiAddressTransport implements HttpTransport {
+
+	private static final String TAG = "DOWNLOADER";
+
+	/** The default time to keep the addresses of a host. */
+	public static final long DEFAULT_ADDRESS_TTL = 60 * 1000;
+	/** The default time to pull out an address which failed. */
+	public static final long DEFAULT_FAILURE_TIMEOUT = 30 * 1000;
+
+	// The least bytes of a response to sample the throughput of its address.
+	private static final long MIN_SAMPLE_SIZE = 64 * 1024;
+	// The weight of a new sample in the throughput of an address.
+	private static final double SAMPLE_WEIGHT = 0.3;
+	// The max doublings of the time to pull out an address which keeps failing.
+	private static final int MAX_FAILURE_BACKOFF = 4;
+
+	private final HttpTransport mTransport;
+	private final boolean mSpreading; // The Host header can be set by the transport.
+	private final Map<String, HostAddresses> mHosts = new HashMap<String, HostAddresses>(); // Guarded by this.
+	private long mAddressTtl = DEFAULT_ADDRESS_TTL; // Guarded by this.
+	private long mFailureTimeout = DEFAULT_FAILURE_TIMEOUT; // Guarded by this.
+
+	/**
+	 * Create the transport which sends the requests by {@link UrlConnectionTransport}.
+	 */
+	public MultiAddressTransport() {
+		this(new UrlConnectionTransport());
+	}
+
+	/**
+	 * Create the transport which sends the requests by another transport.
+	 * @param transport The transport to send the requests to the addresses, such as {@link Http2Transport}.
+	 */
+	public MultiAddressTransport(HttpTransport transport) {
+		if (null == transport) {
+			throw new IllegalArgumentException("Transport can not be null");
+		}
+		this.mTransport = transport;
+		mSpreading = !(transport instanceof UrlConnectionTransport) || UrlConnectionTransport.isHostSettable();
+		if (!mSpreading) {
+			DownloadLog.w(TAG, "The Host header can't be set on this runtime, set sun.net.http.allowRestrictedHeaders"
+					+ " to true to spread the requests over the addresses");
+		}
+	}
+
+	/**
+	 * Set the time to keep the addresses of a host before it is resolved again, 60 seconds by default.
+	 * @param ttl The time in milliseconds.
+	 */
+	public synchronized void setAddressTtl(long ttl) {
+		this.mAddressTtl = ttl;
+	}
+
+	/**
+	 * Set the time to pull out an address after a request to it failed, 30 seconds by default.
+	 * It doubles with each failure in a row of the address, up to 16 times.
+	 * If all the addresses of a host failed, the one pulled out earliest is tried.
+	 * @param timeout The time in milliseconds.
+	 */
+	public synchronized void setFailureTimeout(long timeout) {
+		this.mFailureTimeout = timeout;
+	}
+
+	@Override
+	public Exchange newExchange(URL url) throws IOException {
+		String host = url.getHost();
+		if (!mSpreading || !"http".equalsIgnoreCase(url.getProtocol()) || isAddress(host)) {
+			return mTransport.newExchange(url);
+		}
+		AddressState address = pickAddress(host);
+		URL target = new URL(url.getProtocol(), address.mAddress.getHostAddress(), url.getPort(), url.getFile());
+		Exchange exchange;
+		try {
+			exchange = mTransport.newExchange(target);
+		} catch (IOException e) {
+			release(address);
+			throw e;
+		}
+		exchange.setRequestProperty("Host", -1 == url.getPort() ? host : host + ":" + url.getPort());
+		return new AddressExchange(exchange, address);
+	}
+
+	/**
+	 * Resolve all the addresses of the host. Override it to resolve by another resolver,
+	 * such as to give several loopback addresses in tests.
+	 * @param host The name of the host.
+	 * @return The addresses.
+	 * @throws UnknownHostException
+	 */
+	protected InetAddress [] resolve(String host) throws UnknownHostException {
+		return InetAddress.getAllByName(host);
+	}
+
+	private static boolean isAddress(String host) {
+		// The host of an IPv6 address has colons, the host of an IPv4 address has digits and dots only.
+		return host.indexOf(':') >= 0 || host.matches("[0-9.]+");
+	}
+
+	/**
+	 * Pick the address of the host to send a request to, resolve the host if its addresses expired.
+	 */
+	private AddressState pickAddress(String host) throws UnknownHostException {
+		String key = host.toLowerCase(Locale.US);
+		HostAddresses addresses;
+		synchronized (this) {
+			addresses = mHosts.get(key);
+		}
+		if (null == addresses || addresses.mExpires <= System.currentTimeMillis()) {
+			addresses = refresh(key, addresses);
+		}
+		synchronized (this) {
+			return addresses.pick(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Resolve the host again, the states of the addresses still resolved are kept.
+	 * The old addresses are used for another time to live if the host can't be resolved.
+	 */
+	private HostAddresses refresh(String host, HostAddresses old) throws UnknownHostException {
+		InetAddress [] resolved;
+		try {
+			resolved = resolve(host);
+		} catch (UnknownHostException e) {
+			if (null == old) {
+				throw e;
+			}
+			DownloadLog.w(TAG, "Failed to resolve " + host + ", use the addresses resolved before: " + e);
+			resolved = null;
+		}
+		synchronized (this) {
+			HostAddresses addresses = new HostAddresses(System.currentTimeMillis() + mAddressTtl);
+			if (null == resolved || 0 == resolved.length) {
+				addresses.mAddresses.addAll(old.mAddresses);
+			} else {
+				for (InetAddress address : resolved) {
+					AddressState state = null == old ? null : old.find(address);
+					addresses.mAddresses.add(null == state ? new AddressState(address) : state);
+				}
+				DownloadLog.i(TAG, "Resolved " + resolved.length + " addresses of " + host);
+			}
+			mHosts.put(host, addresses);
+			return addresses;
+		}
+	}
+
+	private synchronized void release(AddressState address) {
+		address.mActive--;
+	}
+
+	private synchronized void fail(AddressState address, String reason) {
+		long timeout = mFailureTimeout << Math.min(address.mFailures, MAX_FAILURE_BACKOFF);
+		address.mFailures++;
+		address.mFailedUntil = System.currentTimeMillis() + timeout;
+		DownloadLog.w(TAG, "Request to " + address.mAddress.getHostAddress() + " failed (" + reason
+				+ "), pull it out for " + timeout + "ms");
+	}
+
+	private synchronized void sample(AddressState address, long bytes, long elapsed) {
+		if (bytes < MIN_SAMPLE_SIZE || elapsed <= 0) {
+			return;
+		}
+		double throughput = (double) bytes / elapsed;
+		address.mThroughput = address.mThroughput <= 0 ? throughput
+				: address.mThroughput * (1 - SAMPLE_WEIGHT) + throughput * SAMPLE_WEIGHT;
+		address.mFailures = 0;
+	}
+
+	/**
+	 * Usage The addresses of a host. Guarded by the transport.
+	 * @author yinglovezhuzhu@gmail.com
+	 *
+	 */
+	private static class HostAddresses {
+
+		private final List<AddressState> mAddresses = new ArrayList<AddressState>();
+		private final long mExpires;
+
+		HostAddresses(long expires) {
+			this.mExpires = expires;
+		}
+
+		AddressState find(InetAddress address) {
+			for (AddressState state : mAddresses) {
+				if (state.mAddress.equals(address)) {
+					return state;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Pick the address which would finish its requests first with one more, by the throughput
+		 * measured. An address not measured yet is taken as fast as the fastest, so it is tried soon.
+		 */
+		AddressState pick(long now) {
+			double fastest = 0;
+			for (AddressState state : mAddresses) {
+				if (state.mFailedUntil <= now) {
+					fastest = Math.max(fastest, state.mThroughput);
+				}
+			}
+			AddressState best = null;
+			double bestLoad = 0;
+			for (AddressState state : mAddresses) {
+				if (state.mFailedUntil > now) {
+					continue;
+				}
+				double throughput = state.mThroughput > 0 ? state.mThroughput : fastest > 0 ? fastest : 1;
+				double load = (state.mActive + 1) / throughput;
+				if (null == best || load < bestLoad) {
+					best = state;
+					bestLoad = load;
+				}
+			}
+			if (null == best) {
+				// All the addresses failed, try the one pulled out earliest.
+				for (AddressState state : mAddresses) {
+					if (null == best || state.mFailedUntil < best.mFailedUntil) {
+						best = state;
+					}
+				}
+			}
+			best.mActive++;
+			return best;
+		}
+	}
+
+	/**
+	 * Usage The score of an address. Guarded by the transport.
+	 * @author yinglovezhuzhu@gmail.com
+	 *
+	 */
+	private static class AddressState {
+
+		private final InetAddress mAddress;
+		private double mThroughput = 0; // Bytes per millisecond, 0 if not measured.
+		private int mActive = 0;
+		private int mFailures = 0; // The failures in a row.
+		private long mFailedUntil = 0;
+
+		AddressState(InetAddress address) {
+			this.mAddress = address;
+		}
+	}
+
+	/**
+	 * Usage An exchange with an address, which scores the address by its result.
+	 * @author yinglovezhuzhu@gmail.com
+	 *
+	 */
+	private class AddressExchange implements Exchange {
+
+		private final Exchange mExchange;
+		private final AddressState mAddress;
+		private volatile boolean mCancelled = false;
+		private boolean mReleased = false; // Guarded by this.
+		private boolean mFailed = false; // Guarded by this.
+
+		AddressExchange(Exchange exchange, AddressState address) {
+			this.mExchange = exchange;
+			this.mAddress = address;
+		}
+
+		@Override
+		public void setRequestProperty(String name, String value) {
+			mExchange.setRequestProperty(name, value);
+		}
+
+		@Override
+		public void connect(int connectTimeout, int readTimeout) throws IOException {
+			try {
+				mExchange.connect(connectTimeout, readTimeout);
+			} catch (IOException e) {
+				onFailure(e.toString());
+				throw e;
+			}
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			int code;
+			try {
+				code = mExchange.getResponseCode();
+			} catch (IOException e) {
+				onFailure(e.toString());
+				throw e;
+			}
+			if (code >= 500) {
+				onFailure("HTTP " + code);
+			}
+			return code;
+		}
+
+		@Override
+		public String getHeaderField(String name) throws IOException {
+			try {
+				return mExchange.getHeaderField(name);
+			} catch (IOException e) {
+				onFailure(e.toString());
+				throw e;
+			}
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			try {
+				return new SampledInputStream(mExchange.getInputStream());
+			} catch (IOException e) {
+				onFailure(e.toString());
+				throw e;
+			}
+		}
+
+		@Override
+		public void cancel() {
+			mCancelled = true;
+			mExchange.cancel();
+			release();
+		}
+
+		/**
+		 * Pull out the address unless the exchange is cancelled, then release it.
+		 */
+		void onFailure(String reason) {
+			synchronized (this) {
+				if (mFailed || mCancelled) {
+					reason = null;
+				}
+				mFailed = true;
+			}
+			if (null != reason) {
+				fail(mAddress, reason);
+			}
+			release();
+		}
+
+		void release() {
+			synchronized (this) {
+				if (mReleased) {
+					return;
+				}
+				mReleased = true;
+			}
+			MultiAddressTransport.this.release(mAddress);
+		}
+
+		/**
+		 * Usage The body of the response, which samples the throughput of the address when it ends.
+		 * @author yinglovezhuzhu@gmail.com
+		 *
+		 */
+		private class SampledInputStream extends FilterInputStream {
+
+			private final long mStart = System.currentTimeMillis();
+			private long mBytes = 0;
+			private boolean mSampled = false;
+
+			SampledInputStream(InputStream in) {
+				super(in);
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte [] b = new byte[1];
+				return -1 == read(b, 0, 1) ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read;
+				try {
+					read = super.read(b, off, len);
+				} catch (IOException e) {
+					onFailure(e.toString());
+					throw e;
+				}
+				if (read > 0) {
+					mBytes += read;
+				} else if (-1 == read) {
+					end();
+				}
+				return read;
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					end();
+				}
+			}
+
+			private void end() {
+				if (!mSampled) {
+					mSampled = true;
+					sample(mAddress, mBytes, System.currentTimeMillis() - mStart);
+				}
+				release();
+			}
+		}
+	}
+}
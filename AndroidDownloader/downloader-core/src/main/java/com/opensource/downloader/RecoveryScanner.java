@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Usage Reconcile the download log with the temp files after the app restarts, and build the index of
+ * the downloads which can be resumed.<br><br>
+ *
+ * The log of a url is removed if its temp file is lost or larger than the file, a shorter temp file
+ * moves the segments back to its length. The temp files in the folders which no log refers to are
+ * deleted. The files are checked by a few worker threads in parallel, and the store is read once
+ * and written once, so the scan doesn't block the startup: call {@link #start()} and read the index
+ * later, {@link #getResumableDownloads()} waits only if the scan is not finished.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class RecoveryScanner {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private static final String TEMP_FILE_SUFFIX = ".download";
+	private static final long DEFAULT_ORPHAN_AGE = 60 * 1000;
+	private static final int MAX_PARALLELISM = 4;
+
+	private final ResumeStore mResumeStore;
+	private final Set<File> mFolders = new LinkedHashSet<File>();
+	private long mOrphanAge = DEFAULT_ORPHAN_AGE;
+
+	private CountDownLatch mFinished; // Guarded by this.
+	private volatile Map<String, ResumableDownload> mResumable = Collections.emptyMap();
+	private volatile int mDeletedCount = 0;
+
+	/**
+	 * Constructor
+	 * @param store The storage of the download logs to reconcile.
+	 */
+	public RecoveryScanner(ResumeStore store) {
+		this.mResumeStore = store;
+	}
+
+	/**
+	 * Add a folder to delete the orphaned temp files in, the folders of the files in the log are always scanned.
+	 * @param folder
+	 */
+	public synchronized void addFolder(File folder) {
+		mFolders.add(folder);
+	}
+
+	/**
+	 * Set the age of an orphaned temp file to be deleted, the newer ones may be written
+	 * by a download which doesn't save a log, such as a batch download.
+	 * @param millis
+	 */
+	public void setOrphanAge(long millis) {
+		this.mOrphanAge = millis;
+	}
+
+	/**
+	 * Start the scan on a worker thread and return at once, nothing is done if the scan is started.
+	 */
+	public synchronized void start() {
+		if (null != mFinished) {
+			return;
+		}
+		mFinished = new CountDownLatch(1);
+		final List<File> folders = new ArrayList<File>(mFolders);
+		DownloadScheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan(folders);
+				} catch (RuntimeException e) {
+					DownloadLog.e(TAG, "Recovery scan failed: " + e);
+				} finally {
+					mFinished.countDown();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get the downloads which can be resumed, the scan is started if not, and waited if not finished.
+	 */
+	public List<ResumableDownload> getResumableDownloads() throws InterruptedException {
+		await();
+		return new ArrayList<ResumableDownload>(mResumable.values());
+	}
+
+	/**
+	 * Get the download of the url which can be resumed, null if none.
+	 */
+	public ResumableDownload getResumableDownload(String url) throws InterruptedException {
+		await();
+		return mResumable.get(url);
+	}
+
+	/**
+	 * Get the number of the logs and the temp files deleted.
+	 */
+	public int getDeletedCount() throws InterruptedException {
+		await();
+		return mDeletedCount;
+	}
+
+	private void await() throws InterruptedException {
+		CountDownLatch finished;
+		synchronized (this) {
+			start();
+			finished = mFinished;
+		}
+		finished.await();
+	}
+
+	private void scan(List<File> folders) {
+		long start = System.currentTimeMillis();
+		final Map<String, String> files = new HashMap<String, String>();
+		final Map<String, List<Segment>> logs = mResumeStore.loadAll(files);
+
+		// The checks of the files are independent, run them in parallel.
+		final Map<String, ResumableDownload> resumable = new ConcurrentHashMap<String, ResumableDownload>();
+		// The dropped urls, mapped to whether their temp files are deleted too.
+		final Map<String, Boolean> dropped = new ConcurrentHashMap<String, Boolean>();
+		final Map<String, List<Segment>> changed = new ConcurrentHashMap<String, List<Segment>>();
+		final Set<File> tempFiles = new HashSet<File>();
+		final Set<File> scanFolders = new LinkedHashSet<File>(folders);
+		for (String file : files.values()) {
+			File tempFile = new File(file);
+			tempFiles.add(tempFile);
+			if (null != tempFile.getParentFile()) {
+				scanFolders.add(tempFile.getParentFile());
+			}
+		}
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		for (final Map.Entry<String, List<Segment>> entry : logs.entrySet()) {
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					String url = entry.getKey();
+					List<Segment> segments = entry.getValue();
+					File tempFile = new File(files.get(url));
+					switch (check(url, tempFile, segments)) {
+					case KEEP:
+						break;
+					case CHANGED:
+						changed.put(url, segments);
+						break;
+					case DROP:
+						dropped.put(url, false);
+						return;
+					case DROP_FILE:
+						dropped.put(url, true);
+						return;
+					}
+					long size = segments.get(segments.size() - 1).getEnd();
+					long downloaded = 0;
+					for (Segment segment : segments) {
+						downloaded += segment.getDownloaded();
+					}
+					resumable.put(url, new ResumableDownload(url, getFile(tempFile), size, downloaded));
+				}
+			});
+		}
+		final long orphanTime = start - mOrphanAge;
+		for (final File folder : scanFolders) {
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					deleteOrphans(folder, tempFiles, orphanTime);
+				}
+			});
+		}
+		runParallel(tasks);
+
+		// Write the store once. A download of the url may have started since it was checked, it owns the log
+		// and the temp file then.
+		int deleted = 0;
+		for (final Map.Entry<String, Boolean> entry : dropped.entrySet()) {
+			final String url = entry.getKey();
+			final File tempFile = new File(files.get(url));
+			if (Downloader.runIfInactive(url, tempFile, new Runnable() {
+				@Override
+				public void run() {
+					mResumeStore.delete(url);
+					if (entry.getValue()) {
+						delete(tempFile);
+					}
+				}
+			})) {
+				deleted++;
+			}
+		}
+		for (final Map.Entry<String, List<Segment>> entry : changed.entrySet()) {
+			final String url = entry.getKey();
+			if (!Downloader.runIfInactive(url, new File(files.get(url)), new Runnable() {
+				@Override
+				public void run() {
+					for (Segment segment : entry.getValue()) {
+						mResumeStore.update(url, files.get(url), segment);
+					}
+				}
+			})) {
+				resumable.remove(url);
+			}
+		}
+		Map<String, ResumableDownload> index = new LinkedHashMap<String, ResumableDownload>();
+		for (String url : logs.keySet()) {
+			if (resumable.containsKey(url)) {
+				index.put(url, resumable.get(url));
+			}
+		}
+		mResumable = Collections.unmodifiableMap(index);
+		synchronized (this) {
+			mDeletedCount += deleted;
+		}
+		DownloadLog.i(TAG, "Recovery scan found " + index.size() + " resumable downloads, dropped " + deleted
+				+ " logs, fixed " + changed.size() + " logs in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private enum Result {
+		KEEP, CHANGED, DROP, DROP_FILE,
+	}
+
+	/**
+	 * Check the log of a url against its temp file, nothing is written here.
+	 */
+	private Result check(String url, File tempFile, List<Segment> segments) {
+		if (Downloader.isActive(url, tempFile)) {
+			return Result.KEEP; // The running download owns the log.
+		}
+		long position = 0;
+		for (Segment segment : segments) {
+			if (segment.getStart() != position || segment.getEnd() < segment.getStart()
+					|| segment.getDownloaded() < 0 || segment.getPosition() > segment.getEnd()) {
+				DownloadLog.w(TAG, "The log of " + url + " is broken, drop it");
+				return Result.DROP_FILE;
+			}
+			position = segment.getEnd();
+		}
+		if (!tempFile.isFile()) {
+			DownloadLog.w(TAG, "The temp file of " + url + " is lost, drop the log");
+			return Result.DROP;
+		}
+		long length = tempFile.length();
+		if (length > position) {
+			DownloadLog.w(TAG, "The temp file of " + url + " is larger than the file, drop it");
+			return Result.DROP_FILE;
+		}
+		Result result = Result.KEEP;
+		if (length < position) {
+			// The data beyond the end of the temp file is lost.
+			for (Segment segment : segments) {
+				long saved = Math.max(0, Math.min(segment.getDownloaded(), length - segment.getStart()));
+				if (saved != segment.getDownloaded()) {
+					segment.setDownloaded(saved);
+					result = Result.CHANGED;
+				}
+			}
+		}
+		return result;
+	}
+
+	private void deleteOrphans(File folder, Set<File> tempFiles, long orphanTime) {
+		File [] orphans = folder.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(TEMP_FILE_SUFFIX);
+			}
+		});
+		if (null == orphans) {
+			return;
+		}
+		for (final File file : orphans) {
+			if (tempFiles.contains(file) || file.lastModified() > orphanTime) {
+				continue;
+			}
+			Downloader.runIfInactive(null, file, new Runnable() {
+				@Override
+				public void run() {
+					DownloadLog.i(TAG, "Delete the orphaned temp file " + file);
+					delete(file);
+				}
+			});
+		}
+	}
+
+	private void delete(File file) {
+		if (file.delete()) {
+			synchronized (this) {
+				mDeletedCount++;
+			}
+		}
+	}
+
+	/**
+	 * Run the tasks on a few worker threads and wait for all of them.
+	 */
+	private static void runParallel(final List<Runnable> tasks) {
+		int parallelism = Math.min(tasks.size(), Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+		if (parallelism <= 1) {
+			for (Runnable task : tasks) {
+				task.run();
+			}
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(parallelism);
+		final int [] next = {0};
+		for (int i = 0; i < parallelism; i++) {
+			DownloadScheduler.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							Runnable task;
+							synchronized (next) {
+								if (next[0] >= tasks.size()) {
+									return;
+								}
+								task = tasks.get(next[0]++);
+							}
+							try {
+								task.run();
+							} catch (RuntimeException e) {
+								DownloadLog.e(TAG, "Recovery task failed: " + e);
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the file a temp file is renamed to.
+	 */
+	private static File getFile(File tempFile) {
+		String path = tempFile.getAbsolutePath();
+		if (path.endsWith(TEMP_FILE_SUFFIX)) {
+			path = path.substring(0, path.length() - TEMP_FILE_SUFFIX.length());
+		}
+		return new File(path);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+
+/**
+ * Usage A download which was stopped or interrupted and can be resumed from its download log,
+ * found by {@link RecoveryScanner}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class ResumableDownload {
+
+	private final String mUrl;
+	private final File mFile;
+	private final long mFileSize;
+	private final long mDownloadedSize;
+
+	ResumableDownload(String url, File file, long fileSize, long downloadedSize) {
+		this.mUrl = url;
+		this.mFile = file;
+		this.mFileSize = fileSize;
+		this.mDownloadedSize = downloadedSize;
+	}
+
+	public String getUrl() {
+		return mUrl;
+	}
+
+	/**
+	 * Get the file the download is saved to when it is completed.
+	 */
+	public File getFile() {
+		return mFile;
+	}
+
+	public long getFileSize() {
+		return mFileSize;
+	}
+
+	/**
+	 * Get the size saved in the temp file.
+	 */
+	public long getDownloadedSize() {
+		return mDownloadedSize;
+	}
+
+	@Override
+	public String toString() {
+		return mUrl + " -> " + mFile + " " + mDownloadedSize + "/" + mFileSize;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Usage The storage of the download logs, which keep the segments of the downloads to resume them,
+ * and of the files finished in the batches. The methods may be called by many threads.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface ResumeStore {
+
+	/**
+	 * Get the segments of the url, ordered by start position, empty if none.
+	 */
+	public List<Segment> load(String url);
+
+	/**
+	 * Get the segments of all the urls, the segments of each url are ordered by start position.
+	 * @param files Filled with the temp file of each url.
+	 */
+	public Map<String, List<Segment>> loadAll(Map<String, String> files);
+
+	/**
+	 * Replace the log of the url with the segments.
+	 * @param url The url.
+	 * @param file The temp file the url is downloaded to.
+	 * @param segments The segments.
+	 */
+	public void save(String url, String file, Collection<Segment> segments);
+
+	/**
+	 * Update one segment of the url, add it if not exists.
+	 * @param url The url.
+	 * @param file The temp file the url is downloaded to.
+	 * @param segment The segment.
+	 */
+	public void update(String url, String file, Segment segment);
+
+	/**
+	 * Delete the log of the url.
+	 */
+	public void delete(String url);
+
+	/**
+	 * Get the urls finished in the batch.
+	 */
+	public Set<String> getFinished(String batch);
+
+	/**
+	 * Add the urls finished in the batch.
+	 */
+	public void addFinished(String batch, Collection<String> urls);
+
+	/**
+	 * Delete the log of the batch.
+	 */
+	public void deleteBatch(String batch);
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+/**
+ * Usage A range [start, end) of the file which is downloaded by one connection at a time.
+ * A segment can be split while it is downloading, the tail goes to a new segment and the
+ * end of this segment moves back, so an idle download thread can take over half of the work
+ * of a slow one.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class Segment {
+
+	private final int mId;
+	private final long mStart;
+	private volatile long mEnd;
+	private volatile long mDownloaded;
+
+	private long mReserved; // The position up to which data may have been read, guarded by this.
+	private boolean mAssigned = false; // Guarded by this.
+
+	/**
+	 * Constructor
+	 * @param id The id of the segment.
+	 * @param start The start position in file.
+	 * @param end The position after the last byte.
+	 * @param downloaded The size saved to file from the start position.
+	 */
+	public Segment(int id, long start, long end, long downloaded) {
+		this.mId = id;
+		this.mStart = start;
+		this.mEnd = end;
+		this.mDownloaded = downloaded;
+		this.mReserved = start + downloaded;
+	}
+
+	public int getId() {
+		return mId;
+	}
+
+	public long getStart() {
+		return mStart;
+	}
+
+	public long getEnd() {
+		return mEnd;
+	}
+
+	/**
+	 * Get the size saved to file from the start position.
+	 */
+	public long getDownloaded() {
+		return mDownloaded;
+	}
+
+	/**
+	 * Get the position to resume from.
+	 */
+	public long getPosition() {
+		return mStart + mDownloaded;
+	}
+
+	public long getRemaining() {
+		return mEnd - getPosition();
+	}
+
+	public boolean isComplete() {
+		return getPosition() >= mEnd;
+	}
+
+	/**
+	 * Set the size saved to file, called after the data is saved.
+	 */
+	void setDownloaded(long downloaded) {
+		this.mDownloaded = downloaded;
+	}
+
+	/**
+	 * Claim the data to read at the position, so a split never moves the end before it.
+	 * @param position The position of the data to read.
+	 * @param length The length wanted.
+	 * @return The length can be read, 0 if the position reaches the end.
+	 */
+	synchronized int claim(long position, int length) {
+		long available = mEnd - position;
+		if (available <= 0) {
+			return 0;
+		}
+		int claimed = (int) Math.min(length, available);
+		mReserved = Math.max(mReserved, position + claimed);
+		return claimed;
+	}
+
+	/**
+	 * Split the unread half of this segment into a new segment.
+	 * @param newId The id of the new segment.
+	 * @param minSize The min size of each half.
+	 * @return The new segment, or null if the rest is too small to split.
+	 */
+	synchronized Segment split(int newId, long minSize) {
+		long from = Math.max(mReserved, getPosition());
+		long rest = mEnd - from;
+		if (rest < minSize * 2) {
+			return null;
+		}
+		long middle = from + rest / 2;
+		Segment tail = new Segment(newId, middle, mEnd, 0);
+		mEnd = middle;
+		return tail;
+	}
+
+	/**
+	 * Mark this segment is assigned to a download thread.
+	 * @return false if it has been assigned.
+	 */
+	synchronized boolean assign() {
+		if (mAssigned) {
+			return false;
+		}
+		mAssigned = true;
+		mReserved = getPosition();
+		return true;
+	}
+
+	/**
+	 * Mark the download thread of this segment ended.
+	 */
+	synchronized void release() {
+		mAssigned = false;
+	}
+
+	synchronized boolean isAssigned() {
+		return mAssigned;
+	}
+
+	@Override
+	public String toString() {
+		return "Segment{" + mId + ": " + mStart + "-" + mEnd + ", downloaded " + mDownloaded + "}";
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+
+/**
+ * Usage An empty implementation of {@link DownloadEventListener}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class SimpleDownloadEventListener implements DownloadEventListener {
+
+	@Override
+	public void onProbed(String url, long fileSize) {
+	}
+
+	@Override
+	public void onSegmentStarted(int segmentId, long position) {
+	}
+
+	@Override
+	public void onSegmentFinished(int segmentId) {
+	}
+
+	@Override
+	public void onSegmentFailed(int segmentId, Exception error) {
+	}
+
+	@Override
+	public void onProgress(DownloadProgress progress) {
+	}
+
+	@Override
+	public void onPaused(DownloadProgress progress) {
+	}
+
+	@Override
+	public void onVerified(File file) {
+	}
+
+	@Override
+	public void onCompleted(File file) {
+	}
+
+	@Override
+	public void onFailed(Exception error) {
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.TreeMap;
+
+/**
+ * Usage The sink which writes the data of a download in order to a stream or a channel.<br><br>
+ *
+ * The data at the ordered position is written through at once. The data of the segments ahead
+ * is kept in a reorder buffer of the window size, and a write beyond the window blocks until the
+ * ordered position moves forward. Besides the window, each download thread holds one write buffer,
+ * so the memory used is bounded whatever the size of the file. The data ahead counts in the
+ * {@link BufferBudget}, a write waits like beyond the window when the budget is used up. The stream is closed when all the
+ * data is written. A stream can only be written once, a stopped download can't be resumed.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class StreamSink implements DownloadSink {
+
+	private static final long BUDGET_RETRY = 100; // The interval to check the budget again.
+
+	private final OutputStream mOut;
+	private final long mWindowSize;
+
+	private final TreeMap<Long, byte []> mPending = new TreeMap<Long, byte []>(); // The data ahead keyed by position, guarded by this.
+	private long mPosition = 0; // The position to write next, guarded by this.
+	private long mSize = -1;
+	private boolean mOpened = false;
+	private IOException mError;
+
+	/**
+	 * Constructor
+	 * @param out The stream to write the data to.
+	 * @param windowSize The max size of the data kept ahead of the ordered position.
+	 */
+	public StreamSink(OutputStream out, long windowSize) {
+		this.mOut = out;
+		this.mWindowSize = windowSize;
+	}
+
+	/**
+	 * Constructor
+	 * @param channel The channel to write the data to.
+	 * @param windowSize The max size of the data kept ahead of the ordered position.
+	 */
+	public StreamSink(WritableByteChannel channel, long windowSize) {
+		this(Channels.newOutputStream(channel), windowSize);
+	}
+
+	@Override
+	public synchronized void open(long size) throws IOException {
+		if (mOpened) {
+			throw new IOException("The stream can only be written once");
+		}
+		mOpened = true;
+		mSize = size;
+	}
+
+	@Override
+	public synchronized void write(long position, byte[] buffer, int offset, int length)
+			throws IOException, InterruptedException {
+		while (true) {
+			if (null != mError) {
+				throw mError;
+			}
+			if (position == mPosition) {
+				break;
+			}
+			if (position + length <= mPosition + mWindowSize) {
+				if (BufferBudget.tryReserve(length)) {
+					byte [] data = new byte[length];
+					System.arraycopy(buffer, offset, data, 0, length);
+					mPending.put(position, data);
+					return;
+				}
+				// The budget may be released by other downloads too.
+				wait(BUDGET_RETRY);
+				continue;
+			}
+			wait();
+		}
+		try {
+			mOut.write(buffer, offset, length);
+			mPosition += length;
+			// Write the data ahead which is in order now.
+			while (!mPending.isEmpty() && mPending.firstKey() == mPosition) {
+				byte [] data = mPending.remove(mPosition);
+				BufferBudget.release(data.length);
+				mOut.write(data);
+				mPosition += data.length;
+			}
+		} catch (IOException e) {
+			mError = e;
+			throw e;
+		} finally {
+			notifyAll();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (mSize >= 0 && mPosition != mSize) {
+			throw new IOException("The stream ended at " + mPosition + ", expected " + mSize);
+		}
+		mOut.close();
+	}
+
+	/**
+	 * Drop the data ahead and fail the writes blocked, the stream is not closed.
+	 */
+	@Override
+	public synchronized void abort() {
+		if (null == mError) {
+			mError = new IOException("The download was aborted");
+		}
+		for (byte [] data : mPending.values()) {
+			BufferBudget.release(data.length);
+		}
+		mPending.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Get the size written to the stream.
+	 */
+	public synchronized long getPosition() {
+		return mPosition;
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Usage The default transport, each exchange is a {@link HttpURLConnection}. The connections are
+ * kept alive and reused by the platform, one request at a time on each of them.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+	private static final long MAX_POLL_INTERVAL = 32;
+
+	private static Boolean sHostSettable; // Guarded by UrlConnectionTransport.class.
+
+	/**
+	 * Whether the Host header of a request can be set. The JVM drops it silently unless the system
+	 * property sun.net.http.allowRestrictedHeaders is true, Android sends it.
+	 */
+	static synchronized boolean isHostSettable() {
+		if (null == sHostSettable) {
+			boolean settable = false;
+			try {
+				// The connection is not connected until used.
+				URLConnection connection = new URL("http://127.0.0.1/").openConnection();
+				connection.setRequestProperty("Host", "localhost");
+				settable = "localhost".equals(connection.getRequestProperty("Host"));
+			} catch (IOException e) {
+				// Unexpected, take it as not settable.
+			}
+			sHostSettable = settable;
+		}
+		return sHostSettable;
+	}
+
+	@Override
+	public Exchange newExchange(URL url) throws IOException {
+		return new UrlConnectionExchange((HttpURLConnection) url.openConnection());
+	}
+
+	/**
+	 * The JVM closes the body of a {@link HttpURLConnection} under the lock its reads hold, so
+	 * disconnect() waits for a read blocked on a stalled server until it times out. The body of a
+	 * known length is read only once data is available, which keeps cancel prompt.
+	 */
+	private static class UrlConnectionExchange implements Exchange {
+
+		private final HttpURLConnection mConnection;
+		private int mReadTimeout = 0;
+		private volatile boolean mCancelled = false;
+
+		UrlConnectionExchange(HttpURLConnection connection) {
+			this.mConnection = connection;
+		}
+
+		@Override
+		public void setRequestProperty(String name, String value) {
+			mConnection.setRequestProperty(name, value);
+		}
+
+		@Override
+		public void connect(int connectTimeout, int readTimeout) throws IOException {
+			this.mReadTimeout = readTimeout;
+			mConnection.setConnectTimeout(connectTimeout);
+			mConnection.setReadTimeout(readTimeout);
+			mConnection.setRequestMethod("GET");
+			mConnection.connect();
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			return mConnection.getResponseCode();
+		}
+
+		@Override
+		public String getHeaderField(String name) throws IOException {
+			mConnection.getResponseCode();
+			return mConnection.getHeaderField(name);
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			InputStream in = mConnection.getInputStream();
+			long length = -1;
+			String contentLength = mConnection.getHeaderField("Content-Length");
+			if (null != contentLength) {
+				try {
+					length = Long.parseLong(contentLength.trim());
+				} catch (NumberFormatException e) {
+					// Read it as a body of unknown length.
+				}
+			}
+			// The end of a body of unknown length can't be told from a stall, read it directly.
+			return length < 0 ? in : new AvailableInputStream(in, length);
+		}
+
+		@Override
+		public void cancel() {
+			mCancelled = true;
+			mConnection.disconnect();
+		}
+
+		/**
+		 * Wait for the data of the body before reading it, the wait fails at once when the exchange
+		 * is cancelled.
+		 */
+		private class AvailableInputStream extends FilterInputStream {
+
+			private long mRemaining;
+
+			AvailableInputStream(InputStream in, long length) {
+				super(in);
+				this.mRemaining = length;
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte [] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte [] buffer, int offset, int length) throws IOException {
+				if (length > 0 && mRemaining > 0) {
+					awaitAvailable();
+				}
+				int read = super.read(buffer, offset, length);
+				if (read > 0) {
+					mRemaining -= read;
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(n);
+				if (skipped > 0) {
+					mRemaining -= skipped;
+				}
+				return skipped;
+			}
+
+			private void awaitAvailable() throws IOException {
+				long deadline = System.currentTimeMillis() + mReadTimeout;
+				long interval = 1;
+				while (in.available() <= 0) {
+					if (mCancelled) {
+						throw new IOException("Connection cancelled");
+					}
+					if (mReadTimeout > 0 && System.currentTimeMillis() >= deadline) {
+						throw new SocketTimeoutException("Read timed out");
+					}
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException("Interrupted while waiting for the response");
+					}
+					interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage A monotonic counter, safe to update from any thread.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class Counter {
+
+	private final AtomicLong mCount = new AtomicLong(0);
+
+	/**
+	 * Add delta to the counter.
+	 * @param delta
+	 */
+	public void increment(long delta) {
+		mCount.addAndGet(delta);
+	}
+
+	/**
+	 * Get the current value.
+	 */
+	public long getCount() {
+		return mCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(mCount.get());
+	}
+}
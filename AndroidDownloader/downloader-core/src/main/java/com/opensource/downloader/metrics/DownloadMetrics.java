@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Usage The metrics of a download run, and of each download thread (segment) in it.
+ * Values recorded on a segment are recorded on the download as well.<br><br>
+ *
+ * Times are in microseconds unless the name says otherwise, throughput is in bytes per second.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadMetrics {
+
+	/** Counter, the bytes written to file. */
+	public static final String DOWNLOADED_BYTES = "downloaded_bytes";
+	/** Counter, the bytes after decoding a compressed transfer. */
+	public static final String DECODED_BYTES = "decoded_bytes";
+	/** Counter, the bytes read from network but dropped because the connection failed before they were saved. */
+	public static final String WASTED_BYTES = "wasted_bytes";
+	/** Counter, the bytes copied from the previous version of a delta download. */
+	public static final String DELTA_COPIED_BYTES = "delta_copied_bytes";
+	/** Counter, the chunks which failed the verification by their digests. */
+	public static final String VERIFY_FAILURES = "verify_failures";
+	/** Counter, the times a failed segment was restarted. */
+	public static final String RETRIES = "retries";
+	/** Counter, the times a stalled connection was dropped. */
+	public static final String STALLS = "stalls";
+	/** Histogram, the time to connect, including the TLS handshake for https. */
+	public static final String CONNECT_TIME = "connect_time";
+	/** Histogram, the time from connected to the first byte of body read. */
+	public static final String FIRST_BYTE_TIME = "first_byte_time";
+	/** Histogram, the throughput of each connection which ended normally. */
+	public static final String THROUGHPUT = "throughput";
+	/** Histogram, the time to save a checkpoint to the download log. */
+	public static final String CHECKPOINT_LATENCY = "checkpoint_latency";
+	/** Histogram, the time of each write (and sync) to file. */
+	public static final String DISK_WRITE_LATENCY = "disk_write_latency";
+	/** Histogram, the duration of the whole download run in milliseconds. */
+	public static final String DURATION_MS = "duration_ms";
+
+	private final DownloadMetrics mParent;
+	private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<Integer, DownloadMetrics> mSegments = new ConcurrentHashMap<Integer, DownloadMetrics>();
+
+	public DownloadMetrics() {
+		this(null);
+	}
+
+	private DownloadMetrics(DownloadMetrics parent) {
+		this.mParent = parent;
+	}
+
+	/**
+	 * Get the metrics of a segment, created if not exists.
+	 * @param segmentId The id of the segment.
+	 */
+	public DownloadMetrics segment(int segmentId) {
+		DownloadMetrics segment = mSegments.get(segmentId);
+		if (null == segment) {
+			DownloadMetrics created = new DownloadMetrics(this);
+			segment = mSegments.putIfAbsent(segmentId, created);
+			if (null == segment) {
+				segment = created;
+			}
+		}
+		return segment;
+	}
+
+	/**
+	 * Get the counter by name, created if not exists.
+	 */
+	public Counter counter(String name) {
+		Counter counter = mCounters.get(name);
+		if (null == counter) {
+			Counter created = new Counter();
+			counter = mCounters.putIfAbsent(name, created);
+			if (null == counter) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Get the histogram by name, created if not exists.
+	 */
+	public Histogram histogram(String name) {
+		Histogram histogram = mHistograms.get(name);
+		if (null == histogram) {
+			Histogram created = new Histogram();
+			histogram = mHistograms.putIfAbsent(name, created);
+			if (null == histogram) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Add delta to the counter of this metrics and of the parent.
+	 */
+	public void increment(String name, long delta) {
+		counter(name).increment(delta);
+		if (null != mParent) {
+			mParent.increment(name, delta);
+		}
+	}
+
+	/**
+	 * Record a value to the histogram of this metrics and of the parent.
+	 */
+	public void record(String name, long value) {
+		histogram(name).record(value);
+		if (null != mParent) {
+			mParent.record(name, value);
+		}
+	}
+
+	public Map<String, Counter> getCounters() {
+		return Collections.unmodifiableMap(mCounters);
+	}
+
+	public Map<String, Histogram> getHistograms() {
+		return Collections.unmodifiableMap(mHistograms);
+	}
+
+	public Map<Integer, DownloadMetrics> getSegments() {
+		return Collections.unmodifiableMap(mSegments);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		append(sb, "");
+		for (Map.Entry<Integer, DownloadMetrics> entry : new TreeMap<Integer, DownloadMetrics>(mSegments).entrySet()) {
+			entry.getValue().append(sb, "segment " + entry.getKey() + " ");
+		}
+		return sb.toString();
+	}
+
+	private void append(StringBuilder sb, String prefix) {
+		for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(mCounters).entrySet()) {
+			sb.append(prefix).append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+		for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(mHistograms).entrySet()) {
+			sb.append(prefix).append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Usage A histogram of non-negative values with power of two buckets, safe to update from any thread.
+ * Recording a value takes a few atomic operations and no allocation, so it can be used in the hot path.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class Histogram {
+
+	private static final int BUCKET_COUNT = 64;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mCount = new AtomicLong(0);
+	private final AtomicLong mSum = new AtomicLong(0);
+	private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong mMax = new AtomicLong(0);
+
+	/**
+	 * Record a value, a negative value is recorded as 0.
+	 * @param value
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		mBuckets.incrementAndGet(bucketOf(value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long min;
+		while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {
+			// Retry
+		}
+		long max;
+		while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+			// Retry
+		}
+	}
+
+	public long getCount() {
+		return mCount.get();
+	}
+
+	public long getSum() {
+		return mSum.get();
+	}
+
+	public long getMin() {
+		return mCount.get() == 0 ? 0 : mMin.get();
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	public long getMean() {
+		long count = mCount.get();
+		return count == 0 ? 0 : mSum.get() / count;
+	}
+
+	/**
+	 * Get the approximate value at the given percentile, it is the upper bound of the bucket
+	 * which contains the percentile.
+	 * @param percentile The percentile between 0 and 100.
+	 */
+	public long getPercentile(double percentile) {
+		long count = mCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mBuckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	private static int bucketOf(long value) {
+		// Bucket i holds the values in [2^(i-1), 2^i), bucket 0 holds 0.
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	private static long upperBoundOf(int bucket) {
+		return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + getMean() + " min=" + getMin() + " p50=" + getPercentile(50)
+				+ " p99=" + getPercentile(99) + " max=" + getMax();
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.metrics;
+
+/**
+ * Usage The reporter to publish the metrics of a download, e.g. to logs or a monitoring backend.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public interface MetricsReporter {
+
+	/**
+	 * Called when a download run ends, whether it finished, was paused or failed.
+	 * @param url The url of the download.
+	 * @param metrics The metrics of the run.
+	 */
+	public void report(String url, DownloadMetrics metrics);
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Usage Record the timeline of download runs: the probe, the connect, first byte, finish, failure and
+ * retry of each segment, the checkpoints and the rename. The timeline can be exported in the
+ * Chrome trace event format, which can be loaded in chrome://tracing or Perfetto, each segment is
+ * shown as a thread lane.<br><br>
+ *
+ * Recording is thread safe. At most the given number of events are kept, the later events are dropped.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadTracer {
+
+	/** The lane of the events of the downloader itself, segment i is recorded on lane i. */
+	public static final int LANE_DOWNLOADER = 0;
+
+	private static final int DEFAULT_MAX_EVENTS = 1024 * 64;
+
+	private final long mStartNanos = System.nanoTime();
+	private final int mMaxEvents;
+	private final ConcurrentLinkedQueue<Event> mEvents = new ConcurrentLinkedQueue<Event>();
+	private final AtomicInteger mEventCount = new AtomicInteger(0);
+
+	public DownloadTracer() {
+		this(DEFAULT_MAX_EVENTS);
+	}
+
+	/**
+	 * Constructor
+	 * @param maxEvents The max count of events to keep.
+	 */
+	public DownloadTracer(int maxEvents) {
+		this.mMaxEvents = maxEvents;
+	}
+
+	/**
+	 * Begin a span on the lane, must be paired with {@link #end}.
+	 * @param lane The lane, {@link #LANE_DOWNLOADER} or the segment id.
+	 * @param name The name of the span.
+	 * @param args Optional arguments in key, value pairs.
+	 */
+	public void begin(int lane, String name, Object... args) {
+		add(new Event('B', name, lane, now(), 0, args));
+	}
+
+	/**
+	 * End the last span begun on the lane.
+	 */
+	public void end(int lane, String name, Object... args) {
+		add(new Event('E', name, lane, now(), 0, args));
+	}
+
+	/**
+	 * Record an instant event.
+	 */
+	public void instant(int lane, String name, Object... args) {
+		add(new Event('i', name, lane, now(), 0, args));
+	}
+
+	/**
+	 * Record a span which started at startNanos and ends now.
+	 * @param startNanos The start time from {@link System#nanoTime()}.
+	 */
+	public void complete(int lane, String name, long startNanos, Object... args) {
+		long start = (startNanos - mStartNanos) / 1000;
+		add(new Event('X', name, lane, start, now() - start, args));
+	}
+
+	/**
+	 * Clear the recorded events.
+	 */
+	public void clear() {
+		mEvents.clear();
+		mEventCount.set(0);
+	}
+
+	/**
+	 * Write the timeline to a file in the Chrome trace event format.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeTo(File file) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			writeJson(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write the timeline in the Chrome trace event format.
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void writeJson(Writer writer) throws IOException {
+		writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+		Set<Integer> lanes = new TreeSet<Integer>();
+		boolean first = true;
+		for (Iterator<Event> it = mEvents.iterator(); it.hasNext(); ) {
+			Event event = it.next();
+			lanes.add(event.mLane);
+			if (!first) {
+				writer.write(",\n");
+			}
+			first = false;
+			event.writeJson(writer);
+		}
+		for (Integer lane : lanes) {
+			if (!first) {
+				writer.write(",\n");
+			}
+			first = false;
+			writer.write("{\"ph\":\"M\",\"pid\":1,\"tid\":" + lane + ",\"name\":\"thread_name\",\"args\":{\"name\":");
+			writeString(writer, lane == LANE_DOWNLOADER ? "downloader" : "segment " + lane);
+			writer.write("}}");
+		}
+		writer.write("]}");
+		writer.flush();
+	}
+
+	private long now() {
+		return (System.nanoTime() - mStartNanos) / 1000;
+	}
+
+	private void add(Event event) {
+		if (mEventCount.incrementAndGet() <= mMaxEvents) {
+			mEvents.add(event);
+		} else {
+			mEventCount.decrementAndGet();
+		}
+	}
+
+	private static void writeString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					writer.write("\\\"");
+					break;
+				case '\\':
+					writer.write("\\\\");
+					break;
+				case '\n':
+					writer.write("\\n");
+					break;
+				default:
+					if (c < 0x20) {
+						writer.write(String.format("\\u%04x", (int) c));
+					} else {
+						writer.write(c);
+					}
+			}
+		}
+		writer.write('"');
+	}
+
+	private static class Event {
+		final char mPhase;
+		final String mName;
+		final int mLane;
+		final long mTimestamp;
+		final long mDuration;
+		final Object[] mArgs;
+
+		Event(char phase, String name, int lane, long timestamp, long duration, Object[] args) {
+			mPhase = phase;
+			mName = name;
+			mLane = lane;
+			mTimestamp = timestamp;
+			mDuration = duration;
+			mArgs = args;
+		}
+
+		void writeJson(Writer writer) throws IOException {
+			writer.write("{\"ph\":\"" + mPhase + "\",\"pid\":1,\"tid\":" + mLane + ",\"ts\":" + mTimestamp + ",\"name\":");
+			writeString(writer, mName);
+			if (mPhase == 'X') {
+				writer.write(",\"dur\":" + mDuration);
+			} else if (mPhase == 'i') {
+				writer.write(",\"s\":\"t\"");
+			}
+			if (null != mArgs && mArgs.length > 1) {
+				writer.write(",\"args\":{");
+				for (int i = 0; i + 1 < mArgs.length; i += 2) {
+					if (i > 0) {
+						writer.write(',');
+					}
+					writeString(writer, String.valueOf(mArgs[i]));
+					writer.write(':');
+					Object value = mArgs[i + 1];
+					if (value instanceof Number || value instanceof Boolean) {
+						writer.write(String.valueOf(value));
+					} else {
+						writeString(writer, String.valueOf(value));
+					}
+				}
+				writer.write('}');
+			}
+			writer.write('}');
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of the batch downloads against a local server.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class BatchDownloaderTest {
+
+	private static final int FILE_SIZE = 1024 * 1024 + 17;
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("batch");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testSmallFiles() throws Exception {
+		BatchDownloader batch = newBatch(FILE_SIZE);
+		Map<String, DownloadException> failures = batch.download(null);
+		assertTrue(failures.isEmpty());
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(mServer.getData(), TestFiles.read(new File(mFolder, "file" + i)));
+		}
+		assertEquals(3, mServer.getFullRequestCount());
+	}
+
+	@Test
+	public void testLargeFilesProbedOnce() throws Exception {
+		BatchDownloader batch = newBatch(FILE_SIZE / 2);
+		Map<String, DownloadException> failures = batch.download(null);
+		assertTrue(failures.isEmpty());
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(mServer.getData(), TestFiles.read(new File(mFolder, "file" + i)));
+		}
+		// The response of the batch is the probe of the downloader, the rest are range requests.
+		assertEquals(3, mServer.getFullRequestCount());
+	}
+
+	@Test
+	public void testInterruptStopsAndIsKept() throws Exception {
+		mServer.setChunkDelay(20);
+		final BatchDownloader batch = newBatch(FILE_SIZE / 2);
+		final Thread caller = Thread.currentThread();
+		Thread interrupter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					return;
+				}
+				caller.interrupt();
+			}
+		};
+		interrupter.start();
+		batch.download(null);
+		assertTrue(Thread.interrupted());
+		assertTrue(batch.isStop());
+		interrupter.join();
+		assertFalse(new File(mFolder, "file0").exists());
+	}
+
+	private BatchDownloader newBatch(long threshold) {
+		BatchDownloader batch = new BatchDownloader(null, "test");
+		batch.setSegmentThreshold(threshold);
+		batch.setConnectionNum(2);
+		batch.setThreadNum(3);
+		batch.setUpdateTime(50);
+		for (int i = 0; i < 3; i++) {
+			// Different urls, the downloads of one url would attach to each other.
+			batch.add(mServer.getUrl() + "?file=" + i, new File(mFolder, "file" + i));
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of {@link BufferBudget}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class BufferBudgetTest {
+
+	private long mLimit;
+
+	@Before
+	public void setUp() {
+		mLimit = BufferBudget.getLimit();
+		assertEquals("The budget is used by another test", 0, BufferBudget.getUsed());
+		BufferBudget.setLimit(1024 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		BufferBudget.setLimit(mLimit);
+	}
+
+	@Test
+	public void testAcquireAndRelease() throws Exception {
+		byte [] buffer = BufferBudget.acquire(256 * 1024);
+		assertEquals(256 * 1024, buffer.length);
+		assertEquals(256 * 1024, BufferBudget.getUsed());
+		assertFalse(BufferBudget.isUnderPressure());
+		BufferBudget.release(buffer.length);
+		assertEquals(0, BufferBudget.getUsed());
+	}
+
+	@Test
+	public void testShrinkUnderPressure() throws Exception {
+		byte [] first = BufferBudget.acquire(512 * 1024);
+		byte [] second = BufferBudget.acquire(256 * 1024);
+		assertTrue(BufferBudget.isUnderPressure());
+		assertTrue("The buffer didn't shrink under pressure", second.length < 256 * 1024);
+		assertTrue(second.length >= BufferBudget.MIN_BUFFER_SIZE);
+		BufferBudget.release(first.length);
+		BufferBudget.release(second.length);
+		assertEquals(0, BufferBudget.getUsed());
+	}
+
+	@Test
+	public void testTryReserve() {
+		assertTrue(BufferBudget.tryReserve(1024 * 1024));
+		assertFalse(BufferBudget.tryReserve(1));
+		BufferBudget.release(1024 * 1024);
+		assertTrue(BufferBudget.tryReserve(1));
+		BufferBudget.release(1);
+	}
+
+	@Test
+	public void testAcquireWaitsForRelease() throws Exception {
+		assertTrue(BufferBudget.tryReserve(1024 * 1024));
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				BufferBudget.release(1024 * 1024);
+			}
+		};
+		releaser.start();
+		long start = System.currentTimeMillis();
+		byte [] buffer = BufferBudget.acquire(64 * 1024);
+		assertTrue("The acquire didn't wait", System.currentTimeMillis() - start >= 150);
+		assertEquals(64 * 1024, buffer.length);
+		BufferBudget.release(buffer.length);
+		releaser.join();
+	}
+
+	@Test
+	public void testOverdraw() throws Exception {
+		assertTrue(BufferBudget.tryReserve(1024 * 1024));
+		// Nothing is released, a min buffer is taken over the limit after a while.
+		byte [] buffer = BufferBudget.acquire(64 * 1024);
+		assertEquals(BufferBudget.MIN_BUFFER_SIZE, buffer.length);
+		BufferBudget.release(buffer.length);
+		BufferBudget.release(1024 * 1024);
+		assertEquals(0, BufferBudget.getUsed());
+	}
+}
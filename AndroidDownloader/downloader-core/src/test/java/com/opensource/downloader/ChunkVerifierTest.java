@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage The tests of the chunk verification, see {@link Downloader#setChunkHashes(BlockManifest)}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class ChunkVerifierTest {
+
+	private static final int FILE_SIZE = 2 * 1024 * 1024 + 99;
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private TestServer mServer;
+	private File mFolder;
+	private BlockManifest mManifest;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("verify");
+		File file = new File(mFolder, "reference.bin");
+		TestFiles.write(file, mServer.getData());
+		mManifest = BlockManifest.create(file, CHUNK_SIZE);
+		TestFiles.delete(file);
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testBadChunkDownloadedAgain() throws Exception {
+		mServer.setCorrupted(1333333, 1);
+		Downloader downloader = newDownloader(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+		DownloadMetrics metrics = downloader.getMetrics();
+		assertEquals(1, metrics.counter(DownloadMetrics.VERIFY_FAILURES).getCount());
+		// Only the bad chunk is downloaded again.
+		assertEquals(FILE_SIZE + CHUNK_SIZE, metrics.counter(DownloadMetrics.DOWNLOADED_BYTES).getCount());
+	}
+
+	@Test
+	public void testChunkFailsTooOften() throws Exception {
+		mServer.setCorrupted(1333333, 100);
+		Downloader downloader = newDownloader(null);
+		try {
+			downloader.download(null);
+			fail("The download of a chunk which is always bad completed");
+		} catch (DownloadException e) {
+			assertEquals(DownloadException.Reason.VERIFICATION, e.getReason());
+		}
+		assertEquals(Downloader.State.FAILED, downloader.getState());
+	}
+
+	@Test
+	public void testTailsVerifiedOnResume() throws Exception {
+		// The download log has two segments, the last chunk of the first one was lost in a crash.
+		int half = 16 * CHUNK_SIZE;
+		int saved = half + 4 * CHUNK_SIZE;
+		byte [] data = Arrays.copyOf(mServer.getData(), FILE_SIZE);
+		Arrays.fill(data, half - CHUNK_SIZE, half, (byte) 0);
+		Arrays.fill(data, saved, FILE_SIZE, (byte) 0);
+		TestFiles.write(new File(mFolder, "file.bin.download"), data);
+		ResumeStore store = new MemoryResumeStore();
+		store.save(mServer.getUrl(), new File(mFolder, "file.bin.download").getAbsolutePath(), Arrays.asList(
+				new Segment(1, 0, half, half), new Segment(2, half, FILE_SIZE, saved - half)));
+
+		Downloader downloader = newDownloader(store);
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+		long downloaded = downloader.getMetrics().counter(DownloadMetrics.DOWNLOADED_BYTES).getCount();
+		assertEquals(CHUNK_SIZE + FILE_SIZE - saved, downloaded);
+		assertTrue(downloader.getMetrics().counter(DownloadMetrics.VERIFY_FAILURES).getCount() > 0);
+	}
+
+	private Downloader newDownloader(ResumeStore store) {
+		Downloader downloader = new Downloader(store, mServer.getUrl(), mFolder, null, 4);
+		downloader.setUpdateTime(50);
+		downloader.setChunkHashes(mManifest);
+		return downloader;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of the delta downloads against a previous version, see {@link Downloader#setDeltaSource(File, BlockManifest)}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DeltaDownloadTest {
+
+	private static final int BLOCK_SIZE = 4096;
+	private static final int OLD_SIZE = 2 * 1024 * 1024;
+	private static final int INSERT_OFFSET = 500 * 1000;
+	private static final int INSERT_SIZE = 1000;
+	private static final int CHANGE_OFFSET = 1200 * 1000;
+	private static final int CHANGE_SIZE = 10 * 1000;
+	private static final int APPEND_SIZE = 5555;
+
+	private byte [] mOld;
+	private TestServer mServer;
+	private File mFolder;
+	private File mPrevious;
+
+	@Before
+	public void setUp() throws IOException {
+		Random random = new Random(7);
+		mOld = new byte[OLD_SIZE];
+		random.nextBytes(mOld);
+		// The new version inserts, changes and appends some data.
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(mOld, 0, INSERT_OFFSET);
+		data.write(randomBytes(random, INSERT_SIZE));
+		data.write(mOld, INSERT_OFFSET, CHANGE_OFFSET - INSERT_OFFSET);
+		data.write(randomBytes(random, CHANGE_SIZE));
+		data.write(mOld, CHANGE_OFFSET + CHANGE_SIZE, OLD_SIZE - CHANGE_OFFSET - CHANGE_SIZE);
+		data.write(randomBytes(random, APPEND_SIZE));
+		mServer = TestServer.start(data.toByteArray());
+		mFolder = TestFiles.createFolder("delta");
+		mPrevious = new File(mFolder, "previous.bin");
+		TestFiles.write(mPrevious, mOld);
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testScanFindsMovedBlocks() throws Exception {
+		BlockManifest manifest = newManifest();
+		long [] offsets = DeltaScanner.scan(mPrevious, manifest);
+		assertEquals(manifest.getBlockCount(), offsets.length);
+		// The first block is at its place, the blocks after the insertion are found before their place.
+		assertEquals(0, offsets[0]);
+		int moved = (INSERT_OFFSET + INSERT_SIZE) / BLOCK_SIZE + 1;
+		assertEquals((long) moved * BLOCK_SIZE - INSERT_SIZE, offsets[moved]);
+		// The blocks with new data are not found.
+		assertEquals(-1, offsets[INSERT_OFFSET / BLOCK_SIZE]);
+		assertEquals(-1, offsets[(CHANGE_OFFSET + INSERT_SIZE) / BLOCK_SIZE + 1]);
+		assertEquals(-1, offsets[offsets.length - 1]);
+	}
+
+	@Test
+	public void testDeltaDownload() throws Exception {
+		Downloader downloader = newDownloader();
+		downloader.setDeltaSource(mPrevious, newManifest());
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+		assertArrayEquals(mOld, TestFiles.read(mPrevious));
+		long size = mServer.getData().length;
+		long copied = downloader.getMetrics().counter(DownloadMetrics.DELTA_COPIED_BYTES).getCount();
+		long downloaded = downloader.getMetrics().counter(DownloadMetrics.DOWNLOADED_BYTES).getCount();
+		assertTrue("Copied " + copied + " of " + size, copied > size * 9 / 10);
+		assertTrue("Downloaded " + downloaded + " of " + size, downloaded < size / 10);
+		assertEquals(size, copied + downloaded);
+	}
+
+	@Test
+	public void testMissingSource() throws Exception {
+		Downloader downloader = newDownloader();
+		downloader.setDeltaSource(new File(mFolder, "missing.bin"), newManifest());
+		assertWholeFileDownloaded(downloader);
+	}
+
+	@Test
+	public void testManifestOfOtherFile() throws Exception {
+		File other = new File(mFolder, "other.bin");
+		TestFiles.write(other, mOld);
+		Downloader downloader = newDownloader();
+		downloader.setDeltaSource(mPrevious, BlockManifest.create(other, BLOCK_SIZE));
+		assertWholeFileDownloaded(downloader);
+	}
+
+	private void assertWholeFileDownloaded(Downloader downloader) throws Exception {
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+		assertEquals(0, downloader.getMetrics().counter(DownloadMetrics.DELTA_COPIED_BYTES).getCount());
+		assertEquals(mServer.getData().length,
+				downloader.getMetrics().counter(DownloadMetrics.DOWNLOADED_BYTES).getCount());
+	}
+
+	/**
+	 * Create the manifest of the new version, and pass it through its text form like a server would.
+	 */
+	private BlockManifest newManifest() throws IOException {
+		File file = new File(mFolder, "new.bin");
+		TestFiles.write(file, mServer.getData());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BlockManifest.create(file, BLOCK_SIZE).write(out);
+		TestFiles.delete(file);
+		return BlockManifest.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private Downloader newDownloader() {
+		return new Downloader(null, mServer.getUrl(), mFolder, null, 4);
+	}
+
+	private static byte [] randomBytes(Random random, int size) {
+		byte [] bytes = new byte[size];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
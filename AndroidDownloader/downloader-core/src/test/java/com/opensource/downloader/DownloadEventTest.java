@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of the events of {@link DownloadEventListener}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadEventTest {
+
+	private static final int FILE_SIZE = 2 * 1024 * 1024 + 31;
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("events");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testCallbacksOnCallbackThread() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		listener.mDelay = 100; // A slow listener must not hold the download threads.
+		Downloader downloader = newDownloader(4);
+		downloader.setEventListener(listener);
+		File file = downloader.download(null);
+		assertTrue(listener.mCompleted.await(10, TimeUnit.SECONDS));
+		assertEquals(file, listener.mFile);
+		for (String thread : listener.mThreads) {
+			assertTrue("Callback on " + thread, thread.startsWith("Downloader-callback-"));
+		}
+	}
+
+	@Test
+	public void testLifecycleEvents() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		mServer.setChunkDelay(5);
+		Downloader downloader = newDownloader(4);
+		downloader.setEventListener(listener);
+		File file = downloader.download(null);
+		assertTrue(listener.mCompleted.await(10, TimeUnit.SECONDS));
+		List<String> events = new ArrayList<String>(listener.mEvents);
+		assertEquals("probed " + FILE_SIZE, events.get(0));
+		assertEquals("completed", events.get(events.size() - 1));
+		assertEquals(events.size() - 2, events.indexOf("verified"));
+		for (String event : events) {
+			if (event.startsWith("finished ")) {
+				int started = events.indexOf("started " + event.substring("finished ".length()));
+				assertTrue("Finished before started: " + events, started >= 0 && started < events.indexOf(event));
+			}
+		}
+		assertTrue(events.contains("finished 1"));
+		assertFalse(events.contains("failed"));
+
+		List<DownloadProgress> progress = new ArrayList<DownloadProgress>(listener.mProgress);
+		assertFalse(progress.isEmpty());
+		long downloaded = 0;
+		boolean speed = false;
+		for (DownloadProgress snapshot : progress) {
+			assertEquals(FILE_SIZE, snapshot.getTotalSize());
+			assertTrue("The progress goes back", snapshot.getDownloadedSize() >= downloaded);
+			downloaded = snapshot.getDownloadedSize();
+			long segmentTotal = 0;
+			long segmentDownloaded = 0;
+			for (int i = 0; i < snapshot.getSegmentCount(); i++) {
+				segmentTotal += snapshot.getSegmentSize(i);
+				segmentDownloaded += snapshot.getSegmentDownloadedSize(i);
+			}
+			assertEquals(FILE_SIZE, segmentTotal);
+			assertEquals(snapshot.getDownloadedSize(), segmentDownloaded);
+			if (snapshot.getSpeed() > 0 && snapshot.getDownloadedSize() < FILE_SIZE) {
+				speed = true;
+				assertTrue(snapshot.getEta() >= 0);
+			}
+		}
+		assertTrue("No speed while downloading", speed);
+		assertEquals(file, listener.mFile);
+	}
+
+	@Test
+	public void testPausedEvent() throws Exception {
+		final RecordingListener listener = new RecordingListener();
+		mServer.setChunkDelay(20);
+		final Downloader downloader = newDownloader(2);
+		downloader.setEventListener(listener, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		DownloadFuture future = downloader.downloadAsync(null);
+		while (listener.mProgress.isEmpty()) {
+			Thread.sleep(10);
+		}
+		future.cancel(true);
+		while (!listener.mEvents.contains("paused")) {
+			Thread.sleep(10);
+		}
+		assertEquals(Downloader.State.PAUSED, downloader.getState());
+		assertFalse(listener.mEvents.contains("completed"));
+		assertFalse(listener.mEvents.contains("failed"));
+	}
+
+	@Test
+	public void testProgressCoalesced() {
+		final List<Runnable> queue = new ArrayList<Runnable>();
+		RecordingListener listener = new RecordingListener();
+		EventDispatcher dispatcher = new EventDispatcher(listener, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queue.add(command);
+			}
+		});
+		for (int i = 1; i <= 3; i++) {
+			dispatcher.progress(newProgress(i));
+		}
+		// A slow listener gets the latest progress once, not every tick.
+		assertEquals(1, queue.size());
+		queue.remove(0).run();
+		assertEquals(1, listener.mProgress.size());
+		assertEquals(3, listener.mProgress.get(0).getDownloadedSize());
+		dispatcher.progress(newProgress(4));
+		dispatcher.segmentFinished(1);
+		assertEquals(2, queue.size());
+		for (Runnable task : queue) {
+			task.run();
+		}
+		assertEquals(Arrays.asList("progress", "progress", "finished 1"), listener.mEvents);
+	}
+
+	@Test
+	public void testTickerRunsNoCallbacksNorStoreWrites() throws Exception {
+		final List<String> saveThreads = Collections.synchronizedList(new ArrayList<String>());
+		ResumeStore store = new MemoryResumeStore() {
+			@Override
+			public synchronized void save(String url, String file, Collection<Segment> segments) {
+				saveThreads.add(Thread.currentThread().getName());
+				super.save(url, file, segments);
+			}
+		};
+		final List<String> sizeThreads = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch reported = new CountDownLatch(1);
+		// The ticker replaces the download log when it falls back to one request.
+		mServer.setRangeIgnored(true);
+		Downloader downloader = newDownloader(store, 4);
+		File file = downloader.downloadAsync(new DownloadListener() {
+			@Override
+			public void onDownloadSize(int totalSize, int downloadedSize) {
+				sizeThreads.add(Thread.currentThread().getName());
+				if (totalSize == downloadedSize) {
+					reported.countDown();
+				}
+			}
+		}).get(30, TimeUnit.SECONDS);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		assertTrue("The whole size is not reported", reported.await(10, TimeUnit.SECONDS));
+		assertTrue("The download log is not saved again", saveThreads.size() > 1);
+		for (String thread : saveThreads) {
+			assertFalse("Log saved on " + thread, thread.startsWith("Downloader-ticker-"));
+		}
+		for (String thread : sizeThreads) {
+			assertTrue("Size reported on " + thread, thread.startsWith("Downloader-callback-"));
+		}
+	}
+
+	private static DownloadProgress newProgress(long downloaded) {
+		return new DownloadProgress(100, downloaded, 0, -1, new long[0], new long[0]);
+	}
+
+	private Downloader newDownloader(int threadNum) {
+		return newDownloader(null, threadNum);
+	}
+
+	private Downloader newDownloader(ResumeStore store, int threadNum) {
+		Downloader downloader = new Downloader(store, mServer.getUrl(), mFolder, null, threadNum);
+		downloader.setUpdateTime(50);
+		return downloader;
+	}
+
+	/**
+	 * The listener which records the events and the threads they are called on.
+	 */
+	static class RecordingListener implements DownloadEventListener {
+
+		final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> mThreads = Collections.synchronizedList(new ArrayList<String>());
+		final List<DownloadProgress> mProgress = Collections.synchronizedList(new ArrayList<DownloadProgress>());
+		final CountDownLatch mCompleted = new CountDownLatch(1);
+		volatile long mDelay = 0;
+		volatile File mFile;
+
+		private void record(String event) {
+			mEvents.add(event);
+			mThreads.add(Thread.currentThread().getName());
+			if (mDelay > 0) {
+				try {
+					Thread.sleep(mDelay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void onProbed(String url, long fileSize) {
+			record("probed " + fileSize);
+		}
+
+		@Override
+		public void onSegmentStarted(int segmentId, long position) {
+			record("started " + segmentId);
+		}
+
+		@Override
+		public void onSegmentFinished(int segmentId) {
+			record("finished " + segmentId);
+		}
+
+		@Override
+		public void onSegmentFailed(int segmentId, Exception error) {
+			record("failed " + segmentId);
+		}
+
+		@Override
+		public void onProgress(DownloadProgress progress) {
+			mProgress.add(progress);
+			record("progress");
+		}
+
+		@Override
+		public void onPaused(DownloadProgress progress) {
+			record("paused");
+		}
+
+		@Override
+		public void onVerified(File file) {
+			record("verified");
+		}
+
+		@Override
+		public void onCompleted(File file) {
+			record("completed");
+			mFile = file;
+			mCompleted.countDown();
+		}
+
+		@Override
+		public void onFailed(Exception error) {
+			record("failed");
+		}
+	}
+}
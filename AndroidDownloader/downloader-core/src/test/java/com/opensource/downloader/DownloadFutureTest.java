@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage The tests of {@link DownloadFuture}, the handle of {@link Downloader#downloadAsync(DownloadListener)}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadFutureTest {
+
+	private static final int FILE_SIZE = 1024 * 1024 + 7;
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("future");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testCompleted() throws Exception {
+		RecordingCallback callback = new RecordingCallback();
+		DownloadFuture future = newDownloader().downloadAsync(null).addCallback(callback);
+		File file = future.get(30, TimeUnit.SECONDS);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		assertTrue(future.isDone());
+		assertFalse(future.isCancelled());
+		assertTrue(callback.await());
+		assertEquals("completed " + file.getName(), callback.mResults.get(0));
+		assertEquals(Downloader.State.COMPLETED, future.getDownloader().getState());
+
+		// A callback added after the download ended is called at once.
+		RecordingCallback late = new RecordingCallback();
+		future.addCallback(late);
+		assertEquals(1, late.mResults.size());
+		assertEquals("completed " + file.getName(), late.mResults.get(0));
+	}
+
+	@Test
+	public void testFailedWithReason() throws Exception {
+		mServer.setFailing("127.0.0.1");
+		RecordingCallback callback = new RecordingCallback();
+		final List<String> threads = new CopyOnWriteArrayList<String>();
+		DownloadFuture future = newDownloader().downloadAsync(null).addCallback(callback, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				threads.add("executor");
+				command.run();
+			}
+		});
+		try {
+			future.get(30, TimeUnit.SECONDS);
+			fail("The download from a failing server completed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DownloadException);
+			assertEquals(DownloadException.Reason.SERVER, ((DownloadException) e.getCause()).getReason());
+		}
+		assertTrue(callback.await());
+		assertEquals("failed " + DownloadException.Reason.SERVER, callback.mResults.get(0));
+		assertEquals(1, threads.size());
+		assertEquals(Downloader.State.FAILED, future.getDownloader().getState());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		ResumeStore store = new MemoryResumeStore();
+		mServer.setChunkDelay(50);
+		RecordingCallback callback = new RecordingCallback();
+		Downloader downloader = new Downloader(store, mServer.getUrl(), mFolder, null, 2);
+		DownloadFuture future = downloader.downloadAsync(null).addCallback(callback);
+		while (store.load(mServer.getUrl()).isEmpty()) {
+			Thread.sleep(10);
+		}
+		assertTrue(future.cancel(true));
+		assertFalse(future.cancel(true));
+		assertTrue(future.isCancelled());
+		assertTrue(future.isDone());
+		try {
+			future.get();
+			fail("The result of a cancelled download was got");
+		} catch (CancellationException e) {
+			// Expected.
+		}
+		assertTrue(callback.await());
+		assertEquals(1, callback.mResults.size());
+		assertEquals("cancelled", callback.mResults.get(0));
+
+		// The cancelled download is resumed by downloading again.
+		mServer.setChunkDelay(0);
+		File file = new Downloader(store, mServer.getUrl(), mFolder, null, 2).downloadAsync(null)
+				.get(30, TimeUnit.SECONDS);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+	}
+
+	private Downloader newDownloader() {
+		return new Downloader(null, mServer.getUrl(), mFolder, null, 3);
+	}
+
+	/**
+	 * The callback which records the results it is called with.
+	 */
+	private static class RecordingCallback implements DownloadCallback {
+
+		final List<String> mResults = new CopyOnWriteArrayList<String>();
+		private final CountDownLatch mCalled = new CountDownLatch(1);
+
+		@Override
+		public void onCompleted(File file) {
+			mResults.add("completed " + file.getName());
+			mCalled.countDown();
+		}
+
+		@Override
+		public void onFailed(DownloadException error) {
+			mResults.add("failed " + error.getReason());
+			mCalled.countDown();
+		}
+
+		@Override
+		public void onCancelled() {
+			mResults.add("cancelled");
+			mCalled.countDown();
+		}
+
+		boolean await() throws InterruptedException {
+			return mCalled.await(10, TimeUnit.SECONDS);
+		}
+	}
+}
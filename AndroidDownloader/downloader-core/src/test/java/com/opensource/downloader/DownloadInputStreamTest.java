@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage The tests of {@link Downloader.Scheduling#SEQUENTIAL} and of the stream of {@link Downloader#openStream()}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadInputStreamTest {
+
+	private static final int FILE_SIZE = 3 * 1024 * 1024 + 5;
+	private static final int CHUNK_SIZE = 128 * 1024;
+	private static final int THREAD_NUM = 4;
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("stream");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testReadWhileDownloading() throws Exception {
+		mServer.setChunkDelay(10);
+		Downloader downloader = newDownloader();
+		DownloadFuture future = downloader.downloadAsync(null);
+		InputStream in = downloader.openStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte [] buffer = new byte[8 * 1024];
+		boolean readWhileDownloading = false;
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+			if (out.size() >= CHUNK_SIZE && !future.isDone()) {
+				readWhileDownloading = true;
+			}
+		}
+		in.close();
+		assertTrue("The start of the file was not readable before the download ended", readWhileDownloading);
+		assertArrayEquals(mServer.getData(), out.toByteArray());
+		assertArrayEquals(mServer.getData(), TestFiles.read(future.get(30, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void testStartOfFileFirst() throws Exception {
+		mServer.setChunkDelay(10);
+		final Downloader downloader = newDownloader();
+		final long [] sizes = {-1, -1}; // {downloaded, saved prefix} when half of the file is downloaded.
+		downloader.downloadAsync(new DownloadListener() {
+			@Override
+			public void onDownloadSize(int totalSize, int downloadedSize) {
+				if (sizes[0] < 0 && downloadedSize >= totalSize / 2) {
+					sizes[0] = downloadedSize;
+					try {
+						sizes[1] = downloader.awaitSavedPrefix(0);
+					} catch (IOException e) {
+						sizes[1] = 0;
+					}
+				}
+			}
+		}).get(30, TimeUnit.SECONDS);
+		assertTrue("The size was not reported", sizes[0] > 0);
+		// Only the chunks being downloaded may be missing from the start of the file.
+		assertTrue("Saved prefix " + sizes[1] + " of " + sizes[0] + " downloaded",
+				sizes[1] >= sizes[0] - THREAD_NUM * CHUNK_SIZE);
+	}
+
+	@Test
+	public void testReadFailsWhenPaused() throws Exception {
+		mServer.setChunkDelay(100);
+		Downloader downloader = newDownloader();
+		DownloadFuture future = downloader.downloadAsync(null);
+		InputStream in = downloader.openStream();
+		byte [] buffer = new byte[8 * 1024];
+		assertTrue(in.read(buffer) > 0);
+		future.cancel(true);
+		try {
+			while (in.read(buffer) != -1) {
+				// Read the rest saved before the download was paused.
+			}
+			fail("The stream of a paused download ended normally");
+		} catch (IOException e) {
+			// Expected.
+		}
+		in.close();
+		assertEquals(Downloader.State.PAUSED, future.getDownloader().getState());
+	}
+
+	private Downloader newDownloader() {
+		Downloader downloader = new Downloader(null, mServer.getUrl(), mFolder, null, THREAD_NUM);
+		downloader.setScheduling(Downloader.Scheduling.SEQUENTIAL);
+		downloader.setChunkSize(CHUNK_SIZE);
+		downloader.setUpdateTime(50);
+		return downloader;
+	}
+}
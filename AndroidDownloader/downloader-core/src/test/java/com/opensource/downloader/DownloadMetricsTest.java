@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+import com.opensource.downloader.metrics.Histogram;
+import com.opensource.downloader.metrics.MetricsReporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of {@link DownloadMetrics} and the metrics recorded by a download.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadMetricsTest {
+
+	private static final int FILE_SIZE = 1024 * 1024 + 77;
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("metrics");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testSegmentValuesAddedToDownload() {
+		DownloadMetrics metrics = new DownloadMetrics();
+		metrics.segment(1).increment(DownloadMetrics.DOWNLOADED_BYTES, 100);
+		metrics.segment(2).increment(DownloadMetrics.DOWNLOADED_BYTES, 50);
+		metrics.segment(2).record(DownloadMetrics.CONNECT_TIME, 7);
+		assertSame(metrics.segment(1), metrics.segment(1));
+		assertEquals(100, metrics.segment(1).counter(DownloadMetrics.DOWNLOADED_BYTES).getCount());
+		assertEquals(150, metrics.counter(DownloadMetrics.DOWNLOADED_BYTES).getCount());
+		assertEquals(1, metrics.histogram(DownloadMetrics.CONNECT_TIME).getCount());
+		assertEquals(0, metrics.segment(1).histogram(DownloadMetrics.CONNECT_TIME).getCount());
+	}
+
+	@Test
+	public void testHistogram() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getPercentile(50));
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		histogram.record(-5); // Recorded as 0.
+		assertEquals(101, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(0, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50, histogram.getMean());
+		// The upper bound of the power of two bucket, at most the max.
+		assertEquals(63, histogram.getPercentile(50));
+		assertEquals(100, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void testDownloadMetrics() throws Exception {
+		final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+		final List<DownloadMetrics> reported = Collections.synchronizedList(new ArrayList<DownloadMetrics>());
+		Downloader downloader = new Downloader(null, mServer.getUrl(), mFolder, null, 4);
+		downloader.setMetricsReporter(new MetricsReporter() {
+			@Override
+			public void report(String url, DownloadMetrics metrics) {
+				urls.add(url);
+				reported.add(metrics);
+			}
+		});
+		File file = downloader.download(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+
+		assertEquals(Collections.singletonList(mServer.getUrl()), urls);
+		DownloadMetrics metrics = reported.get(0);
+		assertSame(downloader.getMetrics(), metrics);
+		assertEquals(FILE_SIZE, metrics.counter(DownloadMetrics.DOWNLOADED_BYTES).getCount());
+		long segmentBytes = 0;
+		for (DownloadMetrics segment : metrics.getSegments().values()) {
+			segmentBytes += segment.counter(DownloadMetrics.DOWNLOADED_BYTES).getCount();
+		}
+		assertEquals(FILE_SIZE, segmentBytes);
+		assertTrue(metrics.getSegments().size() >= 4);
+		assertTrue(metrics.histogram(DownloadMetrics.CONNECT_TIME).getCount() >= 4);
+		assertTrue(metrics.histogram(DownloadMetrics.FIRST_BYTE_TIME).getCount() >= 4);
+		assertTrue(metrics.histogram(DownloadMetrics.THROUGHPUT).getCount() >= 1);
+		assertTrue(metrics.histogram(DownloadMetrics.DISK_WRITE_LATENCY).getCount() >= 1);
+		assertEquals(1, metrics.histogram(DownloadMetrics.DURATION_MS).getCount());
+		assertEquals(0, metrics.counter(DownloadMetrics.RETRIES).getCount());
+	}
+}
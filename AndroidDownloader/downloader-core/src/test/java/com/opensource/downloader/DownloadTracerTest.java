@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.trace.DownloadTracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of {@link DownloadTracer} and the timeline recorded by a download.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadTracerTest {
+
+	private static final int FILE_SIZE = 512 * 1024 + 3;
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("trace");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testChromeTraceFormat() throws Exception {
+		DownloadTracer tracer = new DownloadTracer();
+		tracer.begin(DownloadTracer.LANE_DOWNLOADER, "probe", "url", "http://a/\"b\"\n");
+		tracer.end(DownloadTracer.LANE_DOWNLOADER, "probe", "size", 10, "ok", true);
+		tracer.instant(2, "split");
+		tracer.complete(2, "checkpoint", System.nanoTime());
+		String json = toJson(tracer);
+		assertTrue(json, json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[{\"ph\":\"B\",\"pid\":1,\"tid\":0,"));
+		assertTrue(json, json.endsWith("]}"));
+		assertTrue(json, json.contains("\"name\":\"probe\",\"args\":{\"url\":\"http://a/\\\"b\\\"\\n\"}}"));
+		assertTrue(json, json.contains("\"name\":\"probe\",\"args\":{\"size\":10,\"ok\":true}}"));
+		assertTrue(json, json.contains("\"ph\":\"i\",\"pid\":1,\"tid\":2,"));
+		assertTrue(json, json.contains("\"name\":\"split\",\"s\":\"t\"}"));
+		assertTrue(json, json.contains("\"name\":\"checkpoint\",\"dur\":"));
+		// Each lane is named once.
+		assertEquals(1, count(json, "\"args\":{\"name\":\"downloader\"}"));
+		assertEquals(1, count(json, "\"args\":{\"name\":\"segment 2\"}"));
+	}
+
+	@Test
+	public void testMaxEvents() throws Exception {
+		DownloadTracer tracer = new DownloadTracer(2);
+		for (int i = 0; i < 5; i++) {
+			tracer.instant(1, "event" + i);
+		}
+		String json = toJson(tracer);
+		assertEquals(2, count(json, "\"ph\":\"i\""));
+		assertTrue(json.contains("event1") && !json.contains("event2"));
+		tracer.clear();
+		tracer.instant(1, "again");
+		assertEquals(1, count(toJson(tracer), "\"ph\":\"i\""));
+	}
+
+	@Test
+	public void testDownloadTimeline() throws Exception {
+		DownloadTracer tracer = new DownloadTracer();
+		Downloader downloader = new Downloader(new MemoryResumeStore(), mServer.getUrl(), mFolder, null, 2);
+		downloader.setTracer(tracer);
+		File file = downloader.download(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		File trace = new File(mFolder, "trace.json");
+		tracer.writeTo(trace);
+		String json = new String(TestFiles.read(trace), "UTF-8");
+		assertEquals(1, count(json, "\"ph\":\"B\",\"pid\":1,\"tid\":0,\"ts\":"));
+		assertTrue(json, json.contains("\"name\":\"rename\""));
+		assertTrue(json, json.contains("\"name\":\"connect\""));
+		assertTrue(json, json.contains("\"name\":\"first_byte\""));
+		for (int segment = 1; segment <= 2; segment++) {
+			String lane = "\"tid\":" + segment + ",";
+			assertEquals(count(json, "\"ph\":\"B\",\"pid\":1," + lane), count(json, "\"ph\":\"E\",\"pid\":1," + lane));
+			// The connect span and the first byte of the segment.
+			assertTrue(json, json.contains("\"ph\":\"X\",\"pid\":1," + lane));
+			assertTrue(json, json.contains("\"ph\":\"i\",\"pid\":1," + lane));
+		}
+	}
+
+	private static String toJson(DownloadTracer tracer) throws IOException {
+		StringWriter writer = new StringWriter();
+		tracer.writeJson(writer);
+		return writer.toString();
+	}
+
+	private static int count(String text, String part) {
+		int count = 0;
+		for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+}
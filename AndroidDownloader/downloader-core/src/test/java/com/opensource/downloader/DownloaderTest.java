@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage The tests of the download engine against a local server, on the plain JVM.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloaderTest {
+
+	private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(FILE_SIZE);
+		mFolder = TestFiles.createFolder("downloader");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testDownload() throws Exception {
+		Downloader downloader = newDownloader(null, 4);
+		File file = downloader.download(null);
+		assertNotNull(file);
+		assertEquals("file.bin", file.getName());
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		assertEquals(Downloader.State.COMPLETED, downloader.getState());
+		assertEquals(0, BufferBudget.getUsed());
+	}
+
+	@Test
+	public void testDownloadWithoutDiskWriter() throws Exception {
+		Downloader downloader = newDownloader(null, 3);
+		downloader.setDiskWriterNum(0);
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+	}
+
+	@Test
+	public void testDownloadMemoryMapped() throws Exception {
+		Downloader downloader = newDownloader(null, 4);
+		downloader.setMemoryMapped(true);
+		downloader.setMappedWindowSize(64 * 1024);
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+	}
+
+	@Test
+	public void testStopAndResume() throws Exception {
+		ResumeStore store = new MemoryResumeStore();
+		mServer.setChunkDelay(20);
+		final Downloader downloader = newDownloader(store, 4);
+		Thread stopper = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					return;
+				}
+				downloader.stop();
+			}
+		};
+		stopper.start();
+		assertNull(downloader.download(null));
+		assertEquals(Downloader.State.PAUSED, downloader.getState());
+
+		List<Segment> segments = store.load(mServer.getUrl());
+		long downloaded = 0;
+		for (Segment segment : segments) {
+			downloaded += segment.getDownloaded();
+		}
+		assertTrue("Nothing saved before stopped", downloaded > 0);
+		assertTrue("Finished before stopped", downloaded < FILE_SIZE);
+
+		mServer.setChunkDelay(0);
+		File file = newDownloader(store, 4).download(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		assertTrue(store.load(mServer.getUrl()).isEmpty());
+	}
+
+	@Test
+	public void testStopInterruptsBlockedRead() throws Exception {
+		ResumeStore store = new MemoryResumeStore();
+		// The server sends the first chunk of each response and then stalls.
+		mServer.setChunkDelay(10 * 1000);
+		final Downloader downloader = newDownloader(store, 4);
+		downloader.setReadTimeout(30 * 1000);
+		final long [] stopTime = {0};
+		Thread stopper = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					return;
+				}
+				stopTime[0] = System.currentTimeMillis();
+				downloader.stop();
+			}
+		};
+		stopper.start();
+		assertNull(downloader.download(null));
+		long elapsed = System.currentTimeMillis() - stopTime[0];
+		stopper.join();
+		assertTrue("Returned " + elapsed + "ms after stopped", elapsed < 2000);
+		assertEquals(Downloader.State.PAUSED, downloader.getState());
+		// The data read before the stall is saved.
+		long downloaded = 0;
+		for (Segment segment : store.load(mServer.getUrl())) {
+			downloaded += segment.getDownloaded();
+		}
+		assertTrue("Nothing saved before stopped", downloaded > 0);
+
+		mServer.setChunkDelay(0);
+		File file = newDownloader(store, 4).download(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+	}
+
+	@Test
+	public void testStreamSink() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Downloader downloader = newDownloader(null, 4);
+		downloader.setChunkSize(256 * 1024);
+		downloader.setSink(new StreamSink(out, 1024 * 1024));
+		assertNull(downloader.download(null));
+		assertArrayEquals(mServer.getData(), out.toByteArray());
+		assertFalse(new File(mFolder, "file.bin").exists());
+		assertEquals(0, BufferBudget.getUsed());
+	}
+
+	@Test
+	public void testRangeIgnored() throws Exception {
+		mServer.setRangeIgnored(true);
+		Downloader downloader = newDownloader(null, 4);
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+		assertEquals(Downloader.State.COMPLETED, downloader.getState());
+	}
+
+	@Test
+	public void testRangeIgnoredBySinkDownload() throws Exception {
+		mServer.setRangeIgnored(true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Downloader downloader = newDownloader(null, 4);
+		downloader.setSink(new StreamSink(out, 1024 * 1024));
+		try {
+			downloader.download(null);
+			fail("The sink was written by the ranges a server ignored");
+		} catch (DownloadException e) {
+			assertEquals(DownloadException.Reason.SERVER, e.getReason());
+		}
+		assertEquals(0, BufferBudget.getUsed());
+	}
+
+	@Test
+	public void testSmallBufferBudget() throws Exception {
+		long limit = BufferBudget.getLimit();
+		BufferBudget.setLimit(64 * 1024);
+		try {
+			Downloader downloader = newDownloader(null, 4);
+			downloader.setWriteBufferSize(256 * 1024);
+			assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+			assertEquals(0, BufferBudget.getUsed());
+		} finally {
+			BufferBudget.setLimit(limit);
+		}
+	}
+
+	@Test
+	public void testCoalescedDownload() throws Exception {
+		mServer.setChunkDelay(5);
+		final Downloader owner = newDownloader(null, 4);
+		final File [] result = new File[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result[0] = owner.download(null);
+				} catch (DownloadException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		Thread.sleep(200);
+		File file = newDownloader(null, 4).download(null);
+		thread.join();
+		assertEquals(result[0], file);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+	}
+
+	@Test
+	public void testConcurrentDownloadToOtherFile() throws Exception {
+		mServer.setChunkDelay(5);
+		final Downloader owner = newDownloader(null, 4);
+		final File [] result = new File[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result[0] = owner.download(null);
+				} catch (DownloadException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		Thread.sleep(200);
+		File folder = new File(mFolder, "other");
+		Downloader other = new Downloader(null, mServer.getUrl(), folder, "other.bin", 4);
+		other.setUpdateTime(100);
+		File file = other.download(null);
+		thread.join();
+		assertEquals(new File(folder, "other.bin").getAbsoluteFile(), file.getAbsoluteFile());
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		assertArrayEquals(mServer.getData(), TestFiles.read(result[0]));
+	}
+
+	@Test
+	public void testCoalescedWaiterInterrupted() throws Exception {
+		mServer.setChunkDelay(20);
+		final Downloader owner = newDownloader(null, 4);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					owner.download(null);
+				} catch (DownloadException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		thread.start();
+		Thread.sleep(200);
+		final Downloader waiter = newDownloader(null, 4);
+		final boolean [] interrupted = new boolean[1];
+		Thread waiterThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					assertNull(waiter.download(null));
+				} catch (DownloadException e) {
+					throw new RuntimeException(e);
+				}
+				interrupted[0] = isInterrupted();
+			}
+		};
+		waiterThread.start();
+		Thread.sleep(200);
+		waiterThread.interrupt();
+		waiterThread.join(2000);
+		assertFalse("The interrupted waiter is still waiting", waiterThread.isAlive());
+		assertTrue("The interrupt is lost", interrupted[0]);
+		assertEquals(Downloader.State.PAUSED, waiter.getState());
+		owner.stop();
+		thread.join();
+	}
+
+	private Downloader newDownloader(ResumeStore store, int threadNum) {
+		Downloader downloader = new Downloader(store, mServer.getUrl(), mFolder, null, threadNum);
+		downloader.setUpdateTime(100);
+		return downloader;
+	}
+}
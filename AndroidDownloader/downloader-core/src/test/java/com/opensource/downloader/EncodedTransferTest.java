@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.opensource.downloader.metrics.DownloadMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of the gzip and deflate encoded transfers, see {@link Downloader#setCompressedTransfer(boolean)}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class EncodedTransferTest {
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		StringBuilder text = new StringBuilder();
+		Random random = new Random(1);
+		while (text.length() < 2 * 1024 * 1024) {
+			text.append("line ").append(random.nextInt(1000)).append('\n');
+		}
+		mServer = TestServer.start(text.toString().getBytes("UTF-8"));
+		mFolder = TestFiles.createFolder("encoded");
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testGzip() throws Exception {
+		mServer.setContentEncoding("gzip", false);
+		assertDecoded(newDownloader());
+	}
+
+	@Test
+	public void testDeflate() throws Exception {
+		mServer.setContentEncoding("deflate", false);
+		assertDecoded(newDownloader());
+	}
+
+	@Test
+	public void testRawDeflate() throws Exception {
+		mServer.setContentEncoding("deflate", true);
+		assertDecoded(newDownloader());
+	}
+
+	@Test
+	public void testGzipToSink() throws Exception {
+		mServer.setContentEncoding("gzip", false);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Downloader downloader = newDownloader();
+		downloader.setSink(new StreamSink(out, 1024 * 1024));
+		assertNull(downloader.download(null));
+		assertArrayEquals(mServer.getData(), out.toByteArray());
+		assertFalse(new File(mFolder, "file.bin").exists());
+	}
+
+	@Test
+	public void testNotAcceptedByDefault() throws Exception {
+		mServer.setContentEncoding("gzip", false);
+		Downloader downloader = new Downloader(null, mServer.getUrl(), mFolder, null, 3);
+		assertArrayEquals(mServer.getData(), TestFiles.read(downloader.download(null)));
+		// The file is downloaded in segments, not in one encoded stream.
+		assertEquals(mServer.getData().length,
+				downloader.getMetrics().counter(DownloadMetrics.DOWNLOADED_BYTES).getCount());
+		assertEquals(1, mServer.getFullRequestCount());
+	}
+
+	private void assertDecoded(Downloader downloader) throws Exception {
+		File file = downloader.download(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		assertEquals(Downloader.State.COMPLETED, downloader.getState());
+		// The progress is counted in both the encoded and the decoded bytes.
+		DownloadMetrics metrics = downloader.getMetrics();
+		assertEquals(mServer.getEncodedData().length, metrics.counter(DownloadMetrics.DOWNLOADED_BYTES).getCount());
+		assertEquals(mServer.getData().length, metrics.counter(DownloadMetrics.DECODED_BYTES).getCount());
+		assertTrue(mServer.getEncodedData().length < mServer.getData().length);
+		// The encoded response is read in the stream of the probe.
+		assertEquals(1, mServer.getFullRequestCount());
+	}
+
+	private Downloader newDownloader() {
+		Downloader downloader = new Downloader(null, mServer.getUrl(), mFolder, null, 3);
+		downloader.setCompressedTransfer(true);
+		return downloader;
+	}
+}
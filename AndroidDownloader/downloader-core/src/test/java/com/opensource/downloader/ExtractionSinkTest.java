@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage The tests of the downloads unpacked by {@link ExtractionSink}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class ExtractionSinkTest {
+
+	private TestServer mServer;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mFolder = TestFiles.createFolder("extraction");
+	}
+
+	@After
+	public void tearDown() {
+		if (null != mServer) {
+			mServer.stop();
+		}
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testZip() throws Exception {
+		Map<String, byte []> entries = newEntries(12, 200 * 1024);
+		File out = download(zip(entries));
+		assertEntries(entries, out);
+	}
+
+	@Test
+	public void testTarGz() throws Exception {
+		Map<String, byte []> entries = newEntries(12, 200 * 1024);
+		ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+		OutputStream out = new GZIPOutputStream(gzip);
+		out.write(tar(entries));
+		out.close();
+		assertEntries(entries, download(gzip.toByteArray()));
+	}
+
+	@Test
+	public void testBrokenArchive() throws Exception {
+		byte [] data = tar(newEntries(4, 100 * 1024));
+		data[148] ^= 1; // Break the checksum of the first header.
+		mServer = TestServer.start(data);
+		Downloader downloader = newDownloader();
+		downloader.setSink(new ExtractionSink(new File(mFolder, "out"), 1024 * 1024));
+		try {
+			downloader.download(null);
+			fail("A broken archive was extracted");
+		} catch (DownloadException e) {
+			assertEquals(DownloadException.Reason.STORAGE, e.getReason());
+		}
+		assertEquals(0, BufferBudget.getUsed());
+	}
+
+	@Test
+	public void testStop() throws Exception {
+		// Many small entries, the extraction is slower than the network and the writers wait for the pipe.
+		mServer = TestServer.start(tar(newEntries(20000, 100)));
+		final Downloader downloader = newDownloader();
+		downloader.setSink(new ExtractionSink(new File(mFolder, "out"), 1024 * 1024));
+		Thread stopper = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+					return;
+				}
+				downloader.stop();
+			}
+		};
+		stopper.start();
+		assertNull(downloader.download(null));
+		stopper.join();
+		assertEquals(Downloader.State.PAUSED, downloader.getState());
+		assertEquals(0, BufferBudget.getUsed());
+	}
+
+	private File download(byte [] archive) throws Exception {
+		mServer = TestServer.start(archive);
+		File out = new File(mFolder, "out");
+		Downloader downloader = newDownloader();
+		downloader.setChunkSize(64 * 1024);
+		ExtractionSink sink = new ExtractionSink(out, 256 * 1024);
+		downloader.setSink(sink);
+		assertNull(downloader.download(null));
+		assertEquals(Downloader.State.COMPLETED, downloader.getState());
+		assertFalse(new File(mFolder, "file.bin").exists());
+		assertEquals(0, BufferBudget.getUsed());
+		return out;
+	}
+
+	private Downloader newDownloader() {
+		Downloader downloader = new Downloader(null, mServer.getUrl(), mFolder, null, 4);
+		downloader.setUpdateTime(100);
+		return downloader;
+	}
+
+	private static void assertEntries(Map<String, byte []> entries, File folder) throws IOException {
+		for (Map.Entry<String, byte []> entry : entries.entrySet()) {
+			assertArrayEquals(entry.getKey(), entry.getValue(), TestFiles.read(new File(folder, entry.getKey())));
+		}
+	}
+
+	private static Map<String, byte []> newEntries(int count, int maxSize) {
+		Random random = new Random(count);
+		Map<String, byte []> entries = new LinkedHashMap<String, byte []>();
+		for (int i = 0; i < count; i++) {
+			byte [] data = new byte[random.nextInt(maxSize)];
+			random.nextBytes(data);
+			entries.put("dir" + (i % 3) + "/file" + i + ".bin", data);
+		}
+		return entries;
+	}
+
+	private static byte [] zip(Map<String, byte []> entries) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ZipOutputStream out = new ZipOutputStream(data);
+		for (Map.Entry<String, byte []> entry : entries.entrySet()) {
+			out.putNextEntry(new ZipEntry(entry.getKey()));
+			out.write(entry.getValue());
+			out.closeEntry();
+		}
+		out.close();
+		return data.toByteArray();
+	}
+
+	/**
+	 * Write the entries as a ustar archive.
+	 */
+	private static byte [] tar(Map<String, byte []> entries) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Map.Entry<String, byte []> entry : entries.entrySet()) {
+			byte [] data = entry.getValue();
+			byte [] header = new byte[512];
+			putString(header, 0, entry.getKey());
+			putString(header, 100, "0000644");
+			putString(header, 108, "0000000");
+			putString(header, 116, "0000000");
+			putString(header, 124, String.format("%011o", data.length));
+			putString(header, 136, String.format("%011o", 1400000000L));
+			header[156] = '0';
+			putString(header, 257, "ustar");
+			putString(header, 263, "00");
+			long sum = 0;
+			for (int i = 0; i < header.length; i++) {
+				sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+			}
+			putString(header, 148, String.format("%06o", sum));
+			header[155] = ' ';
+			out.write(header);
+			out.write(data);
+			out.write(new byte[(512 - data.length % 512) % 512]);
+		}
+		out.write(new byte[1024]);
+		return out.toByteArray();
+	}
+
+	private static void putString(byte [] header, int offset, String value) {
+		byte [] bytes = value.getBytes();
+		System.arraycopy(bytes, 0, header, offset, bytes.length);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage The tests of the file allocation strategies and the free space check.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class FileAllocatorTest {
+
+	private static final int FILE_SIZE = 200 * 1024 + 5;
+
+	private File mFolder;
+	private TestPlatform mPlatform;
+
+	@Before
+	public void setUp() throws IOException {
+		mFolder = TestFiles.createFolder("allocation");
+		mPlatform = new TestPlatform();
+		DownloadPlatform.set(mPlatform);
+	}
+
+	@After
+	public void tearDown() {
+		DownloadPlatform.set(null);
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testSparse() throws Exception {
+		File file = new File(mFolder, "sparse.bin");
+		FileAllocator.allocate(file, FILE_SIZE, Downloader.FileAllocation.SPARSE);
+		assertEquals(FILE_SIZE, file.length());
+		assertEquals(0, mPlatform.mFallocated);
+	}
+
+	@Test
+	public void testPreallocateFilledWithZeros() throws Exception {
+		File file = new File(mFolder, "preallocated.bin");
+		byte [] head = {1, 2, 3};
+		TestFiles.write(file, head);
+		FileAllocator.allocate(file, FILE_SIZE, Downloader.FileAllocation.PREALLOCATE);
+		// The platform can't fallocate, the rest of the file is written with zeros and the data is kept.
+		assertEquals(FILE_SIZE - head.length, mPlatform.mFallocated);
+		byte [] expected = new byte[FILE_SIZE];
+		System.arraycopy(head, 0, expected, 0, head.length);
+		assertArrayEquals(expected, TestFiles.read(file));
+	}
+
+	@Test
+	public void testInsufficientSpace() throws Exception {
+		TestServer server = TestServer.start(FILE_SIZE);
+		try {
+			mPlatform.mUsableSpace = FILE_SIZE - 1;
+			Downloader downloader = new Downloader(null, server.getUrl(), mFolder, "file.bin", 2);
+			try {
+				downloader.download(null);
+				fail("Downloaded without enough space");
+			} catch (DownloadException e) {
+				assertEquals(DownloadException.Reason.INSUFFICIENT_SPACE, e.getReason());
+			}
+			assertEquals(Downloader.State.FAILED, downloader.getState());
+			assertFalse("The file is created", new File(mFolder, "file.bin.download").exists());
+		} finally {
+			server.stop();
+		}
+	}
+
+	/**
+	 * The platform which can't fallocate and has the usable space set by the test.
+	 */
+	private static class TestPlatform extends DownloadPlatform {
+
+		volatile long mUsableSpace = Long.MAX_VALUE;
+		volatile long mFallocated = 0;
+
+		@Override
+		public long getUsableSpace(File folder) {
+			return mUsableSpace;
+		}
+
+		@Override
+		public boolean fallocate(RandomAccessFile file, long offset, long length) throws IOException {
+			mFallocated += length;
+			return false;
+		}
+	}
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Usage The h2c server of the tests, with prior knowledge. It serves one random file with range requests,
+ * honors the flow control of the client and pads some of the data frames. A connection which doesn't
+ * start with the preface of HTTP/2 is answered in HTTP/1.1, such as the probe of the downloader.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class Http2TestServer implements Runnable {
+
+	private static final String PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n";
+	private static final int MAX_FRAME_SIZE = 16384;
+
+	private static final int TYPE_DATA = 0x0;
+	private static final int TYPE_HEADERS = 0x1;
+	private static final int TYPE_RST_STREAM = 0x3;
+	private static final int TYPE_SETTINGS = 0x4;
+	private static final int TYPE_PING = 0x6;
+	private static final int TYPE_GOAWAY = 0x7;
+	private static final int TYPE_WINDOW_UPDATE = 0x8;
+
+	private static final int FLAG_END_STREAM = 0x1;
+	private static final int FLAG_ACK = 0x1;
+	private static final int FLAG_END_HEADERS = 0x4;
+	private static final int FLAG_PADDED = 0x8;
+
+	private final byte [] mData;
+	private final ServerSocket mServerSocket;
+
+	final AtomicInteger mHttp2Connections = new AtomicInteger();
+	final AtomicInteger mStreams = new AtomicInteger();
+	final AtomicInteger mResets = new AtomicInteger();
+	final AtomicInteger mMaxActiveStreams = new AtomicInteger();
+	private final AtomicInteger mActiveStreams = new AtomicInteger();
+
+	private volatile int mMaxConcurrentStreams = 100;
+	private volatile int mGoAwayAfter = -1;
+	private volatile long mFrameDelay = 0;
+
+	Http2TestServer(int size) throws IOException {
+		mData = new byte[size];
+		new Random(size).nextBytes(mData);
+		mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(this, "Http2TestServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	byte [] getData() {
+		return mData;
+	}
+
+	String getUrl() {
+		return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/file.bin";
+	}
+
+	/**
+	 * Set the SETTINGS_MAX_CONCURRENT_STREAMS of the connections accepted after.
+	 */
+	void setMaxConcurrentStreams(int max) {
+		this.mMaxConcurrentStreams = max;
+	}
+
+	/**
+	 * Send GOAWAY on each connection after it has got the number of streams.
+	 */
+	void setGoAwayAfter(int streams) {
+		this.mGoAwayAfter = streams;
+	}
+
+	/**
+	 * Sleep after each data frame, to keep the downloads running for a while.
+	 */
+	void setFrameDelay(long millis) {
+		this.mFrameDelay = millis;
+	}
+
+	void stop() {
+		try {
+			mServerSocket.close();
+		} catch (IOException e) {
+			// Closed already.
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = mServerSocket.accept();
+			} catch (IOException e) {
+				return; // Stopped.
+			}
+			Thread handler = new Thread() {
+				@Override
+				public void run() {
+					handle(socket);
+				}
+			};
+			handler.setDaemon(true);
+			handler.start();
+		}
+	}
+
+	private void handle(Socket socket) {
+		try {
+			PushbackInputStream in = new PushbackInputStream(new BufferedInputStream(socket.getInputStream()), 3);
+			byte [] head = new byte[3];
+			int read = 0;
+			while (read < head.length) {
+				int n = in.read(head, read, head.length - read);
+				if (n == -1) {
+					return;
+				}
+				read += n;
+			}
+			in.unread(head);
+			if (new String(head, "ISO-8859-1").equals(PREFACE.substring(0, 3))) {
+				mHttp2Connections.incrementAndGet();
+				new Connection(socket, new DataInputStream(in)).serve();
+			} else {
+				serveHttp1(socket, in);
+			}
+		} catch (Exception e) {
+			// The connection is closed by the client.
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Closed already.
+			}
+		}
+	}
+
+	private void serveHttp1(Socket socket, InputStream in) throws IOException {
+		// Skip the request, the response is the whole file.
+		int matched = 0;
+		while (matched < 4) {
+			int b = in.read();
+			if (b == -1) {
+				return;
+			}
+			matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : b == '\r' ? 1 : 0;
+		}
+		OutputStream out = socket.getOutputStream();
+		out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + mData.length
+				+ "\r\nAccept-Ranges: bytes\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+		out.write(mData);
+		out.flush();
+	}
+
+	private static int getInt(byte [] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+				| ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+	}
+
+	private static void putInt(byte [] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Usage One HTTP/2 connection, the frames are read on the thread of the connection,
+	 * and each stream is answered on its own thread.
+	 * @author yinglovezhuzhu@gmail.com
+	 *
+	 */
+	private class Connection {
+
+		private final DataInputStream mIn;
+		private final OutputStream mOut;
+		private final Hpack.Reader mHpack = new Hpack.Reader();
+		// {window, reset} of the open streams, guarded by this.
+		private final Map<Integer, int []> mWindows = new HashMap<Integer, int []>();
+		private int mConnectionWindow = Http2Connection.DEFAULT_WINDOW_SIZE; // Guarded by this.
+		private int mInitialWindow = Http2Connection.DEFAULT_WINDOW_SIZE; // Guarded by this.
+		private boolean mClosed = false; // Guarded by this.
+		private boolean mServerIndexed = false; // Guarded by this.
+		private int mStreamCount = 0;
+
+		Connection(Socket socket, DataInputStream in) throws IOException {
+			this.mIn = in;
+			this.mOut = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		void serve() throws IOException {
+			byte [] preface = new byte[PREFACE.length()];
+			mIn.readFully(preface);
+			if (!PREFACE.equals(new String(preface, "ISO-8859-1"))) {
+				throw new IOException("Invalid preface");
+			}
+			byte [] settings = new byte[6];
+			settings[1] = 3; // SETTINGS_MAX_CONCURRENT_STREAMS
+			putInt(settings, 2, mMaxConcurrentStreams);
+			writeFrame(TYPE_SETTINGS, 0, 0, settings);
+			try {
+				while (true) {
+					int length = (mIn.readUnsignedByte() << 16) | (mIn.readUnsignedByte() << 8) | mIn.readUnsignedByte();
+					int type = mIn.readUnsignedByte();
+					int flags = mIn.readUnsignedByte();
+					int streamId = mIn.readInt() & 0x7FFFFFFF;
+					byte [] payload = new byte[length];
+					mIn.readFully(payload);
+					switch (type) {
+					case TYPE_SETTINGS:
+						if ((flags & FLAG_ACK) == 0) {
+							readSettings(payload);
+							writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]);
+						}
+						break;
+					case TYPE_WINDOW_UPDATE:
+						synchronized (this) {
+							int increment = getInt(payload, 0);
+							if (0 == streamId) {
+								mConnectionWindow += increment;
+							} else if (mWindows.containsKey(streamId)) {
+								mWindows.get(streamId)[0] += increment;
+							}
+							notifyAll();
+						}
+						break;
+					case TYPE_RST_STREAM:
+						synchronized (this) {
+							if (mWindows.containsKey(streamId)) {
+								mWindows.get(streamId)[1] = 1;
+								closeStream(streamId);
+							}
+							mResets.incrementAndGet();
+							notifyAll();
+						}
+						break;
+					case TYPE_PING:
+						if ((flags & FLAG_ACK) == 0) {
+							writeFrame(TYPE_PING, FLAG_ACK, 0, payload);
+						}
+						break;
+					case TYPE_GOAWAY:
+						return;
+					case TYPE_HEADERS:
+						readHeaders(streamId, flags, payload);
+						break;
+					default:
+						break;
+					}
+				}
+			} finally {
+				synchronized (this) {
+					mClosed = true;
+					mActiveStreams.addAndGet(-mWindows.size());
+					mWindows.clear();
+					notifyAll();
+				}
+			}
+		}
+
+		private synchronized void readSettings(byte [] payload) {
+			for (int i = 0; i + 6 <= payload.length; i += 6) {
+				int key = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+				if (4 == key) { // SETTINGS_INITIAL_WINDOW_SIZE
+					int value = getInt(payload, i + 2);
+					for (int [] window : mWindows.values()) {
+						window[0] += value - mInitialWindow;
+					}
+					mInitialWindow = value;
+				}
+			}
+			notifyAll();
+		}
+
+		private void readHeaders(final int streamId, int flags, byte [] payload) throws IOException {
+			if ((flags & FLAG_END_HEADERS) == 0) {
+				throw new IOException("CONTINUATION is not supported by the test server");
+			}
+			final Map<String, String> headers = new HashMap<String, String>();
+			List<String []> fields = mHpack.decode(payload, 0, payload.length);
+			for (String [] field : fields) {
+				headers.put(field[0], field[1]);
+			}
+			synchronized (this) {
+				mWindows.put(streamId, new int [] {mInitialWindow, 0});
+			}
+			mStreams.incrementAndGet();
+			int active = mActiveStreams.incrementAndGet();
+			synchronized (mMaxActiveStreams) {
+				mMaxActiveStreams.set(Math.max(active, mMaxActiveStreams.get()));
+			}
+			Thread responder = new Thread() {
+				@Override
+				public void run() {
+					try {
+						respond(streamId, headers);
+					} catch (Exception e) {
+						// The connection is closed.
+					} finally {
+						synchronized (Connection.this) {
+							closeStream(streamId);
+						}
+					}
+				}
+			};
+			responder.setDaemon(true);
+			responder.start();
+			if (++mStreamCount == mGoAwayAfter) {
+				byte [] goAway = new byte[8];
+				putInt(goAway, 0, streamId);
+				writeFrame(TYPE_GOAWAY, 0, 0, goAway);
+			}
+		}
+
+		private void respond(int streamId, Map<String, String> headers) throws Exception {
+			if (!"GET".equals(headers.get(":method")) || headers.containsKey("connection")) {
+				throw new IOException("Invalid request " + headers);
+			}
+			int start = 0;
+			int end = mData.length - 1;
+			String range = headers.get("range");
+			if (null != range) {
+				String [] bounds = range.substring(6).split("-");
+				start = Integer.parseInt(bounds[0]);
+				if (bounds.length > 1) {
+					end = Math.min(end, Integer.parseInt(bounds[1]));
+				}
+			}
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			block.write(null == range ? 0x88 : 0x8A); // :status 200 or 206 of the static table.
+			block.write(0x0F); // content-length without indexing, the name is 28 of the static table.
+			block.write(28 - 15);
+			writeString(block, String.valueOf(end - start + 1));
+			if (null != range) {
+				block.write(0x0F); // content-range without indexing, the name is 30 of the static table.
+				block.write(30 - 15);
+				writeString(block, "bytes " + start + "-" + end + "/" + mData.length);
+			}
+			// The block which adds the server header to the dynamic table must be sent before the ones
+			// referring to it, so it is encoded and written in one lock.
+			synchronized (this) {
+				if (mServerIndexed) {
+					block.write(0x80 | 62); // The server header in the dynamic table.
+				} else {
+					block.write(0x40 | 54); // server: test, added to the dynamic table.
+					writeString(block, "test");
+					mServerIndexed = true;
+				}
+				writeFrame(TYPE_HEADERS, FLAG_END_HEADERS, streamId, block.toByteArray());
+			}
+			int [] window;
+			synchronized (this) {
+				window = mWindows.get(streamId);
+			}
+			if (null == window) {
+				return;
+			}
+			Random random = new Random(streamId);
+			int position = start;
+			while (position <= end) {
+				byte [] payload;
+				int length;
+				synchronized (this) {
+					while (!mClosed && 0 == window[1] && (window[0] <= 0 || mConnectionWindow <= 0)) {
+						wait();
+					}
+					if (mClosed || 0 != window[1]) {
+						return;
+					}
+					int available = Math.min(window[0], mConnectionWindow);
+					length = Math.min(Math.min(MAX_FRAME_SIZE - 256, end - position + 1), available);
+					int padding = random.nextInt(4) == 0 ? Math.min(200, available - length - 1) : -1;
+					int flags = position + length > end ? FLAG_END_STREAM : 0;
+					if (padding >= 0) {
+						payload = new byte[1 + length + padding];
+						payload[0] = (byte) padding;
+						System.arraycopy(mData, position, payload, 1, length);
+						flags |= FLAG_PADDED;
+					} else {
+						payload = new byte[length];
+						System.arraycopy(mData, position, payload, 0, length);
+					}
+					window[0] -= payload.length;
+					mConnectionWindow -= payload.length;
+					if (0 != (flags & FLAG_END_STREAM)) {
+						// The client may open another stream as soon as it reads the end.
+						closeStream(streamId);
+					}
+					writeFrame(TYPE_DATA, flags, streamId, payload);
+				}
+				position += length;
+				if (mFrameDelay > 0) {
+					Thread.sleep(mFrameDelay);
+				}
+			}
+		}
+
+		/**
+		 * The stream is closed when the server ends it or the client resets it, guarded by this.
+		 * @param streamId
+		 */
+		private void closeStream(int streamId) {
+			if (null != mWindows.remove(streamId)) {
+				mActiveStreams.decrementAndGet();
+			}
+		}
+
+		private void writeString(ByteArrayOutputStream out, String value) throws IOException {
+			byte [] bytes = value.getBytes("ISO-8859-1");
+			out.write(bytes.length); // Shorter than 127 bytes, not Huffman coded.
+			out.write(bytes);
+		}
+
+		private synchronized void writeFrame(int type, int flags, int streamId, byte [] payload) throws IOException {
+			mOut.write(payload.length >>> 16);
+			mOut.write(payload.length >>> 8);
+			mOut.write(payload.length);
+			mOut.write(type);
+			mOut.write(flags);
+			mOut.write(streamId >>> 24);
+			mOut.write(streamId >>> 16);
+			mOut.write(streamId >>> 8);
+			mOut.write(streamId);
+			mOut.write(payload);
+			mOut.flush();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of {@link Http2Transport} against a local h2c server.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class Http2TransportTest {
+
+	private static final int FILE_SIZE = 3 * 1024 * 1024 + 77;
+
+	private Http2TestServer mServer;
+	private Http2Transport mTransport;
+	private File mFolder;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = new Http2TestServer(FILE_SIZE);
+		mTransport = new Http2Transport();
+		mTransport.setStreamWindowSize(256 * 1024);
+		mFolder = TestFiles.createFolder("http2");
+	}
+
+	@After
+	public void tearDown() {
+		mTransport.close();
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testStreamsShareConnection() throws Exception {
+		download(newDownloader(null));
+		download(newDownloader(null));
+		assertEquals(1, mServer.mHttp2Connections.get());
+		assertTrue(mServer.mStreams.get() >= 8);
+	}
+
+	@Test
+	public void testMaxConcurrentStreams() throws Exception {
+		mServer.setMaxConcurrentStreams(2);
+		download(newDownloader(null));
+		assertTrue("Too many streams at a time", mServer.mMaxActiveStreams.get() <= 2);
+	}
+
+	@Test
+	public void testGoAway() throws Exception {
+		mServer.setGoAwayAfter(2);
+		download(newDownloader(null));
+		assertTrue("No new connection after GOAWAY", mServer.mHttp2Connections.get() >= 2);
+	}
+
+	@Test
+	public void testIdleConnectionClosed() throws Exception {
+		mTransport.setIdleTimeout(200);
+		download(newDownloader(null));
+		Thread.sleep(1000);
+		download(newDownloader(null));
+		assertEquals(2, mServer.mHttp2Connections.get());
+	}
+
+	@Test
+	public void testStopAndResume() throws Exception {
+		ResumeStore store = new MemoryResumeStore();
+		mServer.setFrameDelay(20);
+		final Downloader downloader = newDownloader(store);
+		Thread stopper = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+					return;
+				}
+				downloader.stop();
+			}
+		};
+		stopper.start();
+		assertNull(downloader.download(null));
+		assertTrue("The streams are not reset when stopped", mServer.mResets.get() > 0);
+		mServer.setFrameDelay(0);
+		download(newDownloader(store));
+		assertEquals(1, mServer.mHttp2Connections.get());
+	}
+
+	@Test
+	public void testSlowConnectDoesNotBlockOtherOrigins() throws Exception {
+		// A server which never accepts, the connects to it wait once its backlog is full.
+		ServerSocket slow = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		List<Socket> backlog = new ArrayList<Socket>();
+		try {
+			for (int i = 0; i < 4; i++) {
+				Socket socket = new Socket();
+				try {
+					socket.connect(slow.getLocalSocketAddress(), 200);
+				} catch (IOException e) {
+					socket.close();
+					break;
+				}
+				backlog.add(socket);
+			}
+			final HttpTransport.Exchange blocked = mTransport.newExchange(
+					new URL("http://127.0.0.1:" + slow.getLocalPort() + "/file.bin"));
+			Thread connector = new Thread() {
+				@Override
+				public void run() {
+					try {
+						blocked.connect(3000, 3000);
+					} catch (IOException e) {
+						// Timed out as expected.
+					}
+				}
+			};
+			connector.start();
+			Thread.sleep(200);
+			long start = System.currentTimeMillis();
+			HttpTransport.Exchange exchange = mTransport.newExchange(new URL(mServer.getUrl()));
+			exchange.setRequestProperty("Range", "bytes=0-99");
+			exchange.connect(3000, 3000);
+			assertEquals(206, exchange.getResponseCode());
+			exchange.cancel();
+			assertTrue("The exchange waited for the connect to another origin",
+					System.currentTimeMillis() - start < 1000);
+			connector.join();
+		} finally {
+			for (Socket socket : backlog) {
+				socket.close();
+			}
+			slow.close();
+		}
+	}
+
+	private Downloader newDownloader(ResumeStore store) {
+		Downloader downloader = new Downloader(store, mServer.getUrl(), mFolder, null, 4);
+		downloader.setUpdateTime(100);
+		downloader.setTransport(mTransport);
+		return downloader;
+	}
+
+	private void download(Downloader downloader) throws Exception {
+		File file = downloader.download(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		file.delete();
+	}
+}
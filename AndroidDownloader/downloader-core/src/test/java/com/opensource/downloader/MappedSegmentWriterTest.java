@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of {@link MappedSegmentWriter}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class MappedSegmentWriterTest {
+
+	private static final int FILE_SIZE = 300 * 1024 + 17;
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	private File mFolder;
+	private File mFile;
+
+	@Before
+	public void setUp() throws IOException {
+		mFolder = TestFiles.createFolder("mapped");
+		mFile = new File(mFolder, "file.bin");
+	}
+
+	@After
+	public void tearDown() {
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testWindowsUnmapped() throws Exception {
+		byte [] data = new byte[FILE_SIZE];
+		new Random(FILE_SIZE).nextBytes(data);
+		long start = 1000;
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.setLength(FILE_SIZE);
+			MappedSegmentWriter writer = new MappedSegmentWriter(file.getChannel(), start, FILE_SIZE, WINDOW_SIZE);
+			ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(data, (int) start, FILE_SIZE));
+			while (writer.transferFrom(in, 4096) >= 0) {
+				assertTrue("Released windows are still mapped", getMappings() <= 1);
+			}
+			assertEquals(FILE_SIZE, writer.getPosition());
+			writer.close();
+			assertEquals(0, getMappings());
+		} finally {
+			file.close();
+		}
+		byte [] saved = TestFiles.read(mFile);
+		assertArrayEquals(Arrays.copyOfRange(data, (int) start, FILE_SIZE),
+				Arrays.copyOfRange(saved, (int) start, FILE_SIZE));
+	}
+
+	@Test
+	public void testUnmapSupported() throws Exception {
+		RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+		try {
+			file.setLength(WINDOW_SIZE);
+			MappedByteBuffer window = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_SIZE);
+			assertTrue("Can't unmap on this runtime", MappedSegmentWriter.unmap(window));
+		} finally {
+			file.close();
+		}
+		assertTrue(getMappings() <= 0);
+	}
+
+	/**
+	 * Count the mappings of the file in this process, -1 if the runtime doesn't tell it.
+	 */
+	private int getMappings() throws IOException {
+		File maps = new File("/proc/self/maps");
+		if (!maps.exists()) {
+			return -1;
+		}
+		String path = mFile.getCanonicalPath();
+		int count = 0;
+		BufferedReader reader = new BufferedReader(new FileReader(maps));
+		try {
+			String line;
+			while (null != (line = reader.readLine())) {
+				if (line.endsWith(path)) {
+					count++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of {@link MultiAddressTransport}, the addresses of the host are several loopback
+ * addresses of one server.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class MultiAddressTransportTest {
+
+	private static final String [] ADDRESSES = {"127.0.0.1", "127.0.0.2", "127.0.0.3", "127.0.0.4"};
+
+	private TestServer mServer;
+	private File mFolder;
+	private MultiAddressTransport mTransport;
+
+	@Before
+	public void setUp() throws IOException {
+		mServer = TestServer.start(4 * 1024 * 1024, "0.0.0.0");
+		mFolder = TestFiles.createFolder("multi");
+		mTransport = new MultiAddressTransport() {
+			@Override
+			protected InetAddress [] resolve(String host) throws UnknownHostException {
+				InetAddress [] addresses = new InetAddress[ADDRESSES.length];
+				for (int i = 0; i < ADDRESSES.length; i++) {
+					addresses[i] = InetAddress.getByName(ADDRESSES[i]);
+				}
+				return addresses;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testSpreadOverAddresses() throws Exception {
+		download();
+		for (String address : ADDRESSES) {
+			assertTrue("No request to " + address, mServer.getRequestCount(address) > 0);
+		}
+		// The requests to the addresses are sent to the host by name.
+		assertEquals(Collections.singleton("localhost:" + mServer.getPort()), mServer.getHosts());
+	}
+
+	@Test
+	public void testFailingAddressPulledOut() throws Exception {
+		mServer.setFailing("127.0.0.4");
+		download();
+		int failed = mServer.getRequestCount("127.0.0.4");
+		assertTrue(failed > 0);
+		download();
+		assertEquals("Requests to the failing address", failed, mServer.getRequestCount("127.0.0.4"));
+	}
+
+	@Test
+	public void testSlowAddressAvoided() throws Exception {
+		mServer.setSlow("127.0.0.3");
+		download();
+		int slow = mServer.getRequestCount("127.0.0.3");
+		int fast = mServer.getRequestCount("127.0.0.1");
+		download();
+		assertTrue("The slow address is not avoided",
+				mServer.getRequestCount("127.0.0.3") - slow < mServer.getRequestCount("127.0.0.1") - fast);
+	}
+
+	private void download() throws Exception {
+		// The file is probed by the name, the segments go through the transport.
+		Downloader downloader = new Downloader(null, "http://localhost:" + mServer.getPort() + "/file.bin",
+				mFolder, null, 8);
+		downloader.setUpdateTime(100);
+		downloader.setTransport(mTransport);
+		File file = downloader.download(null);
+		assertArrayEquals(mServer.getData(), TestFiles.read(file));
+		file.delete();
+	}
+}
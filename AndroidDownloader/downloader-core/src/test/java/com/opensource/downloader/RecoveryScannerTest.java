@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of {@link RecoveryScanner} with the logs in a {@link MemoryResumeStore}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class RecoveryScannerTest {
+
+	private static final String URL = "http://127.0.0.1/a.bin";
+
+	private File mFolder;
+	private MemoryResumeStore mStore;
+
+	@Before
+	public void setUp() throws IOException {
+		mFolder = TestFiles.createFolder("recovery");
+		mStore = new MemoryResumeStore();
+	}
+
+	@After
+	public void tearDown() {
+		TestFiles.delete(mFolder);
+	}
+
+	@Test
+	public void testResumable() throws Exception {
+		File tempFile = createTempFile("a.bin.download", 1000);
+		mStore.save(URL, tempFile.getAbsolutePath(), Arrays.asList(new Segment(1, 0, 500, 500), new Segment(2, 500, 1000, 200)));
+		ResumableDownload download = new RecoveryScanner(mStore).getResumableDownload(URL);
+		assertNotNull(download);
+		assertEquals(new File(mFolder, "a.bin").getAbsolutePath(), download.getFile().getAbsolutePath());
+		assertEquals(1000, download.getFileSize());
+		assertEquals(700, download.getDownloadedSize());
+	}
+
+	@Test
+	public void testTruncatedTempFile() throws Exception {
+		File tempFile = createTempFile("a.bin.download", 600);
+		mStore.save(URL, tempFile.getAbsolutePath(), Arrays.asList(new Segment(1, 0, 500, 400), new Segment(2, 500, 1000, 300)));
+		ResumableDownload download = new RecoveryScanner(mStore).getResumableDownload(URL);
+		assertNotNull(download);
+		// The data of the second segment beyond the end of the temp file is lost.
+		assertEquals(500, download.getDownloadedSize());
+		List<Segment> segments = mStore.load(URL);
+		assertEquals(400, segments.get(0).getDownloaded());
+		assertEquals(100, segments.get(1).getDownloaded());
+	}
+
+	@Test
+	public void testBrokenLog() throws Exception {
+		File tempFile = createTempFile("a.bin.download", 1000);
+		// The segments don't tile the file.
+		mStore.save(URL, tempFile.getAbsolutePath(), Arrays.asList(new Segment(1, 0, 400, 400), new Segment(2, 500, 1000, 300)));
+		RecoveryScanner scanner = new RecoveryScanner(mStore);
+		assertNull(scanner.getResumableDownload(URL));
+		assertEquals(2, scanner.getDeletedCount());
+		assertFalse(tempFile.exists());
+		assertTrue(mStore.load(URL).isEmpty());
+	}
+
+	@Test
+	public void testDownloadStartedDuringScan() throws Exception {
+		final TestServer server = TestServer.start(1024 * 1024);
+		server.setChunkDelay(20);
+		final File tempFile = createTempFile("a.bin.download", 1000);
+		final Downloader downloader = new Downloader(null, server.getUrl(), mFolder, "a.bin", 1);
+		final boolean [] started = {false};
+		try {
+			// The download starts after the broken log is checked, before the scan writes the store.
+			final Segment segment = new Segment(1, 0, 400, 400) {
+				@Override
+				public long getEnd() {
+					if (!started[0]) {
+						started[0] = true;
+						downloader.downloadAsync(null);
+						while (!Downloader.isActive(null, tempFile)) {
+							Thread.yield();
+						}
+					}
+					return super.getEnd();
+				}
+			};
+			MemoryResumeStore store = new MemoryResumeStore() {
+				@Override
+				public synchronized Map<String, List<Segment>> loadAll(Map<String, String> files) {
+					files.put(server.getUrl(), tempFile.getAbsolutePath());
+					Map<String, List<Segment>> logs = new HashMap<String, List<Segment>>();
+					logs.put(server.getUrl(), Arrays.asList(segment, new Segment(2, 500, 1000, 300)));
+					return logs;
+				}
+			};
+			RecoveryScanner scanner = new RecoveryScanner(store);
+			assertNull(scanner.getResumableDownload(server.getUrl()));
+			assertEquals(0, scanner.getDeletedCount());
+			assertTrue("The temp file of the running download is deleted", tempFile.exists());
+		} finally {
+			downloader.stop();
+			while (Downloader.isActive(null, tempFile)) {
+				Thread.sleep(10);
+			}
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testLostTempFile() throws Exception {
+		mStore.save(URL, new File(mFolder, "a.bin.download").getAbsolutePath(), Arrays.asList(new Segment(1, 0, 1000, 10)));
+		RecoveryScanner scanner = new RecoveryScanner(mStore);
+		assertTrue(scanner.getResumableDownloads().isEmpty());
+		assertTrue(mStore.load(URL).isEmpty());
+	}
+
+	@Test
+	public void testOrphanedTempFiles() throws Exception {
+		File orphan = createTempFile("old.bin.download", 10);
+		orphan.setLastModified(System.currentTimeMillis() - 120 * 1000);
+		File fresh = createTempFile("new.bin.download", 10);
+		File other = createTempFile("old.bin", 10);
+		other.setLastModified(System.currentTimeMillis() - 120 * 1000);
+		RecoveryScanner scanner = new RecoveryScanner(mStore);
+		scanner.addFolder(mFolder);
+		scanner.setOrphanAge(60 * 1000);
+		assertEquals(1, scanner.getDeletedCount());
+		assertFalse(orphan.exists());
+		assertTrue(fresh.exists());
+		assertTrue(other.exists());
+	}
+
+	private File createTempFile(String name, int size) throws IOException {
+		File file = new File(mFolder, name);
+		TestFiles.write(file, new byte[size]);
+		return file;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage The tests of {@link StreamSink}.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class StreamSinkTest {
+
+	private static final byte [] DATA = "0123456789".getBytes();
+
+	private ByteArrayOutputStream mOut;
+	private long mBudgetUsed;
+
+	@Before
+	public void setUp() {
+		mOut = new ByteArrayOutputStream();
+		mBudgetUsed = BufferBudget.getUsed();
+	}
+
+	@Test
+	public void testWritesInOrder() throws Exception {
+		StreamSink sink = new StreamSink(mOut, 10);
+		sink.open(DATA.length);
+		sink.write(5, DATA, 5, 5);
+		assertEquals(0, mOut.size());
+		assertEquals(mBudgetUsed + 5, BufferBudget.getUsed());
+		sink.write(0, DATA, 0, 5);
+		assertEquals("0123456789", mOut.toString());
+		assertEquals(10, sink.getPosition());
+		assertEquals(mBudgetUsed, BufferBudget.getUsed());
+		sink.close();
+	}
+
+	@Test
+	public void testWriteBeyondWindowBlocks() throws Exception {
+		final StreamSink sink = new StreamSink(mOut, 4);
+		sink.open(DATA.length);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					sink.write(4, DATA, 4, 6);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		writer.start();
+		writer.join(200);
+		assertTrue("The write beyond the window didn't block", writer.isAlive());
+		sink.write(0, DATA, 0, 4);
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertEquals("0123456789", mOut.toString());
+		sink.close();
+	}
+
+	@Test
+	public void testAbortReleasesBudget() throws Exception {
+		StreamSink sink = new StreamSink(mOut, 10);
+		sink.open(DATA.length);
+		sink.write(5, DATA, 5, 5);
+		sink.abort();
+		assertEquals(mBudgetUsed, BufferBudget.getUsed());
+		try {
+			sink.write(0, DATA, 0, 5);
+			fail("Write after abort");
+		} catch (IOException e) {
+			// Expected.
+		}
+		assertEquals(0, mOut.size());
+	}
+
+	@Test
+	public void testCloseBeforeEnd() throws Exception {
+		StreamSink sink = new StreamSink(mOut, 10);
+		sink.open(DATA.length);
+		sink.write(0, DATA, 0, 5);
+		try {
+			sink.close();
+			fail("Closed before the end of the stream");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+}
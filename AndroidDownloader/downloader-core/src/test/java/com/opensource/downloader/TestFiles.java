@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Usage The file utils of the tests.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class TestFiles {
+
+	private TestFiles() {
+	}
+
+	/**
+	 * Create an empty folder in the temp folder.
+	 */
+	static File createFolder(String prefix) throws IOException {
+		File folder = File.createTempFile(prefix, "");
+		if (!folder.delete() || !folder.mkdirs()) {
+			throw new IOException("Failed to create " + folder);
+		}
+		return folder;
+	}
+
+	/**
+	 * Delete the file, or the folder with all its files.
+	 */
+	static void delete(File file) {
+		File [] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	static byte [] read(File file) throws IOException {
+		byte [] data = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < data.length) {
+				int n = in.read(data, read, data.length - read);
+				if (n == -1) {
+					throw new IOException("Unexpected end of " + file);
+				}
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	static void write(File file, byte [] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Usage The HTTP/1.1 server of the tests, it serves one random file with range requests.
+ * The requests are counted by the local address they came to, so a server bound to all the
+ * addresses can stand in for several servers of a host.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+final class TestServer {
+
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private final byte [] mData;
+	private final HttpServer mServer;
+	private final Map<String, AtomicInteger> mRequests = new ConcurrentHashMap<String, AtomicInteger>();
+	private final Set<String> mHosts = Collections.synchronizedSet(new HashSet<String>());
+	private final Set<String> mFailingAddresses = Collections.synchronizedSet(new HashSet<String>());
+	private final Set<String> mSlowAddresses = Collections.synchronizedSet(new HashSet<String>());
+	private final AtomicInteger mFullRequests = new AtomicInteger();
+	private volatile long mChunkDelay = 0;
+	private volatile boolean mRangeIgnored = false;
+	private volatile String mEncoding; // The content encoding of the responses, null to send the file as is.
+	private volatile byte [] mEncodedData;
+	private volatile int mCorruptedPosition = -1;
+	private final AtomicInteger mCorruptedTimes = new AtomicInteger();
+
+	private TestServer(byte [] data, String host) throws IOException {
+		this.mData = data;
+		mServer = HttpServer.create(new InetSocketAddress(host, 0), 50);
+		mServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		mServer.setExecutor(Executors.newCachedThreadPool());
+		mServer.start();
+	}
+
+	/**
+	 * Start a server of a random file on the loopback address.
+	 * @param size The size of the file.
+	 */
+	static TestServer start(int size) throws IOException {
+		return start(size, "127.0.0.1");
+	}
+
+	/**
+	 * Start a server of the data on the loopback address.
+	 * @param data The file to serve.
+	 */
+	static TestServer start(byte [] data) throws IOException {
+		return new TestServer(data, "127.0.0.1");
+	}
+
+	/**
+	 * Start a server of a random file.
+	 * @param size The size of the file.
+	 * @param host The address to bind, 0.0.0.0 to serve all the loopback addresses.
+	 */
+	static TestServer start(int size, String host) throws IOException {
+		byte [] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return new TestServer(data, host);
+	}
+
+	byte [] getData() {
+		return mData;
+	}
+
+	int getPort() {
+		return mServer.getAddress().getPort();
+	}
+
+	String getUrl() {
+		return "http://127.0.0.1:" + getPort() + "/file.bin";
+	}
+
+	/**
+	 * Sleep after each chunk of a response, to keep the downloads running for a while.
+	 */
+	void setChunkDelay(long millis) {
+		this.mChunkDelay = millis;
+	}
+
+	/**
+	 * Answer the range requests with the whole file, like a server which doesn't support ranges.
+	 */
+	void setRangeIgnored(boolean ignored) {
+		this.mRangeIgnored = ignored;
+	}
+
+	/**
+	 * Encode the whole file in the responses of the requests which accept the encoding, the ranges are ignored.
+	 * @param encoding gzip or deflate, null to send the file as is.
+	 * @param raw Send the raw deflate data without the zlib wrapper, like some servers do.
+	 */
+	void setContentEncoding(String encoding, boolean raw) throws IOException {
+		byte [] encoded = null;
+		if (null != encoding) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			OutputStream encoder = "gzip".equals(encoding) ? new GZIPOutputStream(out)
+					: new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+			encoder.write(mData);
+			encoder.close();
+			encoded = out.toByteArray();
+		}
+		this.mEncodedData = encoded;
+		this.mEncoding = encoding;
+	}
+
+	/**
+	 * Get the encoded file sent by the encoded responses.
+	 */
+	byte [] getEncodedData() {
+		return mEncodedData;
+	}
+
+	/**
+	 * Send a wrong byte at the position of the file in the next range responses which include it.
+	 * @param position The position of the byte in the file.
+	 * @param times The number of the responses to corrupt.
+	 */
+	void setCorrupted(int position, int times) {
+		mCorruptedTimes.set(times);
+		this.mCorruptedPosition = position;
+	}
+
+	/**
+	 * Answer the requests to the address with 503.
+	 */
+	void setFailing(String address) {
+		mFailingAddresses.add(address);
+	}
+
+	/**
+	 * Send the responses of the requests to the address slowly.
+	 */
+	void setSlow(String address) {
+		mSlowAddresses.add(address);
+	}
+
+	/**
+	 * Get the number of the requests to the address.
+	 */
+	int getRequestCount(String address) {
+		AtomicInteger count = mRequests.get(address);
+		return null == count ? 0 : count.get();
+	}
+
+	/**
+	 * Get the number of the requests of the whole file, the probes and the single requests.
+	 */
+	int getFullRequestCount() {
+		return mFullRequests.get();
+	}
+
+	/**
+	 * Get the Host headers of all the requests.
+	 */
+	Set<String> getHosts() {
+		synchronized (mHosts) {
+			return new HashSet<String>(mHosts);
+		}
+	}
+
+	void stop() {
+		mServer.stop(0);
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		String address = exchange.getLocalAddress().getAddress().getHostAddress();
+		AtomicInteger count = mRequests.get(address);
+		if (null == count) {
+			mRequests.put(address, new AtomicInteger());
+			count = mRequests.get(address);
+		}
+		count.incrementAndGet();
+		mHosts.add(exchange.getRequestHeaders().getFirst("Host"));
+		if (mFailingAddresses.contains(address)) {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+			return;
+		}
+		byte [] data = mData;
+		int start = 0;
+		int end = mData.length - 1;
+		int code = 200;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String encoding = mEncoding;
+		String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (null != encoding && null != accepted && accepted.contains(encoding)) {
+			data = mEncodedData;
+			end = data.length - 1;
+			exchange.getResponseHeaders().add("Content-Encoding", encoding);
+			mFullRequests.incrementAndGet();
+		} else if (null != range && range.startsWith("bytes=") && !mRangeIgnored) {
+			String [] bounds = range.substring(6).split("-");
+			start = Integer.parseInt(bounds[0]);
+			if (bounds.length > 1 && bounds[1].length() > 0) {
+				end = Math.min(end, Integer.parseInt(bounds[1]));
+			}
+			code = 206;
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + mData.length);
+		} else {
+			mFullRequests.incrementAndGet();
+		}
+		exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+		exchange.sendResponseHeaders(code, end - start + 1);
+		long delay = mSlowAddresses.contains(address) ? Math.max(mChunkDelay, 40) : mChunkDelay;
+		int corrupted = mCorruptedPosition;
+		if (code != 206 || corrupted < start || corrupted > end || mCorruptedTimes.getAndDecrement() <= 0) {
+			corrupted = -1;
+		}
+		OutputStream out = exchange.getResponseBody();
+		try {
+			for (int position = start; position <= end; position += CHUNK_SIZE) {
+				int length = Math.min(CHUNK_SIZE, end - position + 1);
+				if (corrupted >= position && corrupted < position + length) {
+					byte [] chunk = new byte[length];
+					System.arraycopy(data, position, chunk, 0, length);
+					chunk[corrupted - position] ^= 0xff;
+					out.write(chunk);
+				} else {
+					out.write(data, position, length);
+				}
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+			}
+		} catch (InterruptedException e) {
+			// The server is stopped.
+		} catch (IOException e) {
+			// The download closed the connection.
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// The connection is broken already.
+			}
+		}
+	}
+}
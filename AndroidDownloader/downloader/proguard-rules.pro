@@ -15,3 +15,8 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# The platform is created by reflection from downloader-core.
+-keep class com.opensource.downloader.AndroidPlatform {
+    <init>();
+}
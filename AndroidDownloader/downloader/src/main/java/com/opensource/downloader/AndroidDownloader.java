@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import android.content.Context;
+
+import com.opensource.downloader.db.SQLiteResumeStore;
+
+import java.io.File;
+
+/**
+ * Usage The {@link Downloader} which saves the download log in the database of the app, it takes
+ * the arguments of the constructors the Downloader had before the engine moved to the core module.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class AndroidDownloader extends Downloader {
+
+	/**
+	 * Constructor<br><br>
+	 * @param context
+	 * @param downloadUrl
+	 * @param saveFolder
+	 * @param fileName 保存文件名称
+	 * @param threadNum
+	 */
+	public AndroidDownloader(Context context, String downloadUrl, File saveFolder, String fileName, int threadNum) {
+		this(context, downloadUrl, saveFolder, fileName, threadNum, true);
+	}
+
+	/**
+	 * Constructor<br><br>
+	 * @param context
+	 * @param downloadUrl
+	 * @param saveFolder
+	 * @param fileName 保存的文件名称
+	 * @param threadNum
+	 * @param breakPointSupported Is break point supporeted, If this value is true, it would save the download log into database.
+	 */
+	public AndroidDownloader(Context context, String downloadUrl, File saveFolder, String fileName, int threadNum,
+			boolean breakPointSupported) {
+		super(breakPointSupported ? new SQLiteResumeStore(context) : null, downloadUrl, saveFolder, fileName, threadNum);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.StatFs;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+
+/**
+ * Usage The platform of Android, found by {@link DownloadPlatform#get()} when this module is in the app.
+ * The log goes to logcat, the event callbacks run on the main thread, and the files are allocated by fallocate.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class AndroidPlatform extends DownloadPlatform {
+
+	private static final String TAG = "DOWNLOADER";
+
+	private final DownloadLogger mLogger = new DownloadLogger() {
+		@Override
+		public void log(int priority, String tag, String message) {
+			Log.println(priority, tag, message);
+		}
+
+		@Override
+		public boolean isLoggable(String tag, int priority) {
+			return Log.isLoggable(tag, priority);
+		}
+	};
+
+	private final Executor mMainThreadExecutor = new Executor() {
+
+		private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+		@Override
+		public void execute(Runnable command) {
+			mHandler.post(command);
+		}
+	};
+
+	@Override
+	public DownloadLogger getLogger() {
+		return mLogger;
+	}
+
+	@Override
+	public Executor getCallbackExecutor() {
+		return mMainThreadExecutor;
+	}
+
+	@Override
+	public long getUsableSpace(File folder) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			return folder.getUsableSpace();
+		}
+		StatFs stat = new StatFs(folder.getAbsolutePath());
+		return (long) stat.getAvailableBlocks() * stat.getBlockSize();
+	}
+
+	@Override
+	public boolean setExecutable(File file) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			return super.setExecutable(file);
+		}
+		return false;
+	}
+
+	@Override
+	public boolean fallocate(RandomAccessFile file, long offset, long length) throws IOException {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			try {
+				Os.posix_fallocate(file.getFD(), offset, length);
+				return true;
+			} catch (ErrnoException e) {
+				// The file system doesn't support fallocate, fill zeros instead.
+				Log.w(TAG, "fallocate failed, fill zeros instead: " + e);
+			}
+		}
+		return false;
+	}
+}
@@ -183,7 +183,15 @@ public abstract class AsyncDBTask<Params, Progress, Result> {
 		public static void clearQueue() {
 			sWorkQueue.clear();
 		}
-		
+
+		/**
+		 * Execute the runnable on the database thread, after the tasks queued before it.
+		 * @param runnable
+		 */
+		public static void executeSerially(Runnable runnable) {
+			sExecutor.execute(runnable);
+		}
+
 
     /**
      * Creates a new asynchronous task. This constructor must be invoked on the UI thread.
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.db;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * usage Batch log database util, the urls finished of each batch.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class BatchLogDBUtils {
+
+	private static final String TABLE_NAME = "batch_log";
+
+	private static final String BATCH = "batch";
+	private static final String URL = "url";
+
+	/**
+	 * Save the urls finished since the last checkpoint, in one transaction.
+	 * @param context
+	 * @param batch The id of the batch.
+	 * @param urls
+	 * @return
+	 */
+	public static int save(Context context, String batch, Collection<String> urls) {
+		SQLiteDatabase db = DownloadDBHelper.getWriteableDatabase(context);
+		int count = 0;
+		db.beginTransaction();
+		try {
+			count = save(db, batch, urls);
+			db.setTransactionSuccessful();
+		} catch(IllegalStateException e) {
+			e.printStackTrace();
+		} finally {
+			db.endTransaction();
+			db.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Save the urls finished in the transaction of the caller.
+	 * @param db The database in a transaction.
+	 * @param batch The id of the batch.
+	 * @param urls
+	 * @return
+	 */
+	public static int save(SQLiteDatabase db, String batch, Collection<String> urls) {
+		int count = 0;
+		ContentValues values = new ContentValues();
+		for (String url : urls) {
+			values.clear();
+			values.put(BATCH, batch);
+			values.put(URL, url);
+			db.insert(TABLE_NAME, "", values);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Delete the log of the batch.
+	 * @param context
+	 * @param batch
+	 * @return
+	 */
+	public static int delete(Context context, String batch) {
+		SQLiteDatabase db = DownloadDBHelper.getWriteableDatabase(context);
+		int count = 0;
+		try {
+			db.beginTransaction();
+			count = delete(db, batch);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			db.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Delete the log of the batch in the transaction of the caller.
+	 * @param db The database in a transaction.
+	 * @param batch
+	 * @return
+	 */
+	public static int delete(SQLiteDatabase db, String batch) {
+		return db.delete(TABLE_NAME, BATCH + " = ?", new String[] {batch, });
+	}
+
+	/**
+	 * Get the urls finished of the batch.
+	 * @param context
+	 * @param batch
+	 * @return
+	 */
+	public static Set<String> getFinished(Context context, String batch) {
+		SQLiteDatabase db = DownloadDBHelper.getReadableDatabase(context);
+		Cursor cursor = db.query(TABLE_NAME, new String[] {URL, }, BATCH + " = ?",
+                new String[] {batch, }, null, null, null);
+		Set<String> urls = new HashSet<String>();
+		if(cursor != null) {
+			if(cursor.moveToFirst()) {
+				int urlIndex = cursor.getColumnIndex(URL);
+				do {
+					urls.add(cursor.getString(urlIndex));
+				} while(cursor.moveToNext());
+			}
+			cursor.close();
+		}
+		db.close();
+		return urls;
+	}
+}
@@ -32,7 +32,7 @@ public class DownloadDBHelper extends SQLiteOpenHelper {
 	
 	private static final String DB_NAME = "download.db";
 	
-	private static final int DB_VERSION = 1;
+	private static final int DB_VERSION = 3;
 	
 	public static DownloadDBHelper mDBHelper = null;
 	
@@ -63,7 +63,11 @@ public class DownloadDBHelper extends SQLiteOpenHelper {
 		
 		//下载进度表，各个线程的进度
 		db.execSQL("CREATE TABLE IF NOT EXISTS download_log(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "url TEXT, thread_id INTEGER, downloaded_size INTEGER, file TEXT)");
+                "url TEXT, thread_id INTEGER, downloaded_size INTEGER, file TEXT, start_pos INTEGER, end_pos INTEGER)");
+		
+		//批量下载已完成的文件
+		db.execSQL("CREATE TABLE IF NOT EXISTS batch_log(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "batch TEXT, url TEXT)");
 		
 		//下载历史
 		db.execSQL("CREATE TABLE IF NOT EXISTS download_history(_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -81,7 +85,10 @@ public class DownloadDBHelper extends SQLiteOpenHelper {
 	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		dropAllTables(db);
+		if (oldVersion < 2) {
+			// The download log of version 1 has no range of the segments.
+			dropAllTables(db);
+		}
 		onCreate(db);
 	}
 	
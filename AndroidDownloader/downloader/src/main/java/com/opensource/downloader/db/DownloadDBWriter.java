@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.db;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.opensource.downloader.AsyncDBTask;
+import com.opensource.downloader.Segment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Usage The writer of the download logs and batch logs. The writes of all the downloads are queued
+ * in memory without touching the database, and committed in one transaction per tick on the
+ * database thread of {@link AsyncDBTask}. The checkpoints of a segment queued in one tick are
+ * merged, only the last one is written.<br><br>
+ *
+ * A log in the database may be one tick older than the data in the file, the data after the log
+ * is downloaded again when resumed.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadDBWriter {
+
+	private static final String TAG = "DOWNLOADER";
+
+	/** The default interval of the commits, the same as the default update time of the downloads. */
+	public static final long DEFAULT_COMMIT_INTERVAL = 1000;
+
+	// The times to retry the changes of a failed commit before they are dropped.
+	private static final int MAX_COMMIT_RETRIES = 3;
+
+	private static DownloadDBWriter sInstance;
+
+	private final Context mContext;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Object mLock = new Object();
+	private Map<String, LogChange> mLogChanges = new LinkedHashMap<String, LogChange>(); // Guarded by mLock.
+	private Map<String, BatchChange> mBatchChanges = new LinkedHashMap<String, BatchChange>(); // Guarded by mLock.
+	private boolean mScheduled = false; // A commit is scheduled, guarded by mLock.
+	private long mLastCommitTime = 0; // Guarded by mLock.
+	private long mCommitInterval = DEFAULT_COMMIT_INTERVAL; // Guarded by mLock.
+	private int mFailedCommits = 0; // The commits failed in a row, guarded by mLock.
+
+	private final Runnable mCommitTask = new Runnable() {
+		@Override
+		public void run() {
+			commit();
+		}
+	};
+
+	private final Runnable mScheduleTask = new Runnable() {
+		@Override
+		public void run() {
+			AsyncDBTask.executeSerially(mCommitTask);
+		}
+	};
+
+	private DownloadDBWriter(Context context) {
+		this.mContext = context.getApplicationContext();
+	}
+
+	/**
+	 * Get the writer of the app, the writes of all the downloads go through it.
+	 * @param context
+	 * @return
+	 */
+	public static synchronized DownloadDBWriter getInstance(Context context) {
+		if (null == sInstance) {
+			sInstance = new DownloadDBWriter(context);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Set the interval of the commits, 1 second by default.
+	 * @param interval The interval in milliseconds, 0 to commit as soon as the database thread is free.
+	 */
+	public void setCommitInterval(long interval) {
+		synchronized (mLock) {
+			this.mCommitInterval = interval;
+		}
+	}
+
+	/**
+	 * Replace the log of the url with the segments.
+	 * @param url
+	 * @param file
+	 * @param segments
+	 */
+	public void save(String url, String file, Collection<Segment> segments) {
+		List<Segment> copies = new ArrayList<Segment>();
+		for (Segment segment : segments) {
+			copies.add(copy(segment));
+		}
+		synchronized (mLock) {
+			getLogChange(url).save(file, copies);
+			schedule();
+		}
+	}
+
+	/**
+	 * Update one segment of the url, add it if not exists.
+	 * @param url
+	 * @param file
+	 * @param segment
+	 */
+	public void update(String url, String file, Segment segment) {
+		Segment copy = copy(segment);
+		synchronized (mLock) {
+			getLogChange(url).update(file, copy);
+			schedule();
+		}
+	}
+
+	/**
+	 * Delete the log of the url.
+	 * @param url
+	 */
+	public void delete(String url) {
+		synchronized (mLock) {
+			getLogChange(url).delete();
+			schedule();
+		}
+	}
+
+	/**
+	 * Add the urls finished in the batch.
+	 * @param batch
+	 * @param urls
+	 */
+	public void addFinished(String batch, Collection<String> urls) {
+		synchronized (mLock) {
+			getBatchChange(batch).addFinished(urls);
+			schedule();
+		}
+	}
+
+	/**
+	 * Delete the log of the batch.
+	 * @param batch
+	 */
+	public void deleteBatch(String batch) {
+		synchronized (mLock) {
+			getBatchChange(batch).delete();
+			schedule();
+		}
+	}
+
+	/**
+	 * Commit the queued writes now and wait for it, such as before reading the logs.
+	 * It must not be called on the database thread.
+	 */
+	public void flush() {
+		synchronized (mLock) {
+			if (mLogChanges.isEmpty() && mBatchChanges.isEmpty()) {
+				return;
+			}
+		}
+		FutureTask<Void> task = new FutureTask<Void>(mCommitTask, null);
+		AsyncDBTask.executeSerially(task);
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.e(TAG, "Failed to commit download logs: " + e.getCause());
+		}
+	}
+
+	private void schedule() {
+		if (mScheduled) {
+			return;
+		}
+		mScheduled = true;
+		long delay = mLastCommitTime + mCommitInterval - System.currentTimeMillis();
+		mHandler.postDelayed(mScheduleTask, Math.max(0, delay));
+	}
+
+	/**
+	 * Write all the queued changes in one transaction, run on the database thread.
+	 */
+	private void commit() {
+		Map<String, LogChange> logChanges;
+		Map<String, BatchChange> batchChanges;
+		synchronized (mLock) {
+			logChanges = mLogChanges;
+			batchChanges = mBatchChanges;
+			mLogChanges = new LinkedHashMap<String, LogChange>();
+			mBatchChanges = new LinkedHashMap<String, BatchChange>();
+			mScheduled = false;
+			mLastCommitTime = System.currentTimeMillis();
+		}
+		if (logChanges.isEmpty() && batchChanges.isEmpty()) {
+			return;
+		}
+		SQLiteDatabase db;
+		try {
+			db = DownloadDBHelper.getWriteableDatabase(mContext);
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Failed to open the database of download logs: " + e);
+			retry(logChanges, batchChanges);
+			return;
+		}
+		db.beginTransaction();
+		try {
+			write(db, logChanges, batchChanges);
+			db.setTransactionSuccessful();
+			synchronized (mLock) {
+				mFailedCommits = 0;
+			}
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Failed to commit download logs: " + e);
+			retry(logChanges, batchChanges);
+		} finally {
+			db.endTransaction();
+			db.close();
+		}
+	}
+
+	private void write(SQLiteDatabase db, Map<String, LogChange> logChanges, Map<String, BatchChange> batchChanges) {
+		for (Map.Entry<String, LogChange> entry : logChanges.entrySet()) {
+			String url = entry.getKey();
+			LogChange change = entry.getValue();
+			if (change.isDelete() || null != change.getReplace()) {
+				DownloadLogDBUtils.delete(db, url);
+			}
+			if (null != change.getReplace()) {
+				DownloadLogDBUtils.save(db, url, change.getFile(), change.getReplace());
+			}
+			for (Segment segment : change.getUpdates()) {
+				DownloadLogDBUtils.update(db, url, change.getFile(), segment);
+			}
+		}
+		for (Map.Entry<String, BatchChange> entry : batchChanges.entrySet()) {
+			BatchChange change = entry.getValue();
+			if (change.isDelete()) {
+				BatchLogDBUtils.delete(db, entry.getKey());
+			}
+			BatchLogDBUtils.save(db, entry.getKey(), change.getFinished());
+		}
+	}
+
+	/**
+	 * Queue the changes of a failed commit again before the changes queued since, so they are
+	 * committed in the next tick. They are dropped if the commits keep failing.
+	 */
+	private void retry(Map<String, LogChange> logChanges, Map<String, BatchChange> batchChanges) {
+		synchronized (mLock) {
+			mFailedCommits++;
+			if (mFailedCommits > MAX_COMMIT_RETRIES) {
+				Log.e(TAG, "Drop the download logs of " + logChanges.size() + " urls after "
+						+ MAX_COMMIT_RETRIES + " retries");
+				mFailedCommits = 0;
+				return;
+			}
+			for (Map.Entry<String, LogChange> entry : mLogChanges.entrySet()) {
+				LogChange failed = logChanges.get(entry.getKey());
+				logChanges.put(entry.getKey(), null == failed ? entry.getValue() : failed.merge(entry.getValue()));
+			}
+			for (Map.Entry<String, BatchChange> entry : mBatchChanges.entrySet()) {
+				BatchChange failed = batchChanges.get(entry.getKey());
+				batchChanges.put(entry.getKey(), null == failed ? entry.getValue() : failed.merge(entry.getValue()));
+			}
+			mLogChanges = logChanges;
+			mBatchChanges = batchChanges;
+			schedule();
+		}
+	}
+
+	private LogChange getLogChange(String url) {
+		LogChange change = mLogChanges.get(url);
+		if (null == change) {
+			change = new LogChange();
+			mLogChanges.put(url, change);
+		}
+		return change;
+	}
+
+	private BatchChange getBatchChange(String batch) {
+		BatchChange change = mBatchChanges.get(batch);
+		if (null == change) {
+			change = new BatchChange();
+			mBatchChanges.put(batch, change);
+		}
+		return change;
+	}
+
+	private static Segment copy(Segment segment) {
+		return new Segment(segment.getId(), segment.getStart(), segment.getEnd(), segment.getDownloaded());
+	}
+
+	/**
+	 * The changes of the log of one url in a tick. The old log is deleted if mDelete or mReplace is set,
+	 * then mReplace is inserted, then the updates are applied.
+	 */
+	static class LogChange {
+		private boolean mDelete = false;
+		private List<Segment> mReplace;
+		private String mFile;
+		private final Map<Integer, Segment> mUpdates = new LinkedHashMap<Integer, Segment>();
+
+		/**
+		 * Replace the log, the updates queued before are dropped.
+		 */
+		void save(String file, List<Segment> segments) {
+			mReplace = segments;
+			mFile = file;
+			mUpdates.clear();
+		}
+
+		/**
+		 * Update one segment, only the last update of a segment is kept.
+		 */
+		void update(String file, Segment segment) {
+			mFile = file;
+			mUpdates.put(segment.getId(), segment);
+		}
+
+		/**
+		 * Delete the log, the replacement and the updates queued before are dropped.
+		 */
+		void delete() {
+			mDelete = true;
+			mReplace = null;
+			mUpdates.clear();
+		}
+
+		boolean isDelete() {
+			return mDelete;
+		}
+
+		List<Segment> getReplace() {
+			return mReplace;
+		}
+
+		String getFile() {
+			return mFile;
+		}
+
+		Collection<Segment> getUpdates() {
+			return mUpdates.values();
+		}
+
+		/**
+		 * Merge the change queued after this one, the result has the effect of both in order.
+		 */
+		LogChange merge(LogChange next) {
+			if (next.mDelete || null != next.mReplace) {
+				return next;
+			}
+			if (null != next.mFile) {
+				mFile = next.mFile;
+			}
+			mUpdates.putAll(next.mUpdates);
+			return this;
+		}
+	}
+
+	/**
+	 * The changes of the log of one batch in a tick.
+	 */
+	static class BatchChange {
+		private boolean mDelete = false;
+		private final List<String> mFinished = new ArrayList<String>();
+
+		void addFinished(Collection<String> urls) {
+			mFinished.addAll(urls);
+		}
+
+		/**
+		 * Delete the log, the urls added before are dropped.
+		 */
+		void delete() {
+			mDelete = true;
+			mFinished.clear();
+		}
+
+		boolean isDelete() {
+			return mDelete;
+		}
+
+		List<String> getFinished() {
+			return mFinished;
+		}
+
+		/**
+		 * Merge the change queued after this one, the result has the effect of both in order.
+		 */
+		BatchChange merge(BatchChange next) {
+			if (next.mDelete) {
+				return next;
+			}
+			mFinished.addAll(next.mFinished);
+			return this;
+		}
+	}
+}
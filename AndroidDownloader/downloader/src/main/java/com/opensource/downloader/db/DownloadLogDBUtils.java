@@ -18,13 +18,17 @@
 
 package com.opensource.downloader.db;
 
-import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
-import java.util.HashMap;
+import com.opensource.downloader.Segment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 
@@ -41,30 +45,22 @@ public class DownloadLogDBUtils {
     private static final String THREAD_ID = "thread_id";
     private static final String DOWNLOADED_SIZE = "downloaded_size";
     private static final String FILE = "file";
+    private static final String START_POS = "start_pos";
+    private static final String END_POS = "end_pos";
 	
 	/**
-	 * Save the log of a file.
+	 * Save the log of the segments of a file.
 	 * @param context
 	 * @param url
-	 * @param log
+	 * @param segments
 	 * @return
 	 */
-	public static int save(Context context, String url, String file, Map<Integer, Integer> log) {
+	public static int save(Context context, String url, String file, Collection<Segment> segments) {
 		SQLiteDatabase db = DownloadDBHelper.getWriteableDatabase(context);
 		int count = 0;
 		db.beginTransaction();
 		try {
-			ContentValues values = new ContentValues();
-			for (Map.Entry<Integer, Integer> entry : log.entrySet()) {
-				// 插入特定下载路径特定线程ID已经下载的数据
-				values.clear();
-				values.put(URL, url);
-				values.put(THREAD_ID, entry.getKey());
-				values.put(DOWNLOADED_SIZE, entry.getValue());
-                values.put(FILE, file);
-				db.insert(TABLE_NAME, "", values);
-				count++;
-			}
+			count = save(db, url, file, segments);
 			// 设置事务执行的标志为成功
 			db.setTransactionSuccessful();
 		} catch(IllegalStateException e) {
@@ -76,6 +72,32 @@ public class DownloadLogDBUtils {
 		return count;
 	}
 	
+	/**
+	 * Save the log of the segments of a file in the transaction of the caller.
+	 * @param db The database in a transaction.
+	 * @param url
+	 * @param file
+	 * @param segments
+	 * @return
+	 */
+	public static int save(SQLiteDatabase db, String url, String file, Collection<Segment> segments) {
+		int count = 0;
+		ContentValues values = new ContentValues();
+		for (Segment segment : segments) {
+			// 插入特定下载路径特定线程ID已经下载的数据
+			values.clear();
+			values.put(URL, url);
+			values.put(THREAD_ID, segment.getId());
+			values.put(DOWNLOADED_SIZE, segment.getDownloaded());
+			values.put(FILE, file);
+			values.put(START_POS, segment.getStart());
+			values.put(END_POS, segment.getEnd());
+			db.insert(TABLE_NAME, "", values);
+			count++;
+		}
+		return count;
+	}
+
 	/**
 	 * Delete the log by url
 	 * @param context
@@ -87,7 +109,7 @@ public class DownloadLogDBUtils {
 		int count = 0;
 		try {
 			db.beginTransaction();
-			count = db.delete(TABLE_NAME, URL + " = ?", new String[] {url, });
+			count = delete(db, url);
 			db.setTransactionSuccessful();
 		} finally {
 			db.endTransaction();
@@ -95,25 +117,37 @@ public class DownloadLogDBUtils {
 		}
 		return count;
 	}
+
+	/**
+	 * Delete the log by url in the transaction of the caller.
+	 * @param db The database in a transaction.
+	 * @param url
+	 * @return
+	 */
+	public static int delete(SQLiteDatabase db, String url) {
+		return db.delete(TABLE_NAME, URL + " = ?", new String[] {url, });
+	}
 	
 	/**
-	 * Get the log by url.
+	 * Get the log of the segments by url, ordered by start position.
 	 * @param context
 	 * @param url
 	 * @return
 	 */
-	@SuppressLint("UseSparseArrays")
-	public static Map<Integer, Integer> getLogByUrl(Context context, String url) {
+	public static List<Segment> getLogByUrl(Context context, String url) {
 		SQLiteDatabase db = DownloadDBHelper.getReadableDatabase(context);
 		Cursor cursor = db.query(TABLE_NAME, null, URL + " = ?",
-                new String[] {url, }, null, null, null);
-		Map<Integer, Integer> data = new HashMap<Integer, Integer>();
+                new String[] {url, }, null, null, START_POS);
+		List<Segment> data = new ArrayList<Segment>();
 		if(cursor != null) {
 			if(cursor.moveToFirst()) {
 				int idIndex = cursor.getColumnIndex(THREAD_ID);
 				int sizeIndex = cursor.getColumnIndex(DOWNLOADED_SIZE);
+				int startIndex = cursor.getColumnIndex(START_POS);
+				int endIndex = cursor.getColumnIndex(END_POS);
 				do {
-					data.put(cursor.getInt(idIndex), cursor.getInt(sizeIndex));
+					data.add(new Segment(cursor.getInt(idIndex), cursor.getLong(startIndex),
+							cursor.getLong(endIndex), cursor.getLong(sizeIndex)));
 				} while(cursor.moveToNext());
 			}
 			cursor.close();
@@ -123,22 +157,53 @@ public class DownloadLogDBUtils {
 	}
 	
 	/**
-	 * Update a log record through thread id and url
+	 * Get the logs of all the urls, the segments of each url are ordered by start position.
+	 * @param context
+	 * @param files Filled with the file of each url.
+	 * @return The segments by url.
+	 */
+	public static Map<String, List<Segment>> getAllLogs(Context context, Map<String, String> files) {
+		SQLiteDatabase db = DownloadDBHelper.getReadableDatabase(context);
+		Cursor cursor = db.query(TABLE_NAME, null, null, null, null, null, URL + ", " + START_POS);
+		Map<String, List<Segment>> data = new LinkedHashMap<String, List<Segment>>();
+		if(cursor != null) {
+			if(cursor.moveToFirst()) {
+				int urlIndex = cursor.getColumnIndex(URL);
+				int fileIndex = cursor.getColumnIndex(FILE);
+				int idIndex = cursor.getColumnIndex(THREAD_ID);
+				int sizeIndex = cursor.getColumnIndex(DOWNLOADED_SIZE);
+				int startIndex = cursor.getColumnIndex(START_POS);
+				int endIndex = cursor.getColumnIndex(END_POS);
+				do {
+					String url = cursor.getString(urlIndex);
+					List<Segment> segments = data.get(url);
+					if (null == segments) {
+						segments = new ArrayList<Segment>();
+						data.put(url, segments);
+						files.put(url, cursor.getString(fileIndex));
+					}
+					segments.add(new Segment(cursor.getInt(idIndex), cursor.getLong(startIndex),
+							cursor.getLong(endIndex), cursor.getLong(sizeIndex)));
+				} while(cursor.moveToNext());
+			}
+			cursor.close();
+		}
+		db.close();
+		return data;
+	}
+
+	/**
+	 * Update a log record through segment id and url, insert it if not exists.
 	 * @param context
 	 * @param url
-	 * @param threadId
-	 * @param downloadedSize
+	 * @param segment
 	 */
-	public static int update(Context context, String url, String file, int threadId, int downloadedSize) {
+	public static int update(Context context, String url, String file, Segment segment) {
 		SQLiteDatabase db = DownloadDBHelper.getWriteableDatabase(context);
 		int count = 0;
 		try {
 			db.beginTransaction();
-			ContentValues values = new ContentValues();
-			values.put(DOWNLOADED_SIZE, downloadedSize);
-            values.put(FILE, file);
-			count = db.update(TABLE_NAME, values, URL + " = ? AND " + THREAD_ID + " = ?",
-                    new String[] {url, String.valueOf(threadId), });
+			count = update(db, url, file, segment);
 			db.setTransactionSuccessful();
 		} finally {
 			db.endTransaction();
@@ -146,5 +211,31 @@ public class DownloadLogDBUtils {
 		}
 		return count;
 	}
+
+	/**
+	 * Update a log record in the transaction of the caller, insert it if not exists.
+	 * @param db The database in a transaction.
+	 * @param url
+	 * @param file
+	 * @param segment
+	 * @return
+	 */
+	public static int update(SQLiteDatabase db, String url, String file, Segment segment) {
+		ContentValues values = new ContentValues();
+		values.put(DOWNLOADED_SIZE, segment.getDownloaded());
+		values.put(FILE, file);
+		values.put(END_POS, segment.getEnd());
+		int count = db.update(TABLE_NAME, values, URL + " = ? AND " + THREAD_ID + " = ?",
+				new String[] {url, String.valueOf(segment.getId()), });
+		if (count == 0) {
+			// The segment split from another one.
+			values.put(URL, url);
+			values.put(THREAD_ID, segment.getId());
+			values.put(START_POS, segment.getStart());
+			db.insert(TABLE_NAME, "", values);
+			count = 1;
+		}
+		return count;
+	}
 	
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.db;
+
+import android.content.Context;
+
+import com.opensource.downloader.ResumeStore;
+import com.opensource.downloader.Segment;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Usage The {@link ResumeStore} in the database of the app, the downloads are resumed after the app restarts.
+ * The writes are queued and group committed by {@link DownloadDBWriter}, so the download threads never wait
+ * for the database. The reads commit the queued writes first.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class SQLiteResumeStore implements ResumeStore {
+
+	private final Context mContext;
+	private final DownloadDBWriter mWriter;
+
+	public SQLiteResumeStore(Context context) {
+		this.mContext = context.getApplicationContext();
+		this.mWriter = DownloadDBWriter.getInstance(mContext);
+	}
+
+	@Override
+	public List<Segment> load(String url) {
+		mWriter.flush();
+		return DownloadLogDBUtils.getLogByUrl(mContext, url);
+	}
+
+	@Override
+	public Map<String, List<Segment>> loadAll(Map<String, String> files) {
+		mWriter.flush();
+		return DownloadLogDBUtils.getAllLogs(mContext, files);
+	}
+
+	@Override
+	public void save(String url, String file, Collection<Segment> segments) {
+		mWriter.save(url, file, segments);
+	}
+
+	@Override
+	public void update(String url, String file, Segment segment) {
+		mWriter.update(url, file, segment);
+	}
+
+	@Override
+	public void delete(String url) {
+		mWriter.delete(url);
+	}
+
+	@Override
+	public Set<String> getFinished(String batch) {
+		mWriter.flush();
+		return BatchLogDBUtils.getFinished(mContext, batch);
+	}
+
+	@Override
+	public void addFinished(String batch, Collection<String> urls) {
+		mWriter.addFinished(batch, urls);
+	}
+
+	@Override
+	public void deleteBatch(String batch) {
+		mWriter.deleteBatch(batch);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.downloader.db;
+
+import com.opensource.downloader.Segment;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage The tests of the changes {@link DownloadDBWriter} queues in a tick and commits in one transaction.
+ * @author yinglovezhuzhu@gmail.com
+ *
+ */
+public class DownloadDBWriterTest {
+
+	@Test
+	public void testCheckpointsMerged() {
+		DownloadDBWriter.LogChange change = new DownloadDBWriter.LogChange();
+		change.update("file", new Segment(1, 0, 100, 10));
+		change.update("file", new Segment(2, 100, 200, 5));
+		change.update("file", new Segment(1, 0, 100, 30));
+		// One write per segment, with the last checkpoint.
+		List<Segment> updates = new ArrayList<Segment>(change.getUpdates());
+		assertEquals(2, updates.size());
+		assertEquals(1, updates.get(0).getId());
+		assertEquals(30, updates.get(0).getDownloaded());
+		assertEquals(2, updates.get(1).getId());
+		assertEquals(5, updates.get(1).getDownloaded());
+		assertFalse(change.isDelete());
+		assertNull(change.getReplace());
+	}
+
+	@Test
+	public void testSaveReplacesCheckpoints() {
+		DownloadDBWriter.LogChange change = new DownloadDBWriter.LogChange();
+		change.update("old", new Segment(1, 0, 100, 10));
+		List<Segment> segments = Arrays.asList(new Segment(1, 0, 50, 0), new Segment(2, 50, 100, 0));
+		change.save("file", segments);
+		change.update("file", new Segment(2, 50, 100, 20));
+		assertSame(segments, change.getReplace());
+		assertEquals("file", change.getFile());
+		assertEquals(1, change.getUpdates().size());
+		assertEquals(20, change.getUpdates().iterator().next().getDownloaded());
+	}
+
+	@Test
+	public void testDeleteDropsQueuedWrites() {
+		DownloadDBWriter.LogChange change = new DownloadDBWriter.LogChange();
+		change.save("file", Arrays.asList(new Segment(1, 0, 100, 0)));
+		change.update("file", new Segment(1, 0, 100, 40));
+		change.delete();
+		assertTrue(change.isDelete());
+		assertNull(change.getReplace());
+		assertTrue(change.getUpdates().isEmpty());
+	}
+
+	@Test
+	public void testFailedCommitMerged() {
+		// The changes of a failed commit are merged before the changes queued since.
+		DownloadDBWriter.LogChange failed = new DownloadDBWriter.LogChange();
+		failed.save("file", Arrays.asList(new Segment(1, 0, 100, 0)));
+		failed.update("file", new Segment(1, 0, 100, 10));
+		DownloadDBWriter.LogChange next = new DownloadDBWriter.LogChange();
+		next.update("file", new Segment(1, 0, 100, 60));
+		DownloadDBWriter.LogChange merged = failed.merge(next);
+		assertEquals(1, merged.getReplace().size());
+		assertEquals(60, merged.getUpdates().iterator().next().getDownloaded());
+
+		// A delete queued since wins.
+		DownloadDBWriter.LogChange deleted = new DownloadDBWriter.LogChange();
+		deleted.delete();
+		assertSame(deleted, merged.merge(deleted));
+	}
+
+	@Test
+	public void testBatchChanges() {
+		DownloadDBWriter.BatchChange failed = new DownloadDBWriter.BatchChange();
+		failed.addFinished(Arrays.asList("a", "b"));
+		DownloadDBWriter.BatchChange next = new DownloadDBWriter.BatchChange();
+		next.addFinished(Arrays.asList("c"));
+		assertEquals(Arrays.asList("a", "b", "c"), failed.merge(next).getFinished());
+
+		DownloadDBWriter.BatchChange deleted = new DownloadDBWriter.BatchChange();
+		deleted.addFinished(Arrays.asList("d"));
+		deleted.delete();
+		assertTrue(deleted.isDelete());
+		assertTrue(deleted.getFinished().isEmpty());
+		assertSame(deleted, failed.merge(deleted));
+	}
+}